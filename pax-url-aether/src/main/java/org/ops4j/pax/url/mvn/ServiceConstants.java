@@ -126,6 +126,27 @@ public interface ServiceConstants
      */
     String PROPERTY_OFFLINE = "offline";
 
+    /**
+     * Path of an offline index file. When {@link #PROPERTY_OFFLINE} is <code>true</code> and this property is set,
+     * the resolver builds (on first lookup, if the file doesn't exist yet) an index of all artifacts found in
+     * default and local repositories and answers lookups from it, falling back to Aether only for artifacts not in
+     * the index. The index is rebuilt before a version range or LATEST lookup if versions of the artifact were
+     * installed or removed since it was built. Delete the file to have it rebuilt.
+     */
+    String PROPERTY_OFFLINE_INDEX = "offline.index";
+
+    /**
+     * Path of a file listing <code>mvn:</code> URIs (one per line, <code>#</code> starts a comment) that are
+     * resolved in the background as soon as the resolver is configured, so that they're available locally by the
+     * time they are requested.
+     */
+    String PROPERTY_PREFETCH_FILE = "prefetch.file";
+
+    /**
+     * Maximum number of artifacts resolved concurrently by prefetching. Default value is <code>4</code>.
+     */
+    String PROPERTY_PREFETCH_THREADS = "prefetch.threads";
+
     /**
      * Option to mark repository as not allowing releases.
      */
@@ -171,6 +192,12 @@ public interface ServiceConstants
 
     String OPTION_SNAPSHOTS_CHECKSUM = "snapshotsChecksum";
 
+    /**
+     * segment in repository spec that limits the number of pooled HTTP connections to the repository host,
+     * overriding <code>maven.wagon.httpconnectionManager.maxPerRoute</code>.
+     */
+    String OPTION_MAX_CONNECTIONS = "maxConnections";
+
     /**
      * Configure {@link java.net.SocketOptions#SO_TIMEOUT}.
      * If not specified, generic {@link #PROPERTY_TIMEOUT} is used.
@@ -218,6 +245,58 @@ public interface ServiceConstants
      */
     String PROPERTY_CONNECTION_RETRY_COUNT = "connection.retryCount";
 
+    /**
+     * Delay in milliseconds before the first retry of a failed HTTP request, doubled (with random jitter) for each
+     * subsequent retry. Default value is <code>200</code>.
+     */
+    String PROPERTY_CONNECTION_RETRY_BACKOFF = "connection.retryBackoff";
+
+    /**
+     * Maximum delay in milliseconds before a retry. Requests answered with a <code>Retry-After</code> header asking
+     * to wait longer are not retried. Default value is <code>10000</code>.
+     */
+    String PROPERTY_CONNECTION_RETRY_MAX_BACKOFF = "connection.retryMaxBackoff";
+
+    /**
+     * Maximum time in milliseconds a single resolution may take before HTTP requests are no longer retried.
+     * <code>0</code> (the default) means no limit besides {@link #PROPERTY_CONNECTION_RETRY_COUNT}.
+     */
+    String PROPERTY_CONNECTION_RETRY_DEADLINE = "connection.retryDeadline";
+
+    /**
+     * Period of inactivity in milliseconds after which a pooled HTTP connection is checked for being closed by
+     * the server before being reused. <code>0</code> checks connections every time they're reused, negative value
+     * disables the check. Default value is <code>2000</code>.
+     */
+    String PROPERTY_CONNECTION_VALIDATE_AFTER_INACTIVITY = "connection.validateAfterInactivity";
+
+    /**
+     * Time in milliseconds after which idle pooled HTTP connections are closed by a background thread.
+     * <code>0</code> or negative value disables eviction. Default value is <code>60000</code>.
+     */
+    String PROPERTY_CONNECTION_IDLE_TIMEOUT = "connection.idleTimeout";
+
+    /**
+     * <p>If set to <code>true</code>, connections to remote repositories are opened in the background when the
+     * resolver is created, so the first resolutions don't pay for connection setup and TLS handshakes.</p>
+     * <p>Default value is <code>false</code>.</p>
+     */
+    String PROPERTY_CONNECTION_WARMUP = "connection.warmup";
+
+    /**
+     * <p>If set to <code>true</code>, the <code>.sha1</code> checksum of an artifact is requested concurrently
+     * with the artifact itself (over the same pooled client) instead of after the download finished.
+     * Checksum verification itself is still done by Aether while the artifact is streamed to disk.</p>
+     * <p>Default value is <code>false</code>.</p>
+     */
+    String PROPERTY_CHECKSUM_PREFETCH = "checksum.prefetch";
+
+    /**
+     * Maximum number of concurrent checksum prefetch requests (see {@link #PROPERTY_CHECKSUM_PREFETCH}).
+     * Default value is <code>4</code>.
+     */
+    String PROPERTY_CHECKSUM_PREFETCH_THREADS = "checksum.prefetch.threads";
+
     /**
      * <p>Property for configuration of non-canonical Maven behavior. If set to <code>true</code>,
      * {@link MavenResolver} will use Aether policies to determine whether already available non-SNAPSHOT
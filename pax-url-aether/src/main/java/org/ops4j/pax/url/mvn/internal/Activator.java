@@ -15,8 +15,10 @@
  */
 package org.ops4j.pax.url.mvn.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Dictionary;
@@ -27,6 +29,7 @@ import org.ops4j.pax.url.mvn.MavenResolver;
 import org.ops4j.pax.url.mvn.ServiceConstants;
 import org.ops4j.pax.url.mvn.internal.config.MavenConfiguration;
 import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationSnapshot;
 import org.ops4j.util.property.DictionaryPropertyResolver;
 import org.ops4j.util.property.PropertyResolver;
 import org.osgi.framework.BundleActivator;
@@ -74,6 +77,11 @@ public class Activator extends AbstractURLStreamHandlerService
      */
     private final AtomicReference<ServiceRegistration<MavenResolver>> m_resolverReg =
             new AtomicReference<ServiceRegistration<MavenResolver>>();
+    /**
+     * What the last prefetch was started for (list file and repositories), and its progress. Guarded by this.
+     */
+    private String m_prefetchKey;
+    private ArtifactPrefetcher.Progress m_prefetchProgress;
 
     /**
      * Registers Handler as a wrap: protocol stream handler service and as a configuration managed service if
@@ -171,11 +179,16 @@ public class Activator extends AbstractURLStreamHandlerService
         } else {
             propertyResolver = new DictionaryPropertyResolver(config);
         }
-        MavenConfiguration mavenConfig = new MavenConfigurationImpl(propertyResolver, ServiceConstants.PID);
-        if (!((MavenConfigurationImpl) mavenConfig).isValid()) {
+        MavenConfigurationImpl configImpl = new MavenConfigurationImpl(propertyResolver, ServiceConstants.PID);
+        if (!configImpl.isValid()) {
              return;
         }
-        MavenResolver resolver = new AetherBasedResolver(mavenConfig);
+        // resolve the whole configuration here, resolver threads only read this immutable snapshot
+        MavenConfiguration mavenConfig = MavenConfigurationSnapshot.of(configImpl);
+        // keep the HTTP connection pool of the current resolver if transport options didn't change
+        MavenResolver current = m_resolver.get();
+        AetherBasedResolver resolver = new AetherBasedResolver(mavenConfig, null,
+                current instanceof AetherBasedResolver ? (AetherBasedResolver) current : null);
         MavenResolver oldResolver = m_resolver.getAndSet( resolver );
         Dictionary<String, Object> properties = new Hashtable<String, Object>();
         properties.put("configuration", config == null ? "bundlecontext" : "configadmin");
@@ -197,6 +210,55 @@ public class Activator extends AbstractURLStreamHandlerService
             // first registration of URLStreamHandlerService
             registerHandler();
         }
+        prefetch(mavenConfig, resolver);
+    }
+
+    /**
+     * Starts background resolution of artifacts listed in {@link ServiceConstants#PROPERTY_PREFETCH_FILE}, if any.
+     * <p>
+     * Nothing is started again if neither the list file nor the repositories changed since the last prefetch
+     * completed. A prefetch that was still running was stopped along with the previous resolver, and is started
+     * again (artifacts already resolved are found in the local repository).
+     */
+    private synchronized void prefetch(MavenConfiguration mavenConfig, AetherBasedResolver resolver) {
+        String file = mavenConfig.getProperty(ServiceConstants.PROPERTY_PREFETCH_FILE, null, String.class);
+        if (file == null || file.trim().isEmpty()) {
+            m_prefetchKey = null;
+            m_prefetchProgress = null;
+            return;
+        }
+        File list = new File(file.trim());
+        String key = prefetchKey(mavenConfig, list);
+        if (key.equals(m_prefetchKey) && m_prefetchProgress != null && m_prefetchProgress.isDone()
+                && !m_prefetchProgress.isStopped()) {
+            LOG.debug("Artifacts listed in " + list + " already prefetched");
+            return;
+        }
+        try {
+            m_prefetchProgress = resolver.prefetch(ArtifactPrefetcher.readUris(list), null);
+            m_prefetchKey = key;
+        } catch (IOException e) {
+            LOG.warn("Unable to read list of artifacts to prefetch from " + file, e);
+            m_prefetchKey = null;
+            m_prefetchProgress = null;
+        }
+    }
+
+    /**
+     * Identifies what a prefetch depends on: the list file (path, modification time and size) and the repositories.
+     */
+    private static String prefetchKey(MavenConfiguration mavenConfig, File list) {
+        StringBuilder key = new StringBuilder();
+        key.append(list.getAbsolutePath()).append('|').append(list.lastModified()).append('|').append(list.length());
+        key.append('|').append(mavenConfig.isOffline());
+        try {
+            key.append('|').append(mavenConfig.getDefaultRepositories());
+            key.append('|').append(mavenConfig.getRepositories());
+        } catch (MalformedURLException e) {
+            key.append('|').append(e.getMessage());
+        }
+        key.append('|').append(mavenConfig.getLocalRepository());
+        return key.toString();
     }
 
     @Override
@@ -34,14 +34,23 @@ import java.net.ConnectException;
 import java.net.MalformedURLException;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
 import org.apache.maven.artifact.repository.metadata.Versioning;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
@@ -106,7 +115,9 @@ import org.ops4j.pax.url.mvn.MavenResolver;
 import org.ops4j.pax.url.mvn.MirrorInfo;
 import org.ops4j.pax.url.mvn.ServiceConstants;
 import org.ops4j.pax.url.mvn.internal.config.MavenConfiguration;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationSnapshot;
 import org.ops4j.pax.url.mvn.internal.config.MavenRepositoryURL;
+import org.ops4j.pax.url.mvn.internal.wagon.ChecksumPrefetcher;
 import org.slf4j.LoggerFactory;
 import org.sonatype.plexus.components.cipher.DefaultPlexusCipher;
 import org.sonatype.plexus.components.cipher.PlexusCipherException;
@@ -132,9 +143,26 @@ public class AetherBasedResolver implements MavenResolver {
     final private MirrorSelector m_mirrorSelector;
     final private ProxySelector m_proxySelector;
     final private CloseableHttpClient m_client;
+    final private ResolverInfrastructure m_infrastructure;
+    /**
+     * Offline index, opened on first use. Guarded by m_offlineIndexLock.
+     */
+    private OfflineIndex m_offlineIndex;
+    private boolean m_offlineIndexOpened;
+    private boolean m_offlineIndexRebuilding;
+    private final Object m_offlineIndexLock = new Object();
+    private ArtifactPrefetcher m_prefetcher;
     private Settings m_settings;
     private ConfigurableSettingsDecrypter decrypter;
 
+    /**
+     * Number of operations in progress, the infrastructure is released once the resolver is closed
+     * and all of them are finished.
+     */
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+    private volatile boolean m_closed;
+    private final AtomicBoolean m_released = new AtomicBoolean();
+
     private LocalRepository localRepository;
     private final ConcurrentMap<LocalRepository, Deque<RepositorySystemSession>> sessions
             = new ConcurrentHashMap<LocalRepository, Deque<RepositorySystemSession>>();
@@ -154,19 +182,282 @@ public class AetherBasedResolver implements MavenResolver {
      * @param configuration (must be not null)
      */
     public AetherBasedResolver( final MavenConfiguration configuration, final MirrorInfo mirror ) {
+        this( configuration, mirror, null );
+    }
+
+    /**
+     * Create a AetherBasedResolver replacing <code>previous</code> one. If the new configuration doesn't change
+     * HTTP client or transport related options, the HTTP connection pool and the repository system of the
+     * previous resolver are reused. Resolutions in progress on the previous resolver complete with its
+     * configuration when it is closed.
+     *
+     * @param configuration (must be not null)
+     * @param previous resolver being replaced, may be <code>null</code>
+     */
+    public AetherBasedResolver( final MavenConfiguration configuration, final MirrorInfo mirror,
+                                final AetherBasedResolver previous ) {
         NullArgumentException.validateNotNull( configuration, "Maven configuration");
-        m_client = HttpClients.createClient(configuration.getPropertyResolver(), configuration.getPid());
-        m_config = configuration;
-        m_settings = configuration.getSettings();
-        m_repoSystem = newRepositorySystem();
+        m_config = MavenConfigurationSnapshot.of( configuration );
+        String key = infrastructureKey();
+        boolean reused = previous != null && previous.m_infrastructure.getKey().equals( key )
+                && previous.m_infrastructure.retain();
+        if( reused ) {
+            LOG.debug( "Reusing HTTP client and repository system of the previous resolver" );
+            m_infrastructure = previous.m_infrastructure;
+        } else {
+            m_infrastructure = createInfrastructure( key );
+        }
+        m_client = m_infrastructure.getClient();
+        m_repoSystem = m_infrastructure.getRepositorySystem();
+        decrypter = m_infrastructure.getDecrypter();
+        m_settings = m_config.getSettings();
         decryptSettings();
         m_proxySelector = selectProxies();
         m_mirrorSelector = selectMirrors( mirror );
+        applyConnectionLimits();
+        if( !reused && !m_config.isOffline()
+                && m_config.getProperty( ServiceConstants.PROPERTY_CONNECTION_WARMUP, false, Boolean.class ) ) {
+            warmUp();
+        }
     }
 
     @Override
     public void close() throws IOException {
-        m_client.close();
+        synchronized( this ) {
+            m_closed = true;
+            if( m_prefetcher != null ) {
+                m_prefetcher.close();
+                m_prefetcher = null;
+            }
+        }
+        if( m_inFlight.get() == 0 ) {
+            releaseInfrastructure();
+        }
+    }
+
+    ResolverInfrastructure getInfrastructure() {
+        return m_infrastructure;
+    }
+
+    private long retryDeadline() {
+        return m_config.getProperty( ServiceConstants.PROPERTY_CONNECTION_RETRY_DEADLINE, 0, Integer.class );
+    }
+
+    private void enter() {
+        m_inFlight.incrementAndGet();
+    }
+
+    private void exit() {
+        if( m_inFlight.decrementAndGet() == 0 && m_closed ) {
+            try {
+                releaseInfrastructure();
+            }
+            catch( IOException e ) {
+                LOG.debug( "Error closing HTTP client", e );
+            }
+        }
+    }
+
+    private void releaseInfrastructure() throws IOException {
+        if( m_released.compareAndSet( false, true ) ) {
+            m_infrastructure.release();
+        }
+    }
+
+    /**
+     * Configures the shared connection pool with the connection limits of the repositories
+     * (see {@link ServiceConstants#OPTION_MAX_CONNECTIONS}).
+     */
+    private void applyConnectionLimits() {
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        List<MavenRepositoryURL> repositories = new ArrayList<MavenRepositoryURL>();
+        try {
+            if( m_config.getDefaultRepositories() != null ) {
+                repositories.addAll( m_config.getDefaultRepositories() );
+            }
+            if( m_config.getRepositories() != null ) {
+                repositories.addAll( m_config.getRepositories() );
+            }
+        } catch( MalformedURLException e ) {
+            // already reported when selecting repositories
+        }
+        for( MavenRepositoryURL repository : repositories ) {
+            URL url = repository.getURL();
+            if( repository.getMaxConnections() > 0 && !repository.isFileRepository() && url.getHost() != null ) {
+                String host = ValidatingConnectionManager.hostKey( url.getProtocol(), url.getHost(), url.getPort() );
+                Integer previous = limits.get( host );
+                // several repositories on one host share its connections
+                limits.put( host, Math.max( repository.getMaxConnections(), previous == null ? 0 : previous ) );
+            }
+        }
+        m_infrastructure.getConnectionManager().setMaxPerHost( limits );
+    }
+
+    /**
+     * Opens (in background) a connection to each remote repository, leaving it in the pool for the first
+     * resolutions.
+     */
+    private void warmUp() {
+        final Map<String, HttpHead> requests = new LinkedHashMap<String, HttpHead>();
+        int defaultTimeout = m_config.getTimeout();
+        int connectionTimeout = m_config.getProperty( ServiceConstants.PROPERTY_SOCKET_CONNECTION_TIMEOUT, defaultTimeout, Integer.class );
+        int soTimeout = m_config.getProperty( ServiceConstants.PROPERTY_SOCKET_SO_TIMEOUT, defaultTimeout, Integer.class );
+        for( RemoteRepository repository : getRepositories() ) {
+            URI uri;
+            try {
+                uri = new URI( repository.getUrl() );
+            }
+            catch( URISyntaxException e ) {
+                continue;
+            }
+            if( uri.getHost() == null
+                    || !( "http".equalsIgnoreCase( uri.getScheme() ) || "https".equalsIgnoreCase( uri.getScheme() ) ) ) {
+                continue;
+            }
+            RequestConfig.Builder config = RequestConfig.custom()
+                    .setConnectTimeout( connectionTimeout )
+                    .setSocketTimeout( soTimeout )
+                    .setStaleConnectionCheckEnabled( false );
+            Proxy proxy = repository.getProxy();
+            if( proxy != null ) {
+                config.setProxy( new HttpHost( proxy.getHost(), proxy.getPort() ) );
+            }
+            String route = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort()
+                    + ( proxy == null ? "" : " via " + proxy.getHost() + ":" + proxy.getPort() );
+            if( !requests.containsKey( route ) ) {
+                HttpHead head = new HttpHead( uri );
+                head.setConfig( config.build() );
+                requests.put( route, head );
+            }
+        }
+        if( requests.isEmpty() ) {
+            return;
+        }
+        final CloseableHttpClient client = m_client;
+        Thread thread = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                for( Map.Entry<String, HttpHead> entry : requests.entrySet() ) {
+                    try {
+                        CloseableHttpResponse response = client.execute( entry.getValue() );
+                        try {
+                            EntityUtils.consume( response.getEntity() );
+                        } finally {
+                            response.close();
+                        }
+                        LOG.debug( "Opened connection to {}", entry.getKey() );
+                    }
+                    catch( Exception e ) {
+                        LOG.debug( "Unable to open connection to " + entry.getKey() + ": " + e.getMessage() );
+                    }
+                }
+            }
+        }, "pax-url-warmup" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Everything the HTTP client and repository system are built from: two configurations with the same key
+     * can share them.
+     */
+    private String infrastructureKey() {
+        int defaultTimeout = m_config.getTimeout();
+        return HttpClients.fingerprint( m_config.getPropertyResolver(), m_config.getPid() )
+                + "|connectionTimeout=" + m_config.getProperty( ServiceConstants.PROPERTY_SOCKET_CONNECTION_TIMEOUT, defaultTimeout, Integer.class )
+                + "|readTimeout=" + m_config.getProperty( ServiceConstants.PROPERTY_SOCKET_SO_TIMEOUT, defaultTimeout, Integer.class )
+                + "|checksumPrefetch=" + m_config.getProperty( ServiceConstants.PROPERTY_CHECKSUM_PREFETCH, false, Boolean.class )
+                + "|checksumPrefetchThreads=" + m_config.getProperty( ServiceConstants.PROPERTY_CHECKSUM_PREFETCH_THREADS, 4, Integer.class )
+                + "|idleTimeout=" + m_config.getProperty( ServiceConstants.PROPERTY_CONNECTION_IDLE_TIMEOUT, 60000, Integer.class )
+                + "|security=" + m_config.getSecuritySettings();
+    }
+
+    private ResolverInfrastructure createInfrastructure( String key ) {
+        ValidatingConnectionManager connManager
+                = HttpClients.createConnManager( m_config.getPropertyResolver(), m_config.getPid() );
+        CloseableHttpClient client = HttpClients.createClient( connManager, m_config.getPropertyResolver(), m_config.getPid() );
+        IdleConnectionEvictor evictor = null;
+        int idleTimeout = m_config.getProperty( ServiceConstants.PROPERTY_CONNECTION_IDLE_TIMEOUT, 60000, Integer.class );
+        if( idleTimeout > 0 ) {
+            evictor = new IdleConnectionEvictor( connManager, idleTimeout );
+        }
+        ChecksumPrefetcher checksumPrefetcher = null;
+        if( m_config.getProperty( ServiceConstants.PROPERTY_CHECKSUM_PREFETCH, false, Boolean.class ) ) {
+            int threads = m_config.getProperty( ServiceConstants.PROPERTY_CHECKSUM_PREFETCH_THREADS, 4, Integer.class );
+            checksumPrefetcher = new ChecksumPrefetcher( client, Math.max( 1, threads ) );
+        }
+        ResolverInfrastructure infrastructure = new ResolverInfrastructure( key, connManager, client, checksumPrefetcher, evictor );
+        ConfigurableSettingsDecrypter settingsDecrypter = new ConfigurableSettingsDecrypter();
+        RepositorySystem system = newRepositorySystem( client, checksumPrefetcher, settingsDecrypter );
+        infrastructure.setRepositorySystem( system, settingsDecrypter );
+        return infrastructure;
+    }
+
+    /**
+     * Returns the offline index to look <code>artifact</code> up, opening it on first use (not when the resolver
+     * is created, as building it takes a scan of the repositories). The index is rebuilt before a version range
+     * or LATEST is looked up, if versions of the artifact were installed or removed since it was built. The
+     * repositories are scanned without holding the lock: other lookups use the current index meanwhile.
+     *
+     * @return the index, or <code>null</code> if there's none
+     */
+    private OfflineIndex offlineIndex( Artifact artifact ) {
+        OfflineIndex index;
+        synchronized( m_offlineIndexLock ) {
+            if( !m_offlineIndexOpened ) {
+                m_offlineIndexOpened = true;
+                m_offlineIndex = openOfflineIndex();
+            }
+            index = m_offlineIndex;
+            String version = artifact.getVersion();
+            if( index == null || m_offlineIndexRebuilding
+                    || !( VERSION_LATEST.equals( version ) || version.startsWith( "[" ) || version.startsWith( "(" ) )
+                    || !index.isOutdated( artifact.getGroupId(), artifact.getArtifactId() ) ) {
+                return index;
+            }
+            m_offlineIndexRebuilding = true;
+        }
+        OfflineIndex rebuilt = null;
+        try {
+            rebuilt = index.rebuild();
+        }
+        catch( IOException e ) {
+            LOG.warn( "Unable to rebuild offline index " + index.getFile()
+                    + ", artifacts will be resolved through Aether", e );
+        }
+        finally {
+            synchronized( m_offlineIndexLock ) {
+                m_offlineIndexRebuilding = false;
+                m_offlineIndex = rebuilt;
+            }
+        }
+        return rebuilt;
+    }
+
+    /**
+     * When working offline with a configured {@link ServiceConstants#PROPERTY_OFFLINE_INDEX index file},
+     * opens the index (building it first if needed) from default and local repositories.
+     */
+    private OfflineIndex openOfflineIndex() {
+        if( !m_config.isOffline() ) {
+            return null;
+        }
+        String path = m_config.getProperty( ServiceConstants.PROPERTY_OFFLINE_INDEX, null, String.class );
+        if( path == null || path.trim().isEmpty() ) {
+            return null;
+        }
+        List<File> repositories = new ArrayList<File>();
+        for( LocalRepository repo : selectDefaultRepositories() ) {
+            repositories.add( repo.getBasedir() );
+        }
+        repositories.add( getLocalRepository().getBasedir() );
+        try {
+            return OfflineIndex.open( new File( path.trim() ), repositories );
+        }
+        catch( IOException e ) {
+            LOG.warn( "Unable to open offline index " + path + ", artifacts will be resolved through Aether", e );
+            return null;
+        }
     }
 
     private void decryptSettings()
@@ -607,6 +898,32 @@ public class AetherBasedResolver implements MavenResolver {
     public File resolve( Artifact artifact,
                          MavenRepositoryURL repositoryURL,
                          Exception previousException ) throws IOException {
+        enter();
+        boolean deadline = BackoffRetryPolicy.startDeadline( retryDeadline() );
+        try {
+            return doResolve( artifact, repositoryURL, previousException );
+        } finally {
+            if( deadline ) {
+                BackoffRetryPolicy.clearDeadline();
+            }
+            exit();
+        }
+    }
+
+    private File doResolve( Artifact artifact,
+                            MavenRepositoryURL repositoryURL,
+                            Exception previousException ) throws IOException {
+
+        OfflineIndex offlineIndex = repositoryURL == null ? offlineIndex( artifact ) : null;
+        if( offlineIndex != null ) {
+            String extension = artifact.getExtension().isEmpty() ? "jar" : artifact.getExtension();
+            File file = offlineIndex.find( artifact.getGroupId(), artifact.getArtifactId(),
+                    artifact.getClassifier(), extension, artifact.getVersion() );
+            if( file != null && file.isFile() ) {
+                LOG.debug( "Resolved ({}) from offline index as {}", artifact, file.getAbsolutePath() );
+                return file;
+            }
+        }
 
         List<LocalRepository> defaultRepos = selectDefaultRepositories();
         List<RemoteRepository> remoteRepos = selectRepositories();
@@ -726,6 +1043,30 @@ public class AetherBasedResolver implements MavenResolver {
         }
     }
 
+    /**
+     * Resolves the given <code>mvn:</code> URIs in the background, using at most
+     * {@link ServiceConstants#PROPERTY_PREFETCH_THREADS} threads, so they are available locally when requested later.
+     *
+     * @param uris <code>mvn:</code> URIs to resolve
+     * @param listener optional progress listener, if <code>null</code> progress is only logged
+     * @return handle to follow the progress of the prefetch
+     * @throws IllegalStateException if the resolver is closed
+     */
+    public ArtifactPrefetcher.Progress prefetch( Collection<String> uris, ArtifactPrefetcher.Listener listener ) {
+        ArtifactPrefetcher prefetcher;
+        synchronized( this ) {
+            if( m_closed ) {
+                throw new IllegalStateException( "Resolver is closed" );
+            }
+            if( m_prefetcher == null ) {
+                int threads = m_config.getProperty( ServiceConstants.PROPERTY_PREFETCH_THREADS, 4, Integer.class );
+                m_prefetcher = new ArtifactPrefetcher( this, threads );
+            }
+            prefetcher = m_prefetcher;
+        }
+        return prefetcher.prefetch( uris, listener );
+    }
+
     @Override
     public File resolveMetadata(String groupId, String artifactId, String type, String version) throws IOException {
         return resolveMetadata(groupId, artifactId, type, version, null);
@@ -736,6 +1077,7 @@ public class AetherBasedResolver implements MavenResolver {
                                 Exception previousException) throws IOException {
         RepositorySystem system = getRepositorySystem();
         RepositorySystemSession session = newSession();
+        enter();
         try {
             Metadata metadata = new DefaultMetadata(groupId, artifactId, version,
                                                     type, Metadata.Nature.RELEASE_OR_SNAPSHOT);
@@ -792,6 +1134,7 @@ public class AetherBasedResolver implements MavenResolver {
             throw new IOException("Unable to resolve metadata", e);
         } finally {
             releaseSession(session);
+            exit();
         }
     }
 
@@ -799,6 +1142,7 @@ public class AetherBasedResolver implements MavenResolver {
     public void upload(String groupId, String artifactId, String classifier, String extension, String version, File file) throws IOException {
         RepositorySystem system = getRepositorySystem();
         RepositorySystemSession session = newSession();
+        enter();
         try {
             Artifact artifact = new DefaultArtifact(groupId, artifactId, classifier, extension, version,
                                                     null, file);
@@ -809,6 +1153,7 @@ public class AetherBasedResolver implements MavenResolver {
             throw new IOException("Unable to install artifact", e);
         } finally {
             releaseSession(session);
+            exit();
         }
     }
 
@@ -816,6 +1161,7 @@ public class AetherBasedResolver implements MavenResolver {
     public void uploadMetadata(String groupId, String artifactId, String type, String version, File file) throws IOException {
         RepositorySystem system = getRepositorySystem();
         RepositorySystemSession session = newSession();
+        enter();
         try {
             Metadata metadata = new DefaultMetadata(groupId, artifactId, version,
                                                     type, Metadata.Nature.RELEASE_OR_SNAPSHOT,
@@ -827,6 +1173,7 @@ public class AetherBasedResolver implements MavenResolver {
             throw new IOException("Unable to install metadata", e);
         } finally {
             releaseSession(session);
+            exit();
         }
     }
 
@@ -1129,7 +1476,8 @@ public class AetherBasedResolver implements MavenResolver {
         return null;
     }
 
-    private RepositorySystem newRepositorySystem() {
+    private RepositorySystem newRepositorySystem( CloseableHttpClient client, ChecksumPrefetcher checksumPrefetcher,
+                                                  ConfigurableSettingsDecrypter decrypter ) {
         DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
 
         // default timeout (both connection and read timeouts)
@@ -1138,11 +1486,10 @@ public class AetherBasedResolver implements MavenResolver {
         int connectionTimeout = m_config.getProperty(ServiceConstants.PROPERTY_SOCKET_CONNECTION_TIMEOUT, defaultTimeout, Integer.class);
         // read timeout
         int soTimeout = m_config.getProperty(ServiceConstants.PROPERTY_SOCKET_SO_TIMEOUT, defaultTimeout, Integer.class);
-        locator.setServices(WagonProvider.class, new ManualWagonProvider(m_client, soTimeout, connectionTimeout));
+        locator.setServices(WagonProvider.class, new ManualWagonProvider(client, soTimeout, connectionTimeout, checksumPrefetcher));
         locator.addService(TransporterFactory.class, WagonTransporterFactory.class);
         locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
 
-        decrypter = new ConfigurableSettingsDecrypter();
         PaxUrlSecDispatcher secDispatcher = new PaxUrlSecDispatcher();
         try {
             secDispatcher.setCipher(new DefaultPlexusCipher());
@@ -0,0 +1,279 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ops4j.pax.url.mvn.MavenResolver;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves a known list of <code>mvn:</code> URIs in the background, with bounded parallelism, so that
+ * they're available in the local repository by the time they're actually requested.
+ */
+public class ArtifactPrefetcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger( ArtifactPrefetcher.class );
+
+    /**
+     * Callback notified about prefetch progress. Methods are called from prefetching threads.
+     */
+    public interface Listener {
+
+        void resolved( String uri, File file, int completed, int total );
+
+        void failed( String uri, Exception exception, int completed, int total );
+
+        void finished( int resolved, int failed );
+
+    }
+
+    /**
+     * Handle of a running prefetch.
+     */
+    public static class Progress {
+
+        private final int total;
+        private final AtomicInteger resolved = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        private final CountDownLatch latch;
+
+        Progress( int total ) {
+            this.total = total;
+            this.latch = new CountDownLatch( total );
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getResolved() {
+            return resolved.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        /**
+         * Tells if artifacts were left unresolved, because the prefetch was cancelled or the prefetcher closed.
+         */
+        public boolean isStopped() {
+            return stopped.get();
+        }
+
+        /**
+         * Stops prefetching of artifacts not yet started.
+         */
+        public void cancel() {
+            cancelled.set( true );
+        }
+
+        public boolean await( long timeout, TimeUnit unit ) throws InterruptedException {
+            return latch.await( timeout, unit );
+        }
+
+    }
+
+    private final MavenResolver resolver;
+    private final ExecutorService executor;
+
+    public ArtifactPrefetcher( MavenResolver resolver, int threads ) {
+        this.resolver = resolver;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool( Math.max( 1, threads ), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread( r, "pax-url-prefetch-" + counter.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * Starts resolving the given URIs (duplicates are resolved once).
+     *
+     * @param uris <code>mvn:</code> URIs to resolve
+     * @param listener optional progress listener
+     * @return progress handle
+     */
+    public Progress prefetch( Collection<String> uris, final Listener listener ) {
+        final List<String> list = new ArrayList<String>( new LinkedHashSet<String>( uris ) );
+        final Progress progress = new Progress( list.size() );
+        if ( list.isEmpty() ) {
+            notifyFinished( listener, progress );
+            return progress;
+        }
+        LOG.info( "Prefetching {} artifacts", list.size() );
+        final AtomicInteger completed = new AtomicInteger();
+        final int step = Math.max( 1, list.size() / 10 );
+        for ( final String uri : list ) {
+            final Fetch fetch = new Fetch( uri, listener, progress, completed, step );
+            try {
+                executor.execute( fetch );
+            } catch ( RejectedExecutionException e ) {
+                // closed meanwhile
+                fetch.drop();
+            }
+        }
+        return progress;
+    }
+
+    private static void notifyFinished( Listener listener, Progress progress ) {
+        LOG.info( "Prefetching finished: {} resolved, {} failed", progress.getResolved(), progress.getFailed() );
+        if ( listener != null ) {
+            listener.finished( progress.getResolved(), progress.getFailed() );
+        }
+    }
+
+    /**
+     * Stops prefetching. Artifacts not yet started are counted as failed.
+     */
+    @Override
+    public void close() {
+        for ( Runnable task : executor.shutdownNow() ) {
+            if ( task instanceof Fetch ) {
+                ( (Fetch) task ).drop();
+            }
+        }
+    }
+
+    /**
+     * Resolution of one artifact of a prefetch.
+     */
+    private class Fetch implements Runnable {
+
+        private final String uri;
+        private final Listener listener;
+        private final Progress progress;
+        private final AtomicInteger completed;
+        private final int step;
+
+        Fetch( String uri, Listener listener, Progress progress, AtomicInteger completed, int step ) {
+            this.uri = uri;
+            this.listener = listener;
+            this.progress = progress;
+            this.completed = completed;
+            this.step = step;
+        }
+
+        @Override
+        public void run() {
+            if ( progress.cancelled.get() ) {
+                drop();
+                return;
+            }
+            try {
+                File file = resolver.resolve( uri );
+                progress.resolved.incrementAndGet();
+                if ( listener != null ) {
+                    listener.resolved( uri, file, completed.incrementAndGet(), progress.total );
+                } else {
+                    log( completed.incrementAndGet() );
+                }
+            } catch ( Exception e ) {
+                if ( executor.isShutdown() ) {
+                    // interrupted by close()
+                    progress.stopped.set( true );
+                }
+                progress.failed.incrementAndGet();
+                LOG.warn( "Unable to prefetch " + uri + ": " + e.getMessage() );
+                LOG.debug( e.getMessage(), e );
+                if ( listener != null ) {
+                    listener.failed( uri, e, completed.incrementAndGet(), progress.total );
+                } else {
+                    log( completed.incrementAndGet() );
+                }
+            } finally {
+                countDown();
+            }
+        }
+
+        /**
+         * Counts the artifact as failed without resolving it.
+         */
+        void drop() {
+            progress.stopped.set( true );
+            progress.failed.incrementAndGet();
+            countDown();
+        }
+
+        private void countDown() {
+            progress.latch.countDown();
+            if ( progress.isDone() ) {
+                notifyFinished( listener, progress );
+            }
+        }
+
+        private void log( int count ) {
+            if ( count % step == 0 ) {
+                LOG.info( "Prefetched {}/{} artifacts", count, progress.total );
+            }
+        }
+
+    }
+
+    /**
+     * Reads a list of URIs, one per line. Empty lines and lines starting with <code>#</code> are ignored, as well
+     * as anything that isn't a <code>mvn:</code> URI.
+     */
+    public static List<String> readUris( File file ) throws IOException {
+        List<String> uris = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) {
+                line = line.trim();
+                if ( line.isEmpty() || line.startsWith( "#" ) ) {
+                    continue;
+                }
+                if ( line.startsWith( ServiceConstants.PROTOCOL + ":" ) ) {
+                    uris.add( line );
+                } else {
+                    LOG.debug( "Ignoring non mvn: URI {} in {}", line, file );
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return uris;
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Random;
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ServiceUnavailableRetryStrategy;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.protocol.HttpContext;
+import org.ops4j.pax.url.mvn.MavenResolver.RetryChance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retry policy of the HTTP client: failed requests are retried after an exponentially growing, randomized delay.
+ * <ul>
+ *     <li>I/O errors are retried (as {@link org.apache.http.client.HttpRequestRetryHandler}) only if
+ *     {@link #classify(Throwable)} considers them transient - connection refused, unknown hosts or timeouts are
+ *     not retried.</li>
+ *     <li><code>429 Too Many Requests</code> and <code>503 Service Unavailable</code> responses of idempotent requests
+ *     are retried (as {@link ServiceUnavailableRetryStrategy}), honouring the <code>Retry-After</code> header.</li>
+ * </ul>
+ * No retry is attempted if it would exceed the deadline of the current resolution
+ * (see {@link #startDeadline(long)}).
+ */
+public class BackoffRetryPolicy extends DefaultHttpRequestRetryHandler implements ServiceUnavailableRetryStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger( BackoffRetryPolicy.class );
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Time (in <code>System.currentTimeMillis()</code> terms) at which the resolution in progress on the current
+     * thread should give up retrying.
+     */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+    private final Random random = new Random();
+
+    private final int retryCount;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    /**
+     * Interval to wait before retrying an unavailable service, computed for the current thread by
+     * {@link #retryRequest(HttpResponse, int, HttpContext)} and read by {@link #getRetryInterval()}.
+     */
+    private final ThreadLocal<Long> retryInterval = new ThreadLocal<Long>();
+
+    /**
+     * @param retryCount maximum number of retries of a request
+     * @param initialBackoff delay in milliseconds before the first retry, doubled for each subsequent retry
+     * @param maxBackoff maximum delay in milliseconds before a retry
+     */
+    public BackoffRetryPolicy( int retryCount, long initialBackoff, long maxBackoff ) {
+        super( retryCount, false );
+        this.retryCount = retryCount;
+        this.initialBackoff = Math.max( 0, initialBackoff );
+        this.maxBackoff = Math.max( this.initialBackoff, maxBackoff );
+    }
+
+    /**
+     * Sets the deadline of the resolution started on the current thread, unless one is already in progress.
+     *
+     * @param budget time in milliseconds the resolution may spend retrying, <code>0</code> or less for no deadline
+     * @return <code>true</code> if the deadline was set, and should be cleared by {@link #clearDeadline()}
+     */
+    public static boolean startDeadline( long budget ) {
+        if ( budget <= 0 || DEADLINE.get() != null ) {
+            return false;
+        }
+        DEADLINE.set( System.currentTimeMillis() + budget );
+        return true;
+    }
+
+    public static void clearDeadline() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Classifies the cause of a failed request for the retries of the HTTP client. Only {@link RetryChance#HIGH}
+     * causes are retried by the client - this doesn't affect
+     * {@link org.ops4j.pax.url.mvn.MavenResolver#isRetryableException(Exception)}, which keeps its own mapping.
+     */
+    public static RetryChance classify( Throwable cause ) {
+        if ( cause instanceof SocketTimeoutException ) {
+            // the server is there, but slow - we could try again without assuming we'll succeed eventually
+            return RetryChance.LOW;
+        }
+        if ( cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                || cause instanceof UnknownHostException || cause instanceof SSLException
+                || cause instanceof InterruptedIOException ) {
+            return RetryChance.NEVER;
+        }
+        if ( cause instanceof IOException ) {
+            // connection reset, no response, truncated response...
+            return RetryChance.HIGH;
+        }
+        return RetryChance.NEVER;
+    }
+
+    @Override
+    public boolean retryRequest( IOException exception, int executionCount, HttpContext context ) {
+        if ( classify( exception ) != RetryChance.HIGH || !super.retryRequest( exception, executionCount, context ) ) {
+            return false;
+        }
+        long delay = backoff( executionCount );
+        if ( !withinDeadline( delay ) ) {
+            return false;
+        }
+        LOG.debug( "Retrying request after {} ms ({}/{}): {}", new Object[] { delay, executionCount, retryCount, exception.toString() } );
+        if ( delay > 0 ) {
+            try {
+                Thread.sleep( delay );
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean retryRequest( HttpResponse response, int executionCount, HttpContext context ) {
+        int status = response.getStatusLine().getStatusCode();
+        if ( executionCount > retryCount
+                || ( status != HttpStatus.SC_SERVICE_UNAVAILABLE && status != SC_TOO_MANY_REQUESTS ) ) {
+            return false;
+        }
+        HttpRequest request = HttpClientContext.adapt( context ).getRequest();
+        if ( request != null && !handleAsIdempotent( request ) ) {
+            return false;
+        }
+        long delay = backoff( executionCount );
+        Long retryAfter = retryAfter( response );
+        if ( retryAfter != null ) {
+            if ( retryAfter > maxBackoff ) {
+                // the server won't be back soon, let other repositories be tried
+                return false;
+            }
+            delay = Math.max( delay, retryAfter );
+        }
+        if ( !withinDeadline( delay ) ) {
+            return false;
+        }
+        LOG.debug( "Retrying request after {} ms ({}/{}): {}", new Object[] { delay, executionCount, retryCount, response.getStatusLine() } );
+        retryInterval.set( delay );
+        return true;
+    }
+
+    @Override
+    public long getRetryInterval() {
+        Long interval = retryInterval.get();
+        retryInterval.remove();
+        return interval == null ? 0 : interval;
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and the whole of
+     * <code>initialBackoff * 2^(executionCount - 1)</code>, capped at <code>maxBackoff</code>.
+     */
+    long backoff( int executionCount ) {
+        if ( initialBackoff == 0 ) {
+            return 0;
+        }
+        int shift = Math.min( Math.max( executionCount - 1, 0 ), 30 );
+        long delay = Math.min( maxBackoff, initialBackoff << shift );
+        long half = delay / 2;
+        synchronized ( random ) {
+            return half + (long) ( random.nextDouble() * ( delay - half ) );
+        }
+    }
+
+    private static boolean withinDeadline( long delay ) {
+        Long deadline = DEADLINE.get();
+        if ( deadline != null && System.currentTimeMillis() + delay > deadline ) {
+            LOG.debug( "Not retrying, resolution deadline reached" );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the delay in milliseconds requested by the <code>Retry-After</code> header (either seconds or an
+     * HTTP date), or <code>null</code>.
+     */
+    static Long retryAfter( HttpResponse response ) {
+        Header header = response.getFirstHeader( "Retry-After" );
+        if ( header == null || header.getValue() == null ) {
+            return null;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max( 0L, Long.parseLong( value ) * 1000L );
+        }
+        catch ( NumberFormatException e ) {
+            Date date = DateUtils.parseDate( value );
+            return date == null ? null : Math.max( 0L, date.getTime() - System.currentTimeMillis() );
+        }
+    }
+
+}
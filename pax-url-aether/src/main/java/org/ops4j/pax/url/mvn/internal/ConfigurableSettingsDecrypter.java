@@ -8,8 +8,11 @@ import org.sonatype.plexus.components.sec.dispatcher.SecDispatcher;
 public class ConfigurableSettingsDecrypter extends DefaultSettingsDecrypter
 {
 
+    private SecDispatcher securityDispatcher;
+
     public void setSecurityDispatcher( SecDispatcher securityDispatcher )
     {
+        this.securityDispatcher = securityDispatcher;
         try
         {
             Field field = DefaultSettingsDecrypter.class.getDeclaredField( "securityDispatcher" );
@@ -21,4 +24,15 @@ public class ConfigurableSettingsDecrypter extends DefaultSettingsDecrypter
             throw new IllegalStateException( exc );
         }
     }
+
+    /**
+     * Forgets the secrets decrypted so far.
+     */
+    public void clear()
+    {
+        if( securityDispatcher instanceof PaxUrlSecDispatcher )
+        {
+            ( (PaxUrlSecDispatcher) securityDispatcher ).clear();
+        }
+    }
 }
@@ -20,36 +20,85 @@ package org.ops4j.pax.url.mvn.internal;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 
-import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.SSLInitializationException;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.maven.wagon.providers.http.RelaxedTrustStrategy;
 import org.ops4j.pax.url.mvn.ServiceConstants;
 import org.ops4j.util.property.PropertyResolver;
 
 public class HttpClients {
 
+    /**
+     * Properties (looked up without the pid prefix) {@link #createClient(PropertyResolver, String)} depends on.
+     */
+    private static final String[] GLOBAL_PROPERTIES = {
+            "maven.wagon.http.ssl.insecure",
+            "maven.wagon.http.ssl.ignore.validity.dates",
+            "maven.wagon.http.ssl.allowall",
+            "maven.wagon.http.pool",
+            "maven.wagon.httpconnectionManager.maxPerRoute",
+            "maven.wagon.httpconnectionManager.maxTotal",
+            "https.protocols",
+            "https.cipherSuites"
+    };
+
+    /**
+     * Properties (looked up with the pid prefix) {@link #createClient(PropertyResolver, String)} depends on.
+     */
+    private static final String[] PID_PROPERTIES = {
+            "certificateCheck",
+            ServiceConstants.PROPERTY_SOCKET_SO_KEEPALIVE,
+            ServiceConstants.PROPERTY_SOCKET_SO_LINGER,
+            ServiceConstants.PROPERTY_SOCKET_SO_REUSEADDRESS,
+            ServiceConstants.PROPERTY_SOCKET_TCP_NODELAY,
+            ServiceConstants.PROPERTY_CONNECTION_BUFFER_SIZE,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_COUNT,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_BACKOFF,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_MAX_BACKOFF,
+            ServiceConstants.PROPERTY_CONNECTION_VALIDATE_AFTER_INACTIVITY
+    };
+
+    /**
+     * Returns a string identifying the client {@link #createClient(PropertyResolver, String)} would build from the
+     * same properties: clients created with equal fingerprints are configured the same way.
+     */
+    public static String fingerprint(PropertyResolver resolver, String pid) {
+        StringBuilder sb = new StringBuilder();
+        for ( String key : GLOBAL_PROPERTIES ) {
+            sb.append( key ).append( '=' ).append( getProperty( resolver, key, null ) ).append( '|' );
+        }
+        for ( String key : PID_PROPERTIES ) {
+            sb.append( key ).append( '=' ).append( getProperty( resolver, pid + key, null ) ).append( '|' );
+        }
+        return sb.toString();
+    }
+
     public static CloseableHttpClient createClient(PropertyResolver resolver, String pid) {
+        return createClient( createConnManager( resolver, pid ), resolver, pid );
+    }
+
+    public static CloseableHttpClient createClient(HttpClientConnectionManager connManager, PropertyResolver resolver, String pid) {
+        BackoffRetryPolicy retryPolicy = createRetryPolicy( resolver, pid );
         return HttpClientBuilder.create() //
                 .useSystemProperties() //
                 .disableConnectionState() //
-                .setConnectionManager( createConnManager( resolver, pid ) ) //
-                .setRetryHandler( createRetryHandler( resolver, pid ) )
+                .setConnectionManager( connManager ) //
+                .setRetryHandler( retryPolicy ) //
+                .setServiceUnavailableRetryStrategy( retryPolicy )
                 .build();
     }
 
-    private static PoolingHttpClientConnectionManager createConnManager(PropertyResolver resolver, String pid)
+    public static ValidatingConnectionManager createConnManager(PropertyResolver resolver, String pid)
     {
         boolean SSL_INSECURE = getBoolean( resolver, "maven.wagon.http.ssl.insecure",
                                 !getBoolean( resolver, pid + "certificateCheck", false ) );
@@ -95,7 +144,8 @@ public class HttpClients {
                 PlainConnectionSocketFactory.INSTANCE ).register(
                 "https", sslConnectionSocketFactory ).build();
 
-        PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager( registry );
+        int validateAfterInactivity = getInteger( resolver, pid + ServiceConstants.PROPERTY_CONNECTION_VALIDATE_AFTER_INACTIVITY, 2000 );
+        ValidatingConnectionManager connManager = new ValidatingConnectionManager( registry, validateAfterInactivity );
         if ( PERSISTENT_POOL )
         {
             connManager.setDefaultMaxPerRoute( MAX_CONN_PER_ROUTE );
@@ -131,9 +181,11 @@ public class HttpClients {
         return connManager;
     }
 
-    private static HttpRequestRetryHandler createRetryHandler(PropertyResolver resolver, String pid) {
+    private static BackoffRetryPolicy createRetryPolicy(PropertyResolver resolver, String pid) {
         int retryCount = getInteger( resolver, pid + ServiceConstants.PROPERTY_CONNECTION_RETRY_COUNT, 3 );
-        return new DefaultHttpRequestRetryHandler( retryCount, false );
+        int backoff = getInteger( resolver, pid + ServiceConstants.PROPERTY_CONNECTION_RETRY_BACKOFF, 200 );
+        int maxBackoff = getInteger( resolver, pid + ServiceConstants.PROPERTY_CONNECTION_RETRY_MAX_BACKOFF, 10000 );
+        return new BackoffRetryPolicy( retryCount, backoff, maxBackoff );
     }
 
     private static int getInteger(PropertyResolver resolver, String key, int def) {
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically closes pooled connections that expired or were idle for too long, so that they're not found dead
+ * (and retried) by the next request.
+ */
+public class IdleConnectionEvictor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger( IdleConnectionEvictor.class );
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param connManager pool to clean up
+     * @param idleTimeout time in milliseconds after which idle connections are closed
+     */
+    public IdleConnectionEvictor( final HttpClientConnectionManager connManager, final long idleTimeout ) {
+        executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r, "pax-url-idle-evictor-" + COUNTER.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        // check often enough that connections don't stay idle for much longer than the timeout
+        long period = Math.max( 1000L, idleTimeout / 2 );
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connManager.closeExpiredConnections();
+                    connManager.closeIdleConnections( idleTimeout, TimeUnit.MILLISECONDS );
+                }
+                catch ( RuntimeException e ) {
+                    LOG.debug( "Error evicting idle connections", e );
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -20,6 +20,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.maven.wagon.Wagon;
 import org.apache.maven.wagon.providers.file.FileWagon;
 import org.eclipse.aether.transport.wagon.WagonProvider;
+import org.ops4j.pax.url.mvn.internal.wagon.ChecksumPrefetcher;
 import org.ops4j.pax.url.mvn.internal.wagon.ConfigurableHttpWagon;
 
 /**
@@ -31,6 +32,7 @@ public class ManualWagonProvider implements WagonProvider
     private CloseableHttpClient client;
     private int readTimeout;
     private int connectionTimeout;
+    private ChecksumPrefetcher checksumPrefetcher;
 
     public ManualWagonProvider( CloseableHttpClient client, int readTimeout )
     {
@@ -44,6 +46,13 @@ public class ManualWagonProvider implements WagonProvider
         this.connectionTimeout = connectionTimeout;
     }
 
+    public ManualWagonProvider( CloseableHttpClient client, int readTimeout, int connectionTimeout,
+                                ChecksumPrefetcher checksumPrefetcher )
+    {
+        this( client, readTimeout, connectionTimeout );
+        this.checksumPrefetcher = checksumPrefetcher;
+    }
+
     public Wagon lookup( String roleHint ) throws Exception
     {
         if( "file".equals( roleHint ) )
@@ -52,7 +61,7 @@ public class ManualWagonProvider implements WagonProvider
         }
         else if( "http".equals( roleHint ) || "https".equals( roleHint) )
         {
-            return new ConfigurableHttpWagon( client, readTimeout, connectionTimeout);
+            return new ConfigurableHttpWagon( client, readTimeout, connectionTimeout, checksumPrefetcher );
         }
 
         return null;
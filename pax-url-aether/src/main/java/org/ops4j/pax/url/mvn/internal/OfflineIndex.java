@@ -0,0 +1,440 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+import org.eclipse.aether.version.VersionScheme;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.ops4j.pax.url.mvn.internal.Parser.VERSION_LATEST;
+
+/**
+ * A prebuilt index of all artifacts available in a set of local (default layout) repositories, used to
+ * answer lookups of an offline resolver without going through Aether.
+ * <p>
+ * The index is a UTF-8 text file with one line per artifact, sorted by key:
+ * <pre>
+ * groupId:artifactId:extension:classifier:version&lt;TAB&gt;absolute path
+ * </pre>
+ * When an artifact is present in several repositories, only the first one (in the order the repositories
+ * were given) is indexed. The file is memory-mapped and searched with a binary search over line offsets.
+ * <p>
+ * Artifacts installed after the index was built are not found, and versions added since then are not
+ * considered by range lookups: {@link #isOutdated(String, String)} tells when the index should be rebuilt.
+ */
+public class OfflineIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger( OfflineIndex.class );
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+    private static final String HEADER = "# pax-url offline index 1";
+    private static final String LATEST_VERSION_RANGE = "[0.0,)";
+
+    private static final String[] IGNORED_SUFFIXES = {
+            ".sha1", ".md5", ".asc", ".lastUpdated", ".repositories", ".part", ".lock", ".tmp"
+    };
+
+    /**
+     * Extensions containing a dot, any other extension being the part of the file name after the last dot
+     */
+    private static final String[] COMPOUND_EXTENSIONS = { "tar.gz", "tar.bz2", "tar.xz" };
+
+    private static final Comparator<byte[]> BYTES_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] b1, byte[] b2) {
+            int len = Math.min( b1.length, b2.length );
+            for ( int i = 0; i < len; i++ ) {
+                int c = ( b1[i] & 0xff ) - ( b2[i] & 0xff );
+                if ( c != 0 ) {
+                    return c;
+                }
+            }
+            return b1.length - b2.length;
+        }
+    };
+
+    private final File file;
+    private final List<File> repositories;
+    /**
+     * Time the index file was written
+     */
+    private final long built;
+    private final MappedByteBuffer buffer;
+    private final int[] lines;
+    private final VersionScheme versionScheme = new GenericVersionScheme();
+
+    private OfflineIndex( File file, List<File> repositories, MappedByteBuffer buffer, int[] lines ) {
+        this.file = file;
+        this.repositories = repositories;
+        this.built = file.lastModified();
+        this.buffer = buffer;
+        this.lines = lines;
+    }
+
+    /**
+     * Opens the index stored in <code>indexFile</code>, building it from <code>repositories</code> first
+     * if the file does not exist yet.
+     */
+    public static OfflineIndex open( File indexFile, List<File> repositories ) throws IOException {
+        if ( !indexFile.isFile() ) {
+            build( indexFile, repositories );
+        }
+        return load( indexFile, repositories );
+    }
+
+    /**
+     * Loads (memory-maps) an existing index file.
+     */
+    public static OfflineIndex load( File indexFile ) throws IOException {
+        return load( indexFile, Collections.<File>emptyList() );
+    }
+
+    private static OfflineIndex load( File indexFile, List<File> repositories ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( indexFile, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            if ( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( "Offline index " + indexFile + " is too large" );
+            }
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            int[] lines = new int[1024];
+            int count = 0;
+            int limit = buffer.limit();
+            int start = 0;
+            while ( start < limit ) {
+                int end = start;
+                while ( end < limit && buffer.get( end ) != '\n' ) {
+                    end++;
+                }
+                if ( end > start && buffer.get( start ) != '#' ) {
+                    if ( count == lines.length ) {
+                        lines = Arrays.copyOf( lines, count * 2 );
+                    }
+                    lines[count++] = start;
+                }
+                start = end + 1;
+            }
+            LOG.debug( "Loaded offline index {} with {} entries", indexFile, count );
+            return new OfflineIndex( indexFile, repositories, buffer, Arrays.copyOf( lines, count ) );
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Scans <code>repositories</code> and writes the resulting index to <code>indexFile</code>. The file
+     * is written to a temporary file of its own first, then atomically moved in place: concurrent builds
+     * don't mix their content, and readers of the previous index keep their (mapped) file.
+     */
+    public static void build( File indexFile, List<File> repositories ) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<byte[], byte[]> entries = new TreeMap<byte[], byte[]>( BYTES_COMPARATOR );
+        for ( File repository : repositories ) {
+            if ( repository != null && repository.isDirectory() ) {
+                scan( repository.getAbsoluteFile(), new ArrayList<String>(), entries );
+            }
+        }
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if ( parent != null && !parent.isDirectory() && !parent.mkdirs() ) {
+            throw new IOException( "Can't create directory " + parent );
+        }
+        File tmp = File.createTempFile( indexFile.getName() + ".build-", ".tmp", parent );
+        try {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), UTF8 ) );
+            try {
+                writer.write( HEADER );
+                writer.write( '\n' );
+                for ( Map.Entry<byte[], byte[]> entry : entries.entrySet() ) {
+                    writer.write( new String( entry.getKey(), UTF8 ) );
+                    writer.write( '\t' );
+                    writer.write( new String( entry.getValue(), UTF8 ) );
+                    writer.write( '\n' );
+                }
+            } finally {
+                writer.close();
+            }
+            try {
+                Files.move( tmp.toPath(), indexFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            } catch ( AtomicMoveNotSupportedException e ) {
+                Files.move( tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+        } finally {
+            tmp.delete();
+        }
+        LOG.info( "Built offline index {} with {} entries in {} ms", new Object[] {
+                indexFile, entries.size(), System.currentTimeMillis() - start } );
+    }
+
+    private static void scan( File dir, List<String> path, Map<byte[], byte[]> entries ) {
+        File[] children = dir.listFiles();
+        if ( children == null ) {
+            return;
+        }
+        Arrays.sort( children );
+        for ( File child : children ) {
+            if ( child.isDirectory() ) {
+                path.add( child.getName() );
+                scan( child, path, entries );
+                path.remove( path.size() - 1 );
+            } else if ( path.size() >= 3 ) {
+                String key = toKey( path, child.getName() );
+                if ( key != null ) {
+                    byte[] k = key.getBytes( UTF8 );
+                    if ( !entries.containsKey( k ) ) {
+                        entries.put( k, child.getPath().getBytes( UTF8 ) );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the index key of <code>&lt;group path&gt;/artifactId/version/name</code>, or <code>null</code>
+     * if the file doesn't look like an artifact file.
+     */
+    static String toKey( List<String> path, String name ) {
+        for ( String suffix : IGNORED_SUFFIXES ) {
+            if ( name.endsWith( suffix ) ) {
+                return null;
+            }
+        }
+        int size = path.size();
+        String version = path.get( size - 1 );
+        String artifactId = path.get( size - 2 );
+        String prefix = artifactId + "-" + version;
+        if ( !name.startsWith( prefix ) || name.length() == prefix.length() ) {
+            return null;
+        }
+        String rest = name.substring( prefix.length() );
+        String classifier = "";
+        String extension;
+        if ( rest.charAt( 0 ) == '-' ) {
+            // the classifier may contain dots (as jdk1.5), the extension is found from the end
+            int dot = rest.lastIndexOf( '.' );
+            for ( String compound : COMPOUND_EXTENSIONS ) {
+                if ( rest.endsWith( "." + compound ) ) {
+                    dot = rest.length() - compound.length() - 1;
+                    break;
+                }
+            }
+            if ( dot < 2 || dot == rest.length() - 1 ) {
+                return null;
+            }
+            classifier = rest.substring( 1, dot );
+            extension = rest.substring( dot + 1 );
+        } else if ( rest.charAt( 0 ) == '.' && rest.length() > 1 ) {
+            extension = rest.substring( 1 );
+        } else {
+            return null;
+        }
+        StringBuilder groupId = new StringBuilder();
+        for ( int i = 0; i < size - 2; i++ ) {
+            if ( i > 0 ) {
+                groupId.append( '.' );
+            }
+            groupId.append( path.get( i ) );
+        }
+        return prefixKey( groupId.toString(), artifactId, extension, classifier ) + version;
+    }
+
+    private static String prefixKey( String groupId, String artifactId, String extension, String classifier ) {
+        return groupId + ":" + artifactId + ":" + extension + ":" + ( classifier == null ? "" : classifier ) + ":";
+    }
+
+    /**
+     * Looks up an artifact. <code>version</code> may be a fixed version, a version range or <code>LATEST</code>,
+     * in which case the highest indexed version is returned.
+     *
+     * @return the artifact file or <code>null</code> if the index doesn't know about it
+     */
+    public File find( String groupId, String artifactId, String classifier, String extension, String version ) {
+        String prefix = prefixKey( groupId, artifactId, extension, classifier );
+        VersionConstraint constraint;
+        try {
+            constraint = versionScheme.parseVersionConstraint(
+                    VERSION_LATEST.equals( version ) ? LATEST_VERSION_RANGE : version );
+        } catch ( InvalidVersionSpecificationException e ) {
+            return null;
+        }
+        if ( constraint.getVersion() != null ) {
+            int idx = search( ( prefix + version ).getBytes( UTF8 ) );
+            return idx >= 0 ? new File( value( idx ) ) : null;
+        }
+        // version range: all candidates are in a contiguous block starting at the insertion point of the prefix
+        byte[] p = prefix.getBytes( UTF8 );
+        int idx = search( p );
+        int first = idx >= 0 ? idx : -idx - 1;
+        Version best = null;
+        int bestIdx = -1;
+        for ( int i = first; i < lines.length && startsWith( lines[i], p ); i++ ) {
+            String v = key( i ).substring( prefix.length() );
+            try {
+                Version candidate = versionScheme.parseVersion( v );
+                if ( constraint.containsVersion( candidate ) && ( best == null || best.compareTo( candidate ) < 0 ) ) {
+                    best = candidate;
+                    bestIdx = i;
+                }
+            } catch ( InvalidVersionSpecificationException e ) {
+                // ignore
+            }
+        }
+        return bestIdx >= 0 ? new File( value( bestIdx ) ) : null;
+    }
+
+    /**
+     * Returns <code>true</code> if versions of the artifact may have been added or removed in one of the
+     * indexed repositories since the index was built (its directory was modified after that).
+     */
+    public boolean isOutdated( String groupId, String artifactId ) {
+        String path = groupId.replace( '.', File.separatorChar ) + File.separator + artifactId;
+        for ( File repository : repositories ) {
+            if ( new File( repository, path ).lastModified() > built ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans the repositories again and returns the new index. This index stays usable meanwhile.
+     */
+    public OfflineIndex rebuild() throws IOException {
+        build( file, repositories );
+        return load( file, repositories );
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Returns all the indexed keys, mainly for diagnostics.
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<String>( lines.length );
+        for ( int i = 0; i < lines.length; i++ ) {
+            keys.add( key( i ) );
+        }
+        return Collections.unmodifiableList( keys );
+    }
+
+    private int search( byte[] key ) {
+        int lo = 0;
+        int hi = lines.length - 1;
+        while ( lo <= hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            int c = compare( lines[mid], key );
+            if ( c < 0 ) {
+                lo = mid + 1;
+            } else if ( c > 0 ) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -( lo + 1 );
+    }
+
+    private int compare( int offset, byte[] key ) {
+        int limit = buffer.limit();
+        for ( int i = 0; ; i++ ) {
+            int pos = offset + i;
+            int b = pos < limit ? buffer.get( pos ) & 0xff : '\t';
+            boolean endOfLine = b == '\t' || b == '\n';
+            if ( i == key.length ) {
+                return endOfLine ? 0 : 1;
+            }
+            if ( endOfLine ) {
+                return -1;
+            }
+            int c = b - ( key[i] & 0xff );
+            if ( c != 0 ) {
+                return c;
+            }
+        }
+    }
+
+    private boolean startsWith( int offset, byte[] prefix ) {
+        if ( offset + prefix.length > buffer.limit() ) {
+            return false;
+        }
+        for ( int i = 0; i < prefix.length; i++ ) {
+            if ( buffer.get( offset + i ) != prefix[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String key( int idx ) {
+        int start = lines[idx];
+        int end = start;
+        while ( end < buffer.limit() && buffer.get( end ) != '\t' && buffer.get( end ) != '\n' ) {
+            end++;
+        }
+        return string( start, end );
+    }
+
+    private String value( int idx ) {
+        int start = lines[idx];
+        while ( buffer.get( start ) != '\t' ) {
+            start++;
+        }
+        start++;
+        int end = start;
+        while ( end < buffer.limit() && buffer.get( end ) != '\n' ) {
+            end++;
+        }
+        return string( start, end );
+    }
+
+    private String string( int start, int end ) {
+        byte[] bytes = new byte[end - start];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = buffer.get( start + i );
+        }
+        return new String( bytes, UTF8 );
+    }
+
+}
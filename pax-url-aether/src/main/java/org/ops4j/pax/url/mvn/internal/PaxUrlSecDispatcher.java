@@ -16,11 +16,14 @@ package org.ops4j.pax.url.mvn.internal;
 
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.sonatype.plexus.components.cipher.DefaultPlexusCipher;
 import org.sonatype.plexus.components.cipher.PlexusCipher;
@@ -67,6 +70,18 @@ implements SecDispatcher
      */
     protected String _configurationFile = "~/.settings-security.xml";
 
+    /**
+     * Parsed security settings, per security settings location. Entries are dropped when the file's modification
+     * time or length changes, so repeated configuration updates don't parse the file again and again. Only the
+     * parsed file is shared, its master password is still encrypted.
+     */
+    private static final ConcurrentMap<String, CachedSecurity> SECURITY_CACHE = new ConcurrentHashMap<String, CachedSecurity>();
+
+    /**
+     * Decrypted master password and strings of this dispatcher, dropped by {@link #clear()}.
+     */
+    private volatile Secrets _secrets;
+
     // ---------------------------------------------------------------
     public String decrypt( String str )
         throws SecDispatcherException
@@ -91,13 +106,29 @@ implements SecDispatcher
             
             String res = null;
 
-            SettingsSecurity sec = getSec();
+            CachedSecurity cached = getCachedSec();
+
+            SettingsSecurity sec = cached.sec;
             
             if( attr == null || attr.get( "type" ) == null )
             {
-                String master = getMaster( sec );
-                
-                res = _cipher.decrypt( bare, master );
+                Secrets secrets = _secrets;
+                if( secrets == null || secrets.source != cached )
+                {
+                    secrets = new Secrets( cached );
+                    _secrets = secrets;
+                }
+
+                res = secrets.decrypted.get( bare );
+                if( res == null )
+                {
+                    if( secrets.master == null )
+                        secrets.master = getMaster( sec );
+
+                    res = _cipher.decrypt( bare, secrets.master );
+
+                    secrets.decrypted.put( bare, res );
+                }
             }
             else
             {
@@ -196,17 +227,43 @@ implements SecDispatcher
         return _cipher.isEncryptedString( str );
     }
     //----------------------------------------------------------------------------
-    private SettingsSecurity getSec()
+    private CachedSecurity getCachedSec()
     throws SecDispatcherException
+    {
+        String realLocation = getRealLocation();
+        File file = new File( realLocation );
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedSecurity cached = SECURITY_CACHE.get( realLocation );
+        if( cached != null && cached.lastModified == lastModified && cached.length == length && lastModified != 0L )
+            return cached;
+
+        cached = new CachedSecurity( getSec( realLocation ), lastModified, length );
+        SECURITY_CACHE.put( realLocation, cached );
+        return cached;
+    }
+
+    private String getRealLocation()
     {
         String location = System.getProperty( SYSTEM_PROPERTY_SEC_LOCATION
                                               , getConfigurationFile()
                                             );
-        String realLocation = location.charAt( 0 ) == '~' 
+        return location.charAt( 0 ) == '~' 
             ? System.getProperty( "user.home" ) + location.substring( 1 )
             : location
             ;
-        
+    }
+    //----------------------------------------------------------------------------
+    private SettingsSecurity getSec()
+    throws SecDispatcherException
+    {
+        return getSec( getRealLocation() );
+    }
+
+    private SettingsSecurity getSec( String realLocation )
+    throws SecDispatcherException
+    {
         SettingsSecurity sec = SecUtil.read( realLocation, true );
         
         if( sec == null )
@@ -338,5 +395,46 @@ implements SecDispatcher
     {
         return _cipher;
     }
+
+    /**
+     * Forgets the decrypted master password and strings, once this dispatcher is not used anymore.
+     */
+    public void clear()
+    {
+        _secrets = null;
+    }
+
+    private static class CachedSecurity
+    {
+        final SettingsSecurity sec;
+
+        final long lastModified;
+
+        final long length;
+
+        CachedSecurity( SettingsSecurity sec, long lastModified, long length )
+        {
+            this.sec = sec;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    private static class Secrets
+    {
+        /**
+         * Security settings the secrets were decrypted with
+         */
+        final CachedSecurity source;
+
+        volatile String master;
+
+        final Map<String, String> decrypted = new ConcurrentHashMap<String, String>();
+
+        Secrets( CachedSecurity source )
+        {
+            this.source = source;
+        }
+    }
     
 }
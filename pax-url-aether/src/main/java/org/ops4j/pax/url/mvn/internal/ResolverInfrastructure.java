@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.IOException;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.eclipse.aether.RepositorySystem;
+import org.ops4j.pax.url.mvn.internal.wagon.ChecksumPrefetcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The expensive, configuration independent part of an {@link AetherBasedResolver}: the pooled HTTP client and
+ * the Aether {@link RepositorySystem} (with its wagon provider and settings decrypter) built on top of it.
+ * <p>
+ * When the configuration changes in a way that doesn't affect these (see {@link #getKey()}), the new resolver
+ * shares the infrastructure of the old one, keeping warm connections. The infrastructure is reference counted
+ * and only closed when the last resolver using it is closed.
+ */
+class ResolverInfrastructure {
+
+    private static final Logger LOG = LoggerFactory.getLogger( ResolverInfrastructure.class );
+
+    private final String key;
+    private final ValidatingConnectionManager connManager;
+    private final CloseableHttpClient client;
+    private final ChecksumPrefetcher checksumPrefetcher;
+    private final IdleConnectionEvictor evictor;
+    private RepositorySystem repositorySystem;
+    private ConfigurableSettingsDecrypter decrypter;
+    private int references = 1;
+
+    ResolverInfrastructure( String key, ValidatingConnectionManager connManager, CloseableHttpClient client,
+                            ChecksumPrefetcher checksumPrefetcher, IdleConnectionEvictor evictor ) {
+        this.key = key;
+        this.connManager = connManager;
+        this.client = client;
+        this.checksumPrefetcher = checksumPrefetcher;
+        this.evictor = evictor;
+    }
+
+    /**
+     * Identifies the configuration this infrastructure was built from: infrastructures with equal keys are
+     * interchangeable.
+     */
+    String getKey() {
+        return key;
+    }
+
+    ValidatingConnectionManager getConnectionManager() {
+        return connManager;
+    }
+
+    CloseableHttpClient getClient() {
+        return client;
+    }
+
+    ChecksumPrefetcher getChecksumPrefetcher() {
+        return checksumPrefetcher;
+    }
+
+    RepositorySystem getRepositorySystem() {
+        return repositorySystem;
+    }
+
+    ConfigurableSettingsDecrypter getDecrypter() {
+        return decrypter;
+    }
+
+    void setRepositorySystem( RepositorySystem repositorySystem, ConfigurableSettingsDecrypter decrypter ) {
+        this.repositorySystem = repositorySystem;
+        this.decrypter = decrypter;
+    }
+
+    /**
+     * Acquires a reference.
+     *
+     * @return <code>false</code> if this infrastructure has already been closed
+     */
+    synchronized boolean retain() {
+        if ( references == 0 ) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Releases a reference, closing the HTTP client and forgetting decrypted secrets when the last one is
+     * released.
+     */
+    void release() throws IOException {
+        synchronized ( this ) {
+            if ( references == 0 || --references > 0 ) {
+                return;
+            }
+        }
+        LOG.debug( "Closing HTTP client" );
+        if ( evictor != null ) {
+            evictor.close();
+        }
+        if ( checksumPrefetcher != null ) {
+            checksumPrefetcher.close();
+        }
+        if ( decrypter != null ) {
+            decrypter.clear();
+        }
+        client.close();
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PoolingHttpClientConnectionManager} checking whether a pooled connection is stale only if it was idle for
+ * longer than a configured period, instead of on every lease.
+ * <p>
+ * httpclient 4.3 can only check every leased connection (<code>RequestConfig.isStaleConnectionCheckEnabled()</code>),
+ * which costs a blocking read for each request. Connections leased shortly after being released are very unlikely
+ * to have been closed by the server, so they are used without checking. Connections found stale are closed
+ * before being returned, and are reopened by the client.
+ * <p>
+ * It also supports per host connection limits (see {@link #setMaxPerHost(Map)}), applied to every route to the
+ * host (direct or through proxies), as routes are only known when requested.
+ */
+public class ValidatingConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger( ValidatingConnectionManager.class );
+
+    /**
+     * Connection attribute holding the time of the last release. Kept on the connection itself, it goes away
+     * with the connection whoever closes it (the pool closes expired and surplus connections on its own).
+     */
+    private static final String RELEASED = "pax-url.released";
+
+    private final long validateAfterInactivity;
+
+    /**
+     * Connection limits by <code>scheme://host:port</code>
+     */
+    private volatile Map<String, Integer> maxPerHost = Collections.emptyMap();
+
+    /**
+     * Routes which got a limit from {@link #maxPerHost}
+     */
+    private final Set<HttpRoute> limitedRoutes = Collections.newSetFromMap( new ConcurrentHashMap<HttpRoute, Boolean>() );
+
+    private int maxTotal;
+
+    /**
+     * @param registry socket factories
+     * @param validateAfterInactivity period of inactivity in milliseconds after which a connection is checked before
+     * being leased again. <code>0</code> checks every connection, negative value disables the check.
+     */
+    public ValidatingConnectionManager( Registry<ConnectionSocketFactory> registry, long validateAfterInactivity ) {
+        super( registry );
+        this.validateAfterInactivity = validateAfterInactivity;
+        this.maxTotal = getMaxTotal();
+    }
+
+    /**
+     * Sets the maximum number of connections to given hosts, replacing previous limits. The total number of
+     * connections is raised if needed, so that all these hosts can get their connections.
+     *
+     * @param limits limits by host, as returned by {@link #hostKey(String, String, int)}
+     */
+    public synchronized void setMaxPerHost( Map<String, Integer> limits ) {
+        maxPerHost = Collections.unmodifiableMap( new HashMap<String, Integer>( limits ) );
+        setMaxTotal( maxTotal );
+    }
+
+    /**
+     * Sets the maximum number of connections, raised to the sum of per host limits if lower.
+     */
+    @Override
+    public synchronized void setMaxTotal( int max ) {
+        maxTotal = max;
+        int sum = 0;
+        // also called by the constructor of the superclass
+        if ( maxPerHost != null ) {
+            for ( Integer limit : maxPerHost.values() ) {
+                sum += limit;
+            }
+        }
+        super.setMaxTotal( Math.max( max, sum ) );
+    }
+
+    /**
+     * Key for {@link #setMaxPerHost(Map)}
+     */
+    public static String hostKey( String scheme, String host, int port ) {
+        scheme = scheme.toLowerCase( Locale.ENGLISH );
+        if ( port < 0 ) {
+            port = "https".equals( scheme ) ? 443 : 80;
+        }
+        return scheme + "://" + host.toLowerCase( Locale.ENGLISH ) + ":" + port;
+    }
+
+    public long getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection( HttpRoute route, Object state ) {
+        Map<String, Integer> limits = maxPerHost;
+        if ( !limits.isEmpty() || !limitedRoutes.isEmpty() ) {
+            HttpHost target = route.getTargetHost();
+            Integer limit = limits.get( hostKey( target.getSchemeName(), target.getHostName(), target.getPort() ) );
+            if ( limit != null ) {
+                if ( getMaxPerRoute( route ) != limit ) {
+                    setMaxPerRoute( route, limit );
+                }
+                limitedRoutes.add( route );
+            } else if ( limitedRoutes.remove( route ) ) {
+                // limit no longer configured
+                setMaxPerRoute( route, getDefaultMaxPerRoute() );
+            }
+        }
+        final ConnectionRequest request = super.requestConnection( route, state );
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get( long timeout, TimeUnit tunit )
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                return validate( request.get( timeout, tunit ) );
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    private HttpClientConnection validate( HttpClientConnection conn ) {
+        Object time = attribute( conn, false );
+        if ( time instanceof Long && validateAfterInactivity >= 0 && conn.isOpen()
+                && System.currentTimeMillis() - (Long) time >= validateAfterInactivity && conn.isStale() ) {
+            String id = idOf( conn );
+            LOG.debug( "Closing stale connection {}", id );
+            try {
+                conn.close();
+            }
+            catch ( IOException e ) {
+                LOG.debug( "Error closing stale connection " + id, e );
+            }
+        }
+        return conn;
+    }
+
+    @Override
+    public void releaseConnection( HttpClientConnection managedConn, Object state, long keepalive, TimeUnit tunit ) {
+        // the connection is no longer available once it's back in the pool
+        if ( managedConn.isOpen() ) {
+            attribute( managedConn, true );
+        }
+        super.releaseConnection( managedConn, state, keepalive, tunit );
+    }
+
+    /**
+     * Records the release time on the connection, or removes and returns it.
+     */
+    private static Object attribute( HttpClientConnection conn, boolean release ) {
+        if ( conn instanceof HttpContext ) {
+            try {
+                if ( release ) {
+                    ( (HttpContext) conn ).setAttribute( RELEASED, System.currentTimeMillis() );
+                    return null;
+                }
+                return ( (HttpContext) conn ).removeAttribute( RELEASED );
+            }
+            catch ( RuntimeException e ) {
+                // connection already detached from its pool entry
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String idOf( HttpClientConnection conn ) {
+        if ( conn instanceof ManagedHttpClientConnection ) {
+            try {
+                return ( (ManagedHttpClientConnection) conn ).getId();
+            }
+            catch ( RuntimeException e ) {
+                // connection already detached from its pool entry
+                return null;
+            }
+        }
+        return null;
+    }
+
+}
@@ -621,18 +621,25 @@ public class MavenConfigurationImpl implements MavenConfiguration {
             settings = new Settings();
         }
         else {
-            DefaultSettingsBuilderFactory factory = new DefaultSettingsBuilderFactory();
-            DefaultSettingsBuilder builder = factory.newInstance();
-            SettingsBuildingRequest request = new DefaultSettingsBuildingRequest();
-            request.setUserSettingsFile(new File(settingsPath));
-            try {
-                SettingsBuildingResult result = builder.build(request);
-                settings = result.getEffectiveSettings();
-            }
-            catch (SettingsBuildingException exc) {
-                throw new AssertionError("cannot build settings", exc);
+            // settings.xml is parsed once per version of the file, configuration updates are frequent
+            File settingsFile = new File(settingsPath);
+            settings = SettingsCache.get(settingsFile);
+            if (settings == null) {
+                long lastModified = settingsFile.lastModified();
+                long length = settingsFile.length();
+                DefaultSettingsBuilderFactory factory = new DefaultSettingsBuilderFactory();
+                DefaultSettingsBuilder builder = factory.newInstance();
+                SettingsBuildingRequest request = new DefaultSettingsBuildingRequest();
+                request.setUserSettingsFile(settingsFile);
+                try {
+                    SettingsBuildingResult result = builder.build(request);
+                    settings = result.getEffectiveSettings();
+                }
+                catch (SettingsBuildingException exc) {
+                    throw new AssertionError("cannot build settings", exc);
+                }
+                SettingsCache.put(settingsFile, lastModified, length, settings);
             }
-
         }
         if (useFallbackRepositories) {
             Profile fallbackProfile = new Profile();
@@ -700,7 +707,7 @@ public class MavenConfigurationImpl implements MavenConfiguration {
      * @return
      */
     @SuppressWarnings("unchecked")
-    private <T> T convert(String value, Class<T> clazz) {
+    static <T> T convert(String value, Class<T> clazz) {
         if (String.class == clazz) {
             return (T) value;
         }
@@ -0,0 +1,262 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.config;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.settings.Settings;
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.util.property.PropertyResolver;
+
+/**
+ * Immutable view of a {@link MavenConfiguration}, with every value resolved (and <code>settings.xml</code> parsed)
+ * once when the snapshot is taken.
+ * <p>
+ * {@link MavenConfigurationImpl} memoizes lazily, looking values up by <code>pid + name</code> in a concurrent map.
+ * A snapshot is taken once per configuration update and then only read by resolver threads, without locking and
+ * without building property keys. Generic properties not known in advance are delegated to the source
+ * configuration.
+ */
+public class MavenConfigurationSnapshot implements MavenConfiguration {
+
+    /**
+     * Generic properties (see {@link #getProperty(String, Object, Class)}) read when the snapshot is taken.
+     */
+    static final String[] PRELOADED_PROPERTIES = {
+            ServiceConstants.PROPERTY_SOCKET_SO_TIMEOUT,
+            ServiceConstants.PROPERTY_SOCKET_SO_KEEPALIVE,
+            ServiceConstants.PROPERTY_SOCKET_SO_LINGER,
+            ServiceConstants.PROPERTY_SOCKET_SO_REUSEADDRESS,
+            ServiceConstants.PROPERTY_SOCKET_TCP_NODELAY,
+            ServiceConstants.PROPERTY_SOCKET_CONNECTION_TIMEOUT,
+            ServiceConstants.PROPERTY_CONNECTION_BUFFER_SIZE,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_COUNT,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_BACKOFF,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_MAX_BACKOFF,
+            ServiceConstants.PROPERTY_CONNECTION_RETRY_DEADLINE,
+            ServiceConstants.PROPERTY_CONNECTION_VALIDATE_AFTER_INACTIVITY,
+            ServiceConstants.PROPERTY_CONNECTION_IDLE_TIMEOUT,
+            ServiceConstants.PROPERTY_CONNECTION_WARMUP,
+            ServiceConstants.PROPERTY_CHECKSUM_PREFETCH,
+            ServiceConstants.PROPERTY_CHECKSUM_PREFETCH_THREADS,
+            ServiceConstants.PROPERTY_OFFLINE_INDEX,
+            ServiceConstants.PROPERTY_PREFETCH_FILE,
+            ServiceConstants.PROPERTY_PREFETCH_THREADS,
+            ServiceConstants.PROPERTY_UPDATE_RELEASES
+    };
+
+    private static final Set<String> PRELOADED = new HashSet<String>(Arrays.asList(PRELOADED_PROPERTIES));
+
+    private final MavenConfiguration source;
+
+    private final boolean offline;
+    private final Boolean certificateCheck;
+    private final URL settingsFileUrl;
+    private final List<MavenRepositoryURL> defaultRepositories;
+    private final MalformedURLException defaultRepositoriesException;
+    private final List<MavenRepositoryURL> repositories;
+    private final MalformedURLException repositoriesException;
+    private final String globalUpdatePolicy;
+    private final String globalChecksumPolicy;
+    private final MavenRepositoryURL localRepository;
+    private final Boolean useFallbackRepositories;
+    private final Integer timeout;
+    private final Map<String, Map<String, String>> mirrors;
+    private final Settings settings;
+    private final String securitySettings;
+    private final PropertyResolver propertyResolver;
+    private final String pid;
+    private final Map<String, String> properties;
+
+    private MavenConfigurationSnapshot(MavenConfiguration source) {
+        this.source = source;
+        this.offline = source.isOffline();
+        this.certificateCheck = source.getCertificateCheck();
+        this.settingsFileUrl = source.getSettingsFileUrl();
+        List<MavenRepositoryURL> list = null;
+        MalformedURLException exception = null;
+        try {
+            list = unmodifiable(source.getDefaultRepositories());
+        } catch (MalformedURLException e) {
+            exception = e;
+        }
+        this.defaultRepositories = list;
+        this.defaultRepositoriesException = exception;
+        list = null;
+        exception = null;
+        try {
+            list = unmodifiable(source.getRepositories());
+        } catch (MalformedURLException e) {
+            exception = e;
+        }
+        this.repositories = list;
+        this.repositoriesException = exception;
+        this.globalUpdatePolicy = source.getGlobalUpdatePolicy();
+        this.globalChecksumPolicy = source.getGlobalChecksumPolicy();
+        this.localRepository = source.getLocalRepository();
+        this.useFallbackRepositories = source.useFallbackRepositories();
+        this.timeout = source.getTimeout();
+        this.mirrors = source.getMirrors();
+        this.settings = source.getSettings();
+        this.securitySettings = source.getSecuritySettings();
+        this.propertyResolver = source.getPropertyResolver();
+        this.pid = source.getPid();
+
+        Map<String, String> props = new HashMap<String, String>();
+        for (String name : PRELOADED_PROPERTIES) {
+            String value = propertyResolver == null ? null : propertyResolver.get(pid + name);
+            if (value != null) {
+                props.put(name, value);
+            }
+        }
+        this.properties = Collections.unmodifiableMap(props);
+    }
+
+    /**
+     * Takes a snapshot of <code>configuration</code>, unless it already is one.
+     */
+    public static MavenConfigurationSnapshot of(MavenConfiguration configuration) {
+        NullArgumentException.validateNotNull(configuration, "Maven configuration");
+        if (configuration instanceof MavenConfigurationSnapshot) {
+            return (MavenConfigurationSnapshot) configuration;
+        }
+        return new MavenConfigurationSnapshot(configuration);
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list == null ? null : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the configuration this snapshot was taken from.
+     */
+    public MavenConfiguration getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean isOffline() {
+        return offline;
+    }
+
+    @Override
+    public Boolean getCertificateCheck() {
+        return certificateCheck;
+    }
+
+    @Override
+    public URL getSettingsFileUrl() {
+        return settingsFileUrl;
+    }
+
+    @Override
+    public List<MavenRepositoryURL> getDefaultRepositories() throws MalformedURLException {
+        if (defaultRepositoriesException != null) {
+            throw defaultRepositoriesException;
+        }
+        return defaultRepositories;
+    }
+
+    @Override
+    public List<MavenRepositoryURL> getRepositories() throws MalformedURLException {
+        if (repositoriesException != null) {
+            throw repositoriesException;
+        }
+        return repositories;
+    }
+
+    @Override
+    public String getGlobalUpdatePolicy() {
+        return globalUpdatePolicy;
+    }
+
+    @Override
+    public String getGlobalChecksumPolicy() {
+        return globalChecksumPolicy;
+    }
+
+    @Override
+    public MavenRepositoryURL getLocalRepository() {
+        return localRepository;
+    }
+
+    @Override
+    public Boolean useFallbackRepositories() {
+        return useFallbackRepositories;
+    }
+
+    @Override
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public void enableProxy(URL url) {
+        source.enableProxy(url);
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getProxySettings(String... protocols) {
+        return source.getProxySettings(protocols);
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getMirrors() {
+        return mirrors;
+    }
+
+    @Override
+    public Settings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public String getSecuritySettings() {
+        return securitySettings;
+    }
+
+    @Override
+    public PropertyResolver getPropertyResolver() {
+        return propertyResolver;
+    }
+
+    @Override
+    public <T> T getProperty(String name, T defaultValue, Class<T> clazz) {
+        String value = properties.get(name);
+        if (value != null) {
+            return MavenConfigurationImpl.convert(value, clazz);
+        }
+        if (PRELOADED.contains(name)) {
+            return defaultValue;
+        }
+        return source.getProperty(name, defaultValue, clazz);
+    }
+
+    @Override
+    public String getPid() {
+        return pid;
+    }
+
+}
@@ -78,6 +78,10 @@ public class MavenRepositoryURL
     private final String m_snapshotsChecksumPolicy;
 
     private final boolean m_multi;
+    /**
+     * Maximum number of connections to the repository host, 0 if not set
+     */
+    private final int m_maxConnections;
 
     /**
      * Creates a maven repository URL bases on a string spec. The path can be marked with @snapshots and/or @noreleases
@@ -106,6 +110,7 @@ public class MavenRepositoryURL
         String checksum = null;
         String checksumReleases = null;
         String checksumSnapshots = null;
+        int maxConnections = 0;
 
         for( int i = 0; i < segments.length; i++ )
         {
@@ -178,6 +183,14 @@ public class MavenRepositoryURL
                     LOG.warn( "Problem with segment " + segments[i] + " in " + repositorySpec );
                 }
             }
+            else if( segment.startsWith( ServiceConstants.OPTION_MAX_CONNECTIONS + "=" ) )
+            {
+                try {
+                    maxConnections = Integer.parseInt( segments[ i ].split( "=" )[1].trim() );
+                } catch (Exception e) {
+                    LOG.warn( "Problem with segment " + segments[i] + " in " + repositorySpec );
+                }
+            }
             else
             {
                 if( i > 0 )
@@ -192,6 +205,7 @@ public class MavenRepositoryURL
         m_snapshotsEnabled = snapshotEnabled;
         m_releasesEnabled = releasesEnabled;
         m_multi = multi;
+        m_maxConnections = Math.max( 0, maxConnections );
         if (name == null) {
             String warn = "Repository spec " + spec + " does not contain an identifier. Give your repository a name, for example: " + repositorySpec + "@id=MyName";
             LOG.warn( warn );
@@ -309,6 +323,16 @@ public class MavenRepositoryURL
         return m_snapshotsChecksumPolicy;
     }
 
+    /**
+     * Getter.
+     *
+     * @return maximum number of pooled connections to the repository host, 0 to use the pool default
+     */
+    public int getMaxConnections()
+    {
+        return m_maxConnections;
+    }
+
     /**
      * Getter.
      *
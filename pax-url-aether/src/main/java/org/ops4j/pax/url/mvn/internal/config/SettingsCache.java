@@ -0,0 +1,77 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.config;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.settings.Settings;
+
+/**
+ * Process wide cache of parsed <code>settings.xml</code> files.
+ * <p>
+ * Entries are keyed by the absolute path of the file and are only valid as long as its last modification time
+ * and length don't change. Callers always get their own (deep) copy, as {@link Settings} is mutable and is
+ * modified after being built (fallback profile, local repository, decrypted passwords).
+ */
+final class SettingsCache {
+
+    private static final ConcurrentMap<String, Entry> CACHE = new ConcurrentHashMap<String, Entry>();
+
+    private SettingsCache() {
+    }
+
+    /**
+     * Returns a copy of the cached settings for <code>file</code>, or <code>null</code> if not cached or if the
+     * file changed since it was cached.
+     */
+    static Settings get(File file) {
+        Entry entry = CACHE.get(file.getAbsolutePath());
+        if (entry == null) {
+            return null;
+        }
+        if (entry.lastModified != file.lastModified() || entry.length != file.length()) {
+            CACHE.remove(file.getAbsolutePath(), entry);
+            return null;
+        }
+        return entry.settings.clone();
+    }
+
+    /**
+     * Caches a copy of <code>settings</code> parsed from <code>file</code>.
+     */
+    static void put(File file, long lastModified, long length, Settings settings) {
+        CACHE.put(file.getAbsolutePath(), new Entry(lastModified, length, settings.clone()));
+    }
+
+    static void clear() {
+        CACHE.clear();
+    }
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final Settings settings;
+
+        Entry(long lastModified, long length, Settings settings) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.settings = settings;
+        }
+    }
+
+}
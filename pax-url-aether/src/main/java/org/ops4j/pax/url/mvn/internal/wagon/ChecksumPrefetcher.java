@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.wagon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the <code>.sha1</code> file of an artifact while the artifact itself is being downloaded.
+ * <p>
+ * Aether verifies a downloaded file by requesting its checksum file only after the transfer has
+ * completed. When prefetching is enabled, the checksum request is issued over the pooled client as
+ * soon as the artifact response is known to be successful, while its content is being transferred, and
+ * the (tiny) response is buffered, so that the later checksum request of the connector is answered
+ * without another round trip.
+ * <p>
+ * Checksums are only buffered for a short time and a bounded number of entries; anything not
+ * claimed in time is cancelled, and simply fetched again the usual way. Only artifact files are
+ * prefetched, not repository metadata whose checksums are not always requested.
+ */
+public class ChecksumPrefetcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger( ChecksumPrefetcher.class );
+
+    private static final String CHECKSUM_EXTENSION = ".sha1";
+    private static final String METADATA_PREFIX = "maven-metadata";
+    private static final String[] CHECKSUM_EXTENSIONS = { ".sha1", ".md5", ".asc" };
+
+    /**
+     * Checksum files are a few dozen bytes, anything larger is not buffered
+     */
+    private static final int MAX_CHECKSUM_SIZE = 1024;
+
+    private static final int MAX_PENDING = 128;
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis( 1 );
+
+    private final CloseableHttpClient client;
+    private final ThreadPoolExecutor executor;
+    private final int maxPending;
+    /**
+     * Pending prefetches, eldest first. Guarded by itself.
+     */
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+
+    public ChecksumPrefetcher( CloseableHttpClient client, int threads ) {
+        this( client, threads, MAX_PENDING );
+    }
+
+    ChecksumPrefetcher( CloseableHttpClient client, int threads, int maxPending ) {
+        this.client = client;
+        this.maxPending = maxPending;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor( threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>( maxPending ), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread( r, "pax-url-checksum-" + counter.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+        this.executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * Starts fetching the checksum of the resource requested by <code>request</code>, if it's
+     * an artifact download (not a checksum or repository metadata).
+     *
+     * @param request request of the artifact
+     * @param context context of the artifact request, providing credentials and request configuration
+     */
+    public void prefetch( HttpUriRequest request, HttpClientContext context ) {
+        if ( !HttpGet.METHOD_NAME.equals( request.getMethod() ) || !isArtifact( request.getURI().getPath() ) ) {
+            return;
+        }
+        final String uri = request.getURI().toString() + CHECKSUM_EXTENSION;
+        final HttpGet get = new HttpGet( uri );
+        for ( Header header : request.getAllHeaders() ) {
+            get.addHeader( header );
+        }
+        final HttpClientContext ctx = HttpClientContext.create();
+        ctx.setCredentialsProvider( context.getCredentialsProvider() );
+        ctx.setAuthCache( context.getAuthCache() );
+        ctx.setRequestConfig( context.getRequestConfig() );
+
+        synchronized ( pending ) {
+            if ( pending.containsKey( uri ) ) {
+                return;
+            }
+            expire( maxPending - 1 );
+            try {
+                Future<Fetched> future = executor.submit( new Callable<Fetched>() {
+                    @Override
+                    public Fetched call() throws Exception {
+                        return fetch( get, ctx );
+                    }
+                } );
+                pending.put( uri, new Pending( future ) );
+            } catch ( RejectedExecutionException e ) {
+                LOG.debug( "Too many pending checksum requests, not prefetching {}", uri );
+            }
+        }
+    }
+
+    /**
+     * Returns the prefetched response for <code>request</code>, or <code>null</code> if there's none
+     * (or it failed / didn't arrive within <code>timeout</code>), in which case the caller should
+     * execute the request itself.
+     *
+     * @param timeout maximum time to wait for the prefetch in milliseconds; if not positive, the prefetch
+     *                is only used if it has already arrived
+     */
+    public CloseableHttpResponse take( HttpUriRequest request, long timeout ) {
+        if ( !HttpGet.METHOD_NAME.equals( request.getMethod() ) ) {
+            return null;
+        }
+        Pending p;
+        synchronized ( pending ) {
+            p = pending.remove( request.getURI().toString() );
+        }
+        if ( p == null ) {
+            return null;
+        }
+        try {
+            Fetched fetched = p.future.get( Math.max( 0, timeout ), TimeUnit.MILLISECONDS );
+            if ( fetched == null ) {
+                return null;
+            }
+            LOG.debug( "Using prefetched checksum for {}", request.getURI() );
+            return fetched.toResponse();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException e ) {
+            LOG.debug( "Prefetching checksum for " + request.getURI() + " failed", e.getCause() );
+        } catch ( TimeoutException e ) {
+            p.future.cancel( true );
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        synchronized ( pending ) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Cancels the prefetches that were not claimed in time, and the eldest ones beyond <code>max</code>,
+     * so that they don't keep running and holding pooled connections for nobody. Called with the lock
+     * on <code>pending</code> held.
+     */
+    private void expire( int max ) {
+        final long now = System.currentTimeMillis();
+        final Iterator<Pending> it = pending.values().iterator();
+        while ( it.hasNext() ) {
+            final Pending p = it.next();
+            if ( pending.size() <= max && p.created + MAX_AGE >= now ) {
+                break;
+            }
+            it.remove();
+            p.future.cancel( true );
+            // frees its place in the queue if it didn't start yet
+            executor.remove( (Runnable) p.future );
+        }
+    }
+
+    private Fetched fetch( HttpGet get, HttpClientContext context ) throws IOException {
+        CloseableHttpResponse response = client.execute( get, context );
+        try {
+            HttpEntity entity = response.getEntity();
+            byte[] content = null;
+            if ( entity != null ) {
+                if ( entity.getContentLength() > MAX_CHECKSUM_SIZE ) {
+                    return null;
+                }
+                ByteArrayOutputStream baos = new ByteArrayOutputStream( 64 );
+                InputStream is = entity.getContent();
+                try {
+                    byte[] buffer = new byte[256];
+                    int read;
+                    while ( ( read = is.read( buffer ) ) != -1 ) {
+                        baos.write( buffer, 0, read );
+                        if ( baos.size() > MAX_CHECKSUM_SIZE ) {
+                            return null;
+                        }
+                    }
+                } finally {
+                    is.close();
+                }
+                content = baos.toByteArray();
+            }
+            return new Fetched( response.getStatusLine(), response.getAllHeaders(), content );
+        } finally {
+            response.close();
+        }
+    }
+
+    private static boolean isArtifact( String path ) {
+        if ( path == null || path.endsWith( "/" ) ) {
+            return false;
+        }
+        for ( String ext : CHECKSUM_EXTENSIONS ) {
+            if ( path.endsWith( ext ) ) {
+                return false;
+            }
+        }
+        return !path.substring( path.lastIndexOf( '/' ) + 1 ).startsWith( METADATA_PREFIX );
+    }
+
+    private static class Pending {
+        final Future<Fetched> future;
+        final long created = System.currentTimeMillis();
+
+        Pending( Future<Fetched> future ) {
+            this.future = future;
+        }
+    }
+
+    private static class Fetched {
+        final StatusLine statusLine;
+        final Header[] headers;
+        final byte[] content;
+
+        Fetched( StatusLine statusLine, Header[] headers, byte[] content ) {
+            this.statusLine = statusLine;
+            this.headers = headers;
+            this.content = content;
+        }
+
+        CloseableHttpResponse toResponse() {
+            BufferedResponse response = new BufferedResponse( statusLine );
+            response.setHeaders( headers );
+            if ( content != null ) {
+                response.setEntity( new ByteArrayEntity( content ) );
+            }
+            return response;
+        }
+    }
+
+    private static class BufferedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+        BufferedResponse( StatusLine statusLine ) {
+            super( statusLine );
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
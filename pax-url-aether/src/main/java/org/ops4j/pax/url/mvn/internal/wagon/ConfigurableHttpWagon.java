@@ -58,9 +58,16 @@ import org.ops4j.net.URLUtils;
 public class ConfigurableHttpWagon extends HttpWagon {
 
     private final CloseableHttpClient client;
+    private final ChecksumPrefetcher checksumPrefetcher;
 
     public ConfigurableHttpWagon(CloseableHttpClient client, int readTimeout, int connectionTimeout) {
+        this(client, readTimeout, connectionTimeout, null);
+    }
+
+    public ConfigurableHttpWagon(CloseableHttpClient client, int readTimeout, int connectionTimeout,
+                                 ChecksumPrefetcher checksumPrefetcher) {
         this.client = client;
+        this.checksumPrefetcher = checksumPrefetcher;
         setReadTimeout(readTimeout);
         setTimeout(connectionTimeout);
     }
@@ -99,6 +106,10 @@ public class ConfigurableHttpWagon extends HttpWagon {
             requestConfigBuilder.setConnectTimeout( getTimeout() );
         }
 
+        // stale connections are detected by the connection manager, only after a period of inactivity
+        // (see ValidatingConnectionManager), not by a blocking read before every request
+        requestConfigBuilder.setStaleConnectionCheckEnabled( false );
+
         getLocalContext().setRequestConfig(requestConfigBuilder.build());
 
         if ( config != null && config.isUsePreemptive() )
@@ -145,8 +156,29 @@ public class ConfigurableHttpWagon extends HttpWagon {
                 }
             }
         }
-        
-        return client.execute( httpMethod, getLocalContext() );
+
+        if ( checksumPrefetcher != null )
+        {
+            // a prefetch is not awaited forever, even without read timeout
+            CloseableHttpResponse prefetched = checksumPrefetcher.take( httpMethod,
+                    getReadTimeout() > 0 ? getReadTimeout() : getTimeout() );
+            if ( prefetched != null )
+            {
+                return prefetched;
+            }
+        }
+
+        CloseableHttpResponse response = client.execute( httpMethod, getLocalContext() );
+        if ( checksumPrefetcher != null )
+        {
+            int status = response.getStatusLine().getStatusCode();
+            if ( status >= 200 && status < 300 )
+            {
+                // only repositories that have the artifact are asked for its checksum
+                checksumPrefetcher.prefetch( httpMethod, getLocalContext() );
+            }
+        }
+        return response;
     }
 
     @Override
@@ -16,6 +16,8 @@
 package org.ops4j.pax.url.mvn.internal;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.util.Collections;
 import java.util.Properties;
 import java.util.UUID;
@@ -30,6 +32,9 @@ import org.apache.maven.settings.Proxy;
 import org.apache.maven.settings.Repository;
 import org.apache.maven.settings.Settings;
 import org.eclipse.aether.RepositoryException;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.transfer.ArtifactNotFoundException;
 import org.eclipse.aether.transfer.ArtifactTransferException;
@@ -39,6 +44,7 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.ops4j.pax.url.mvn.MavenResolver.RetryChance;
 import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
 import org.ops4j.util.property.PropertiesPropertyResolver;
 
@@ -119,6 +125,24 @@ public class AetherResolutionWithHintsTest {
         }
     }
 
+    @Test
+    public void retryChanceOfTransferErrors() throws Exception {
+        AetherBasedResolver resolver = new AetherBasedResolver(mavenConfiguration());
+        try {
+            Artifact artifact = new DefaultArtifact("org.ops4j.pax.web:pax-web-api:1");
+            RemoteRepository repository = new RemoteRepository.Builder("repo1", "default", "http://localhost:1111/repository").build();
+            assertThat(resolver.isRetryableException(new ArtifactTransferException(artifact, repository,
+                    new SocketTimeoutException())), equalTo(RetryChance.LOW));
+            assertThat(resolver.isRetryableException(new ArtifactTransferException(artifact, repository,
+                    new ConnectException())), equalTo(RetryChance.NEVER));
+            // retried by the HTTP client, but not a hint to try the repository again
+            assertThat(resolver.isRetryableException(new ArtifactTransferException(artifact, repository,
+                    new IOException("Connection reset"))), equalTo(RetryChance.NEVER));
+        } finally {
+            resolver.close();
+        }
+    }
+
     @AfterClass
     public static void stopJetty() throws Exception {
         server.stop();
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.MavenResolver;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactPrefetcherTest {
+
+    @Test
+    public void prefetchReportsProgress() throws Exception {
+        MavenResolver resolver = createMock(MavenResolver.class);
+        expect(resolver.resolve("mvn:g/a1/1.0")).andReturn(new File("a1.jar"));
+        expect(resolver.resolve("mvn:g/a2/1.0")).andReturn(new File("a2.jar"));
+        expect(resolver.resolve("mvn:g/a3/1.0")).andThrow(new IOException("not found"));
+        replay(resolver);
+
+        final List<String> resolved = new CopyOnWriteArrayList<String>();
+        final List<String> failed = new CopyOnWriteArrayList<String>();
+        final int[] finished = new int[2];
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(resolver, 2);
+        try {
+            ArtifactPrefetcher.Progress progress = prefetcher.prefetch(
+                    Arrays.asList("mvn:g/a1/1.0", "mvn:g/a2/1.0", "mvn:g/a3/1.0", "mvn:g/a1/1.0"),
+                    new ArtifactPrefetcher.Listener() {
+                        @Override
+                        public void resolved(String uri, File file, int completed, int total) {
+                            resolved.add(uri);
+                        }
+
+                        @Override
+                        public void failed(String uri, Exception exception, int completed, int total) {
+                            failed.add(uri);
+                        }
+
+                        @Override
+                        public void finished(int r, int f) {
+                            finished[0] = r;
+                            finished[1] = f;
+                        }
+                    });
+            assertTrue(progress.await(10, TimeUnit.SECONDS));
+            assertEquals(3, progress.getTotal());
+            assertEquals(2, progress.getResolved());
+            assertEquals(1, progress.getFailed());
+            assertEquals(2, resolved.size());
+            assertEquals(Arrays.asList("mvn:g/a3/1.0"), failed);
+            // finished is called after the latch is released, give it a moment
+            for (int i = 0; i < 100 && finished[0] + finished[1] < 3; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, finished[0]);
+            assertEquals(1, finished[1]);
+        } finally {
+            prefetcher.close();
+        }
+        verify(resolver);
+    }
+
+    @Test
+    public void closeDropsQueuedArtifacts() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        MavenResolver resolver = createMock(MavenResolver.class);
+        expect(resolver.resolve("mvn:g/a1/1.0")).andAnswer(new IAnswer<File>() {
+            @Override
+            public File answer() throws Throwable {
+                started.countDown();
+                // interrupted by close()
+                new CountDownLatch(1).await();
+                return null;
+            }
+        });
+        replay(resolver);
+
+        final int[] finished = { -1, -1 };
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(resolver, 1);
+        ArtifactPrefetcher.Progress progress = prefetcher.prefetch(
+                Arrays.asList("mvn:g/a1/1.0", "mvn:g/a2/1.0", "mvn:g/a3/1.0"),
+                new ArtifactPrefetcher.Listener() {
+                    @Override
+                    public void resolved(String uri, File file, int completed, int total) {
+                    }
+
+                    @Override
+                    public void failed(String uri, Exception exception, int completed, int total) {
+                    }
+
+                    @Override
+                    public void finished(int r, int f) {
+                        finished[0] = r;
+                        finished[1] = f;
+                    }
+                });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        prefetcher.close();
+        assertTrue(progress.await(10, TimeUnit.SECONDS));
+        assertEquals(0, progress.getResolved());
+        assertEquals(3, progress.getFailed());
+        assertTrue(progress.isStopped());
+        for (int i = 0; i < 100 && finished[1] < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, finished[0]);
+        assertEquals(3, finished[1]);
+
+        // prefetching once closed fails at once
+        progress = prefetcher.prefetch(Arrays.asList("mvn:g/a4/1.0"), null);
+        assertTrue(progress.isDone());
+        assertEquals(1, progress.getFailed());
+        verify(resolver);
+    }
+
+    @Test
+    public void readUris() throws IOException {
+        File file = new File("target/prefetch/uris.txt");
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, "# comment\nmvn:g/a/1.0\n\n  mvn:g/b/2.0/xml/features  \nhttp://example.com/c.jar\n");
+        assertEquals(Arrays.asList("mvn:g/a/1.0", "mvn:g/b/2.0/xml/features"), ArtifactPrefetcher.readUris(file));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.MavenResolver.RetryChance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackoffRetryPolicyTest {
+
+    @Test
+    public void backoffGrowsWithJitter() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(5, 100, 1000);
+        for (int i = 0; i < 20; i++) {
+            long first = policy.backoff(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = policy.backoff(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = policy.backoff(10);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void classification() {
+        assertEquals(RetryChance.NEVER, BackoffRetryPolicy.classify(new ConnectException()));
+        assertEquals(RetryChance.LOW, BackoffRetryPolicy.classify(new SocketTimeoutException()));
+        assertEquals(RetryChance.HIGH, BackoffRetryPolicy.classify(new NoHttpResponseException("")));
+
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(2, 0, 0);
+        assertFalse(policy.retryRequest(new ConnectException(), 1, new BasicHttpContext()));
+        assertTrue(policy.retryRequest(new NoHttpResponseException(""), 1, new BasicHttpContext()));
+        assertFalse(policy.retryRequest(new NoHttpResponseException(""), 3, new BasicHttpContext()));
+    }
+
+    @Test
+    public void unavailableHonoursRetryAfter() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(3, 10, 5000);
+        assertFalse(policy.retryRequest(response(404, null), 1, new BasicHttpContext()));
+
+        assertTrue(policy.retryRequest(response(503, "2"), 1, new BasicHttpContext()));
+        assertEquals(2000, policy.getRetryInterval());
+
+        assertTrue(policy.retryRequest(response(429, null), 1, new BasicHttpContext()));
+        assertTrue(policy.getRetryInterval() <= 10);
+
+        // too long to wait
+        assertFalse(policy.retryRequest(response(503, "60"), 1, new BasicHttpContext()));
+        // too many attempts
+        assertFalse(policy.retryRequest(response(503, null), 4, new BasicHttpContext()));
+    }
+
+    @Test
+    public void deadline() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(3, 10, 5000);
+        assertTrue(BackoffRetryPolicy.startDeadline(500));
+        try {
+            // nested resolution keeps the outer deadline
+            assertFalse(BackoffRetryPolicy.startDeadline(100000));
+            assertFalse(policy.retryRequest(response(503, "2"), 1, new BasicHttpContext()));
+            assertTrue(policy.retryRequest(response(503, null), 1, new BasicHttpContext()));
+        } finally {
+            BackoffRetryPolicy.clearDeadline();
+        }
+        assertTrue(policy.retryRequest(response(503, "2"), 1, new BasicHttpContext()));
+    }
+
+    private HttpResponse response(int status, String retryAfter) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        if (retryAfter != null) {
+            response.setHeader("Retry-After", retryAfter);
+        }
+        return response;
+    }
+
+}
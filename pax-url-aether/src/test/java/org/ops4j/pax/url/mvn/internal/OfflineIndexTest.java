@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineIndexTest {
+
+    private File repo1;
+    private File repo2;
+    private File index;
+
+    @Before
+    public void init() throws IOException {
+        File dir = new File("target/offline-index");
+        FileUtils.deleteDirectory(dir);
+        repo1 = new File(dir, "repo1");
+        repo2 = new File(dir, "repo2");
+        index = new File(dir, "index.txt");
+
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0.jar");
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0.jar.sha1");
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0.pom");
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0-sources.jar");
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/_remote.repositories");
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/2.10.0/pax-url-aether-2.10.0.jar");
+        touch(repo1, "org/ops4j/pax/url/pax-url-aether/maven-metadata-local.xml");
+        touch(repo2, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0.jar");
+        touch(repo2, "org/ops4j/pax/url/pax-url-aether/2.6.0/pax-url-aether-2.6.0.jar");
+        touch(repo2, "org/ops4j/pax/url/pax-url-aether-support/2.11.0/pax-url-aether-support-2.11.0.jar");
+        touch(repo2, "org/apache/karaf/features/4.0.0/features-4.0.0-features.xml");
+    }
+
+    @Test
+    public void buildAndFind() throws IOException {
+        OfflineIndex idx = OfflineIndex.open(index, Arrays.asList(repo1, repo2));
+        assertTrue(index.isFile());
+        assertEquals(7, idx.size());
+
+        assertEquals(new File(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "2.5.0"));
+        assertEquals(new File(repo1, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0-sources.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether", "sources", "jar", "2.5.0"));
+        assertEquals(new File(repo2, "org/apache/karaf/features/4.0.0/features-4.0.0-features.xml").getAbsoluteFile(),
+                idx.find("org.apache.karaf", "features", "features", "xml", "4.0.0"));
+        assertNull(idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "2.7.0"));
+        assertNull(idx.find("org.ops4j.pax.url", "pax-url-aether", "", "war", "2.5.0"));
+        assertNull(idx.find("org.ops4j.pax", "url", "", "jar", "2.5.0"));
+    }
+
+    @Test
+    public void latestAndRanges() throws IOException {
+        OfflineIndex idx = OfflineIndex.open(index, Arrays.asList(repo1, repo2));
+
+        assertEquals(new File(repo1, "org/ops4j/pax/url/pax-url-aether/2.10.0/pax-url-aether-2.10.0.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "LATEST"));
+        assertEquals(new File(repo2, "org/ops4j/pax/url/pax-url-aether/2.6.0/pax-url-aether-2.6.0.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "[2.5,2.7)"));
+        assertEquals(new File(repo2, "org/ops4j/pax/url/pax-url-aether-support/2.11.0/pax-url-aether-support-2.11.0.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether-support", "", "jar", "LATEST"));
+        assertNull(idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "[3.0,)"));
+    }
+
+    @Test
+    public void existingIndexIsReused() throws IOException {
+        OfflineIndex.build(index, Arrays.asList(repo2));
+        OfflineIndex idx = OfflineIndex.open(index, Arrays.asList(repo1, repo2));
+        assertEquals(4, idx.size());
+        assertEquals(new File(repo2, "org/ops4j/pax/url/pax-url-aether/2.5.0/pax-url-aether-2.5.0.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "2.5.0"));
+    }
+
+    @Test
+    public void classifiersWithDots() {
+        assertEquals("org.test:test:jar:jdk1.5:1.0",
+                OfflineIndex.toKey(Arrays.asList("org", "test", "test", "1.0"), "test-1.0-jdk1.5.jar"));
+        assertEquals("org.test:test:tar.gz:bin:1.0",
+                OfflineIndex.toKey(Arrays.asList("org", "test", "test", "1.0"), "test-1.0-bin.tar.gz"));
+        assertEquals("org.test:test:tar.gz::1.0",
+                OfflineIndex.toKey(Arrays.asList("org", "test", "test", "1.0"), "test-1.0.tar.gz"));
+    }
+
+    @Test
+    public void outdatedIndexIsRebuilt() throws IOException {
+        OfflineIndex idx = OfflineIndex.open(index, Arrays.asList(repo1, repo2));
+        assertFalse(idx.isOutdated("org.ops4j.pax.url", "pax-url-aether"));
+
+        touch(repo2, "org/ops4j/pax/url/pax-url-aether/2.11.0/pax-url-aether-2.11.0.jar");
+        new File(repo2, "org/ops4j/pax/url/pax-url-aether").setLastModified(index.lastModified() + 1000);
+        assertTrue(idx.isOutdated("org.ops4j.pax.url", "pax-url-aether"));
+        assertFalse(idx.isOutdated("org.ops4j.pax.url", "pax-url-aether-support"));
+
+        OfflineIndex rebuilt = idx.rebuild();
+        assertEquals(new File(repo2, "org/ops4j/pax/url/pax-url-aether/2.11.0/pax-url-aether-2.11.0.jar").getAbsoluteFile(),
+                rebuilt.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "LATEST"));
+        // the previous index is still readable, and no temporary file is left
+        assertEquals(new File(repo1, "org/ops4j/pax/url/pax-url-aether/2.10.0/pax-url-aether-2.10.0.jar").getAbsoluteFile(),
+                idx.find("org.ops4j.pax.url", "pax-url-aether", "", "jar", "LATEST"));
+        String[] files = index.getParentFile().list();
+        Arrays.sort(files);
+        assertEquals(Arrays.asList("index.txt", "repo1", "repo2"), Arrays.asList(files));
+    }
+
+    private static void touch(File repo, String path) throws IOException {
+        File file = new File(repo, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, path);
+    }
+
+}
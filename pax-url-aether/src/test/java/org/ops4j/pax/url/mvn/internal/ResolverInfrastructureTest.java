@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResolverInfrastructureTest {
+
+    @Test
+    public void sharedWhenOnlyRepositoriesChange() throws Exception {
+        Properties properties = newProperties();
+        properties.setProperty("org.ops4j.pax.url.mvn.repositories", "http://repo1@id=repo1");
+        AetherBasedResolver first = newResolver(properties, null);
+
+        properties = newProperties();
+        properties.setProperty("org.ops4j.pax.url.mvn.repositories", "http://repo2@id=repo2");
+        properties.setProperty("org.ops4j.pax.url.mvn.globalUpdatePolicy", "always");
+        AetherBasedResolver second = newResolver(properties, first);
+
+        ResolverInfrastructure infrastructure = second.getInfrastructure();
+        assertSame(first.getInfrastructure(), infrastructure);
+        assertSame(first.getRepositorySystem(), second.getRepositorySystem());
+
+        first.close();
+        // still referenced by the second resolver
+        assertSame(infrastructure, newResolver(properties, second).getInfrastructure());
+        second.close();
+    }
+
+    @Test
+    public void recreatedWhenTransportChanges() throws Exception {
+        AetherBasedResolver first = newResolver(newProperties(), null);
+
+        Properties properties = newProperties();
+        properties.setProperty("org.ops4j.pax.url.mvn.socket.readTimeout", "1234");
+        AetherBasedResolver second = newResolver(properties, first);
+        assertNotSame(first.getInfrastructure(), second.getInfrastructure());
+
+        second.close();
+        first.close();
+        // closed infrastructures are not reused
+        assertFalse(first.getInfrastructure().retain());
+    }
+
+    private Properties newProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("org.ops4j.pax.url.mvn.useFallbackRepositories", "false");
+        return properties;
+    }
+
+    private AetherBasedResolver newResolver(Properties properties, AetherBasedResolver previous) {
+        MavenConfigurationImpl config = new MavenConfigurationImpl(new PropertiesPropertyResolver(properties),
+                ServiceConstants.PID);
+        return new AetherBasedResolver(config, null, previous);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidatingConnectionManagerTest {
+
+    private ServerSocket server;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        server = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        // answers one request per connection, then closes it without telling the client
+                        Socket socket = server.accept();
+                        connections.incrementAndGet();
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                        String line;
+                        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                        }
+                        OutputStream out = socket.getOutputStream();
+                        out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                        out.flush();
+                        socket.close();
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void connectionsClosedByServerAreNotReused() throws Exception {
+        ValidatingConnectionManager connManager = new ValidatingConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create().register("http", PlainConnectionSocketFactory.INSTANCE).build(),
+                100);
+        CloseableHttpClient client = HttpClientBuilder.create()
+                .setConnectionManager(connManager)
+                .disableAutomaticRetries()
+                .build();
+        try {
+            assertEquals("ok", get(client));
+            Thread.sleep(300);
+            // would fail with NoHttpResponseException when reusing the dead connection
+            assertEquals("ok", get(client));
+            assertEquals(2, connections.get());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void perHostLimits() throws Exception {
+        ValidatingConnectionManager connManager = new ValidatingConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create().register("http", PlainConnectionSocketFactory.INSTANCE).build(),
+                100);
+        connManager.setDefaultMaxPerRoute(4);
+        connManager.setMaxTotal(40);
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        limits.put(ValidatingConnectionManager.hostKey("http", "nexus.local", -1), 64);
+        connManager.setMaxPerHost(limits);
+        assertEquals(64, connManager.getMaxTotal());
+
+        HttpRoute nexus = new HttpRoute(new HttpHost("nexus.local", 80, "http"));
+        HttpRoute central = new HttpRoute(new HttpHost("repo1.maven.org", 80, "http"));
+        connManager.requestConnection(nexus, null).cancel();
+        connManager.requestConnection(central, null).cancel();
+        assertEquals(64, connManager.getMaxPerRoute(nexus));
+        assertEquals(4, connManager.getMaxPerRoute(central));
+
+        // limit removed on reconfiguration
+        connManager.setMaxPerHost(Collections.<String, Integer>emptyMap());
+        connManager.requestConnection(nexus, null).cancel();
+        assertEquals(4, connManager.getMaxPerRoute(nexus));
+        assertEquals(40, connManager.getMaxTotal());
+        connManager.shutdown();
+    }
+
+    private String get(CloseableHttpClient client) throws Exception {
+        HttpGet get = new HttpGet("http://localhost:" + server.getLocalPort() + "/");
+        get.setConfig(RequestConfig.custom().setStaleConnectionCheckEnabled(false).build());
+        CloseableHttpResponse response = client.execute(get);
+        try {
+            return EntityUtils.toString(response.getEntity());
+        } finally {
+            response.close();
+        }
+    }
+
+}
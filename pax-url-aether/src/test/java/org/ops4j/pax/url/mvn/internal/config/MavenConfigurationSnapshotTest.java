@@ -0,0 +1,80 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.config;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MavenConfigurationSnapshotTest
+{
+
+    @Test
+    public void snapshotIsNotAffectedByLaterChanges()
+        throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "org.ops4j.pax.url.mvn.offline", "true" );
+        properties.setProperty( "org.ops4j.pax.url.mvn.repositories", "http://repo1@id=repo1,http://repo2@id=repo2" );
+        properties.setProperty( "org.ops4j.pax.url.mvn.socket.readTimeout", "1234" );
+        properties.setProperty( "org.ops4j.pax.url.mvn.custom", "value" );
+        MavenConfigurationSnapshot snapshot = MavenConfigurationSnapshot.of(
+            new MavenConfigurationImpl( new PropertiesPropertyResolver( properties ), ServiceConstants.PID ) );
+
+        properties.setProperty( "org.ops4j.pax.url.mvn.offline", "false" );
+        properties.setProperty( "org.ops4j.pax.url.mvn.socket.readTimeout", "1" );
+        properties.setProperty( "org.ops4j.pax.url.mvn.repositories", "http://repo3@id=repo3" );
+
+        assertTrue( snapshot.isOffline() );
+        assertEquals( 2, snapshot.getRepositories().size() );
+        assertEquals( "repo1", snapshot.getRepositories().get( 0 ).getId() );
+        assertEquals( Integer.valueOf( 1234 ),
+                      snapshot.getProperty( ServiceConstants.PROPERTY_SOCKET_SO_TIMEOUT, 5000, Integer.class ) );
+        assertEquals( Integer.valueOf( 3 ),
+                      snapshot.getProperty( ServiceConstants.PROPERTY_CONNECTION_RETRY_COUNT, 3, Integer.class ) );
+        assertFalse( snapshot.getProperty( ServiceConstants.PROPERTY_UPDATE_RELEASES, false, Boolean.class ) );
+        // not preloaded, looked up through the original configuration
+        assertEquals( "value", snapshot.getProperty( "custom", null, String.class ) );
+        assertEquals( "org.ops4j.pax.url.mvn.", snapshot.getPid() );
+    }
+
+    @Test
+    public void snapshotOfSnapshot()
+    {
+        MavenConfigurationSnapshot snapshot = MavenConfigurationSnapshot.of(
+            new MavenConfigurationImpl( new PropertiesPropertyResolver( new Properties() ), ServiceConstants.PID ) );
+        assertSame( snapshot, MavenConfigurationSnapshot.of( snapshot ) );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void repositoriesAreImmutable()
+        throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "org.ops4j.pax.url.mvn.repositories", "http://repo1@id=repo1" );
+        MavenConfigurationSnapshot snapshot = MavenConfigurationSnapshot.of(
+            new MavenConfigurationImpl( new PropertiesPropertyResolver( properties ), ServiceConstants.PID ) );
+        snapshot.getRepositories().clear();
+    }
+
+}
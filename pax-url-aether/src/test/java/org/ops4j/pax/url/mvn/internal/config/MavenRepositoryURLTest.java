@@ -58,4 +58,16 @@ public class MavenRepositoryURLTest
 
     }
 
+    @Test
+    public void testMaxConnections() throws MalformedURLException
+    {
+        MavenRepositoryURL mavenRepo = new MavenRepositoryURL( "http://nexus.local/content@id=nexus@maxConnections=64@snapshots" );
+        assertEquals( 64, mavenRepo.getMaxConnections() );
+        assertTrue( mavenRepo.isSnapshotsEnabled() );
+        assertEquals( new URL( "http://nexus.local/content/" ), mavenRepo.getURL() );
+
+        mavenRepo = new MavenRepositoryURL( "http://repo1.maven.org/maven2@id=central" );
+        assertEquals( 0, mavenRepo.getMaxConnections() );
+    }
+
 }
@@ -0,0 +1,81 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.config;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.maven.settings.Settings;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class SettingsCacheTest
+{
+
+    private File settingsFile;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        SettingsCache.clear();
+        settingsFile = new File( "target/settings-cache/settings.xml" );
+        settingsFile.getParentFile().mkdirs();
+        writeSettings( "/repo/one" );
+    }
+
+    @Test
+    public void settingsAreParsedOncePerFileVersion()
+        throws Exception
+    {
+        Settings s1 = newConfiguration().getSettings();
+        Settings s2 = newConfiguration().getSettings();
+        assertNotSame( s1, s2 );
+        assertEquals( "/repo/one", s1.getLocalRepository() );
+        assertEquals( "/repo/one", s2.getLocalRepository() );
+        // each configuration gets its own copy
+        assertEquals( s1.getProfiles().size(), s2.getProfiles().size() );
+        s1.setLocalRepository( "/changed" );
+        assertEquals( "/repo/one", newConfiguration().getSettings().getLocalRepository() );
+
+        writeSettings( "/repo/two-with-another-length" );
+        assertEquals( "/repo/two-with-another-length", newConfiguration().getSettings().getLocalRepository() );
+    }
+
+    private MavenConfigurationImpl newConfiguration()
+    {
+        Properties properties = new Properties();
+        properties.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_SETTINGS_FILE,
+                                settingsFile.getAbsolutePath() );
+        properties.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_USE_FALLBACK_REPOSITORIES,
+                                "false" );
+        return new MavenConfigurationImpl( new PropertiesPropertyResolver( properties ), ServiceConstants.PID );
+    }
+
+    private void writeSettings( String localRepository )
+        throws Exception
+    {
+        FileUtils.fileWrite( settingsFile, "<settings><localRepository>" + localRepository
+                                           + "</localRepository></settings>" );
+    }
+
+}
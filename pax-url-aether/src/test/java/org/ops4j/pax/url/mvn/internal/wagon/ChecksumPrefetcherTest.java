@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.wagon;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChecksumPrefetcherTest {
+
+    private ServerSocket server;
+    private CloseableHttpClient client;
+    private final List<String> requested = new CopyOnWriteArrayList<String>();
+    /**
+     * Released to answer requests of paths containing "slow"
+     */
+    private final CountDownLatch slow = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws Exception {
+        server = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                answer(socket);
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        client = HttpClientBuilder.create().build();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        slow.countDown();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void checksumOfArtifactIsPrefetched() throws Exception {
+        ChecksumPrefetcher prefetcher = new ChecksumPrefetcher(client, 1);
+        try {
+            prefetcher.prefetch(get("/org/test/1.0/test-1.0.jar"), HttpClientContext.create());
+            CloseableHttpResponse response = prefetcher.take(get("/org/test/1.0/test-1.0.jar.sha1"), 5000);
+            assertNotNull(response);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("/org/test/1.0/test-1.0.jar.sha1", EntityUtils.toString(response.getEntity()));
+            // taken once only
+            assertNull(prefetcher.take(get("/org/test/1.0/test-1.0.jar.sha1"), 5000));
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    @Test
+    public void checksumOfMetadataIsNotPrefetched() throws Exception {
+        ChecksumPrefetcher prefetcher = new ChecksumPrefetcher(client, 1);
+        try {
+            prefetcher.prefetch(get("/org/test/maven-metadata.xml"), HttpClientContext.create());
+            prefetcher.prefetch(get("/org/test/1.0/maven-metadata-central.xml"), HttpClientContext.create());
+            prefetcher.prefetch(get("/org/test/1.0/test-1.0.jar.sha1"), HttpClientContext.create());
+            assertNull(prefetcher.take(get("/org/test/maven-metadata.xml.sha1"), 0));
+            assertNull(prefetcher.take(get("/org/test/1.0/maven-metadata-central.xml.sha1"), 0));
+            assertNull(prefetcher.take(get("/org/test/1.0/test-1.0.jar.sha1.sha1"), 0));
+            assertTrue(requested.isEmpty());
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    @Test
+    public void evictedPrefetchesAreCancelled() throws Exception {
+        ChecksumPrefetcher prefetcher = new ChecksumPrefetcher(client, 1, 2);
+        try {
+            // the only thread waits for the first checksum, the next ones are queued
+            prefetcher.prefetch(get("/org/slow/1.0/slow-1.0.jar"), HttpClientContext.create());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (requested.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            prefetcher.prefetch(get("/org/test/1.0/test-1.0.jar"), HttpClientContext.create());
+            prefetcher.prefetch(get("/org/test/1.0/test-1.0.pom"), HttpClientContext.create());
+            prefetcher.prefetch(get("/org/test/1.0/test-1.0-sources.jar"), HttpClientContext.create());
+            slow.countDown();
+            assertNotNull(prefetcher.take(get("/org/test/1.0/test-1.0.pom.sha1"), 5000));
+            assertNotNull(prefetcher.take(get("/org/test/1.0/test-1.0-sources.jar.sha1"), 5000));
+            assertNull(prefetcher.take(get("/org/slow/1.0/slow-1.0.jar.sha1"), 0));
+            assertNull(prefetcher.take(get("/org/test/1.0/test-1.0.jar.sha1"), 0));
+            // the queued fetch was cancelled before it started
+            assertFalse(requested.contains("/org/test/1.0/test-1.0.jar.sha1"));
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    @Test
+    public void pendingChecksumIsNotAwaitedWithoutTimeout() throws Exception {
+        ChecksumPrefetcher prefetcher = new ChecksumPrefetcher(client, 1);
+        try {
+            prefetcher.prefetch(get("/org/slow/1.0/slow-1.0.jar"), HttpClientContext.create());
+            long start = System.currentTimeMillis();
+            // a read timeout of 0 must not block the resolver on a stalled prefetch
+            assertNull(prefetcher.take(get("/org/slow/1.0/slow-1.0.jar.sha1"), 0));
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            prefetcher.close();
+        }
+    }
+
+    private HttpGet get(String path) {
+        return new HttpGet("http://localhost:" + server.getLocalPort() + path);
+    }
+
+    /**
+     * Answers a request with its own path, then closes the connection
+     */
+    private void answer(Socket socket) {
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                String path = reader.readLine().split(" ")[1];
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                }
+                requested.add(path);
+                if (path.contains("slow")) {
+                    slow.await(10, TimeUnit.SECONDS);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: " + path.length() + "\r\n\r\n"
+                        + path).getBytes("ISO-8859-1"));
+                out.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+}
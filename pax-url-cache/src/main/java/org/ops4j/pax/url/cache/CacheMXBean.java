@@ -0,0 +1,104 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache;
+
+/**
+ * Statistics and management of the "cache:" protocol handler caches.
+ * <p>
+ * Registered as an OSGi service and in the platform MBean server, under {@link #OBJECT_NAME}. Values cover all the
+ * working directories in use since the handler started.
+ */
+public interface CacheMXBean
+{
+
+    /**
+     * JMX object name.
+     */
+    String OBJECT_NAME = "org.ops4j.pax.url:type=cache";
+
+    /**
+     * Returns the number of requests served from the cache (including entries revalidated with the source).
+     *
+     * @return number of hits
+     */
+    long getHits();
+
+    /**
+     * Returns the number of requests for which data was fetched from the source.
+     *
+     * @return number of misses
+     */
+    long getMisses();
+
+    /**
+     * Returns the ratio of hits to requests, 0 if there was no request.
+     *
+     * @return hit ratio
+     */
+    double getHitRatio();
+
+    /**
+     * Returns the number of bytes returned to requests.
+     *
+     * @return bytes served
+     */
+    long getBytesServed();
+
+    /**
+     * Returns the number of bytes fetched from sources.
+     *
+     * @return bytes fetched
+     */
+    long getBytesFetched();
+
+    /**
+     * Returns the number of cached urls.
+     *
+     * @return number of entries
+     */
+    int getEntryCount();
+
+    /**
+     * Returns the size (in bytes) of cached data on disk.
+     *
+     * @return disk usage
+     */
+    long getDiskUsage();
+
+    /**
+     * Removes the entries of urls matching a pattern, so they are fetched again on next request.
+     *
+     * @param urlPattern regular expression the whole cached url (without the "cache:" prefix) must match
+     *
+     * @return number of removed entries
+     */
+    int invalidate( String urlPattern );
+
+    /**
+     * Removes the entries fetched longer than the given time ago.
+     *
+     * @param maxAge maximum age (in milliseconds) of kept entries
+     *
+     * @return number of removed entries
+     */
+    int prune( long maxAge );
+
+    /**
+     * Resets hits, misses and byte counters.
+     */
+    void resetStatistics();
+
+}
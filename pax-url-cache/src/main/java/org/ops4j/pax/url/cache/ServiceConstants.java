@@ -45,4 +45,66 @@ public interface ServiceConstants
      */
     static final String DEFAULT_ROOT_DIRECTORY = "./cache";
 
+    /**
+     * Maximum total size (in bytes) of cached data. Least recently (or frequently) used entries are evicted when
+     * exceeded. Defaults to 0 (no limit).
+     */
+    static final String PROPERTY_MAX_SIZE = PID + ".maxSize";
+
+    /**
+     * Maximum number of cached entries. Defaults to 0 (no limit).
+     */
+    static final String PROPERTY_MAX_ENTRIES = PID + ".maxEntries";
+
+    /**
+     * Time (in milliseconds) after which a cached entry is fetched again from its source. Defaults to 0 (entries
+     * never expire).
+     */
+    static final String PROPERTY_TIME_TO_LIVE = PID + ".timeToLive";
+
+    /**
+     * Time (in milliseconds) after which a cached entry is revalidated against its source with a conditional
+     * request (<code>If-None-Match</code> / <code>If-Modified-Since</code>), fetched again only if it changed.
+     * Defaults to 0 (entries are never revalidated).
+     */
+    static final String PROPERTY_REVALIDATE_AFTER = PID + ".revalidateAfter";
+
+    /**
+     * Entries evicted first when the cache is full: "lru" (least recently used) or "lfu" (least frequently used).
+     * Defaults to "lru".
+     */
+    static final String PROPERTY_EVICTION_POLICY = PID + ".evictionPolicy";
+
+    /**
+     * Maximum total size (in bytes) of entries kept in memory, in front of the data files. Defaults to 0 (no
+     * memory tier).
+     */
+    static final String PROPERTY_MEMORY_MAX_SIZE = PID + ".memory.maxSize";
+
+    /**
+     * Maximum size (in bytes) of an entry kept in memory. Defaults to 65536.
+     */
+    static final String PROPERTY_MEMORY_MAX_ENTRY_SIZE = PID + ".memory.maxEntrySize";
+
+    /**
+     * If true, entries are kept in memory in direct (off-heap) buffers. Defaults to false.
+     */
+    static final String PROPERTY_MEMORY_DIRECT = PID + ".memory.direct";
+
+    /**
+     * If true, cached data that is not already compressed (such as descriptors) is stored deflated. Defaults to
+     * false.
+     */
+    static final String PROPERTY_COMPRESSION = PID + ".compression";
+
+    /**
+     * Least recently used eviction policy.
+     */
+    static final String EVICTION_LRU = "lru";
+
+    /**
+     * Least frequently used eviction policy.
+     */
+    static final String EVICTION_LFU = "lfu";
+
 }
\ No newline at end of file
@@ -18,13 +18,20 @@
 package org.ops4j.pax.url.cache.internal;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.net.URLConnection;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.ops4j.pax.url.cache.CacheMXBean;
 import org.ops4j.pax.url.cache.ServiceConstants;
 import org.ops4j.pax.url.commons.handler.ConnectionFactory;
 import org.ops4j.pax.url.commons.handler.HandlerActivator;
 import org.ops4j.util.property.PropertyResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Bundle activator for "cache:" protocol handler.
@@ -36,6 +43,17 @@ public final class Activator
     extends HandlerActivator<Configuration>
 {
 
+    private static final Logger LOG = LoggerFactory.getLogger( Activator.class );
+
+    /**
+     * Management service registration.
+     */
+    private ServiceRegistration m_managementReg;
+    /**
+     * Name of the management MBean, if registered.
+     */
+    private ObjectName m_objectName;
+
     /**
      * @see HandlerActivator#HandlerActivator(String[], String, ConnectionFactory)
      */
@@ -61,17 +79,75 @@ public final class Activator
                 }
 
                 /**
+                 * Also opens the store of the configured working directory, so that the management service reports
+                 * and manages its persisted entries before any "cache" url is opened.
+                 *
                  * @see ConnectionFactory#createConfiguration(PropertyResolver)
                  */
                 public Configuration createConfiguration( final PropertyResolver propertyResolver )
                 {
-                    return new ConfigurationImpl( propertyResolver );
+                    final Configuration configuration = new ConfigurationImpl( propertyResolver );
+                    CacheStore.getInstance( configuration );
+                    return configuration;
                 }
 
             }
         );
     }
 
+    /**
+     * Registers the cache management service, also as an MBean, once the store of the configured working directory
+     * is open.
+     *
+     * @see HandlerActivator#start(BundleContext)
+     */
+    @Override
+    public void start( final BundleContext bundleContext )
+    {
+        super.start( bundleContext );
+        final CacheManagement management = new CacheManagement();
+        m_managementReg = bundleContext.registerService( CacheMXBean.class.getName(), management, null );
+        try
+        {
+            final ObjectName objectName = new ObjectName( CacheMXBean.OBJECT_NAME );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( management, objectName );
+            m_objectName = objectName;
+        }
+        catch( JMException e )
+        {
+            LOG.warn( "Cannot register cache MBean: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Unregisters the cache management service and writes pending changes of cache indexes.
+     *
+     * @see HandlerActivator#stop(BundleContext)
+     */
+    @Override
+    public void stop( final BundleContext bundleContext )
+    {
+        if( m_objectName != null )
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( m_objectName );
+            }
+            catch( JMException e )
+            {
+                LOG.debug( "Cannot unregister cache MBean: " + e.getMessage() );
+            }
+            m_objectName = null;
+        }
+        if( m_managementReg != null )
+        {
+            m_managementReg.unregister();
+            m_managementReg = null;
+        }
+        super.stop( bundleContext );
+        CacheStore.closeAll();
+    }
+
     /**
      * Creates a "cache" url connection.
      *
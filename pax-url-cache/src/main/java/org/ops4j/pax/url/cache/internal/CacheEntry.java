@@ -0,0 +1,127 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Index record of a cached url.
+ *
+ * @see CacheStore
+ */
+class CacheEntry
+{
+
+    /**
+     * Cache name.
+     */
+    final String name;
+    /**
+     * Cached url.
+     */
+    final String url;
+    /**
+     * Time the data was fetched from the source.
+     */
+    long cachedOn;
+    /**
+     * Time of the last access.
+     */
+    long lastAccess;
+    /**
+     * Number of accesses.
+     */
+    long hits;
+    /**
+     * Size of the data file (compressed size if compressed).
+     */
+    long size;
+    /**
+     * Size of the data.
+     */
+    long length;
+    /**
+     * Hash of the data, which names the data file, or null for entries imported from meta files (data file named
+     * after the cache name).
+     */
+    String hash;
+    /**
+     * True if the data file is compressed.
+     */
+    boolean compressed;
+    /**
+     * Time the data was last known to match the source (fetched or revalidated).
+     */
+    long validatedOn;
+    /**
+     * Entity tag of the data, as sent by the source, or null.
+     */
+    String etag;
+    /**
+     * Last modification time of the data, as sent by the source, or 0 if unknown.
+     */
+    long lastModified;
+
+    CacheEntry( final String name, final String url )
+    {
+        this.name = name;
+        this.url = url;
+    }
+
+    void write( final DataOutput out )
+        throws IOException
+    {
+        out.writeUTF( name );
+        out.writeUTF( url );
+        out.writeLong( cachedOn );
+        out.writeLong( lastAccess );
+        out.writeLong( hits );
+        out.writeLong( size );
+        out.writeLong( validatedOn );
+        out.writeUTF( etag == null ? "" : etag );
+        out.writeLong( lastModified );
+        out.writeUTF( hash == null ? "" : hash );
+        out.writeBoolean( compressed );
+        out.writeLong( length );
+    }
+
+    /**
+     * Reads an entry written by {@link #write(DataOutput)}.
+     *
+     * @param in index data
+     */
+    static CacheEntry read( final DataInput in )
+        throws IOException
+    {
+        final CacheEntry entry = new CacheEntry( in.readUTF(), in.readUTF() );
+        entry.cachedOn = in.readLong();
+        entry.lastAccess = in.readLong();
+        entry.hits = in.readLong();
+        entry.size = in.readLong();
+        entry.validatedOn = in.readLong();
+        final String etag = in.readUTF();
+        entry.etag = etag.length() == 0 ? null : etag;
+        entry.lastModified = in.readLong();
+        final String hash = in.readUTF();
+        entry.hash = hash.length() == 0 ? null : hash;
+        entry.compressed = in.readBoolean();
+        entry.length = in.readLong();
+        return entry;
+    }
+
+}
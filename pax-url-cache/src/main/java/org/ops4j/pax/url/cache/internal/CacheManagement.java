@@ -0,0 +1,127 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.util.regex.Pattern;
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.url.cache.CacheMXBean;
+
+/**
+ * {@link CacheMXBean} over all the {@link CacheStore}s in use. The store of the configured working directory is
+ * opened by the activator, so its persisted entries are managed even before a "cache" url is opened.
+ */
+class CacheManagement
+    implements CacheMXBean
+{
+
+    public long getHits()
+    {
+        long hits = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            hits += store.getHits();
+        }
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        long misses = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            misses += store.getMisses();
+        }
+        return misses;
+    }
+
+    public double getHitRatio()
+    {
+        final long hits = getHits();
+        final long requests = hits + getMisses();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public long getBytesServed()
+    {
+        long bytes = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            bytes += store.getBytesServed();
+        }
+        return bytes;
+    }
+
+    public long getBytesFetched()
+    {
+        long bytes = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            bytes += store.getBytesFetched();
+        }
+        return bytes;
+    }
+
+    public int getEntryCount()
+    {
+        int count = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            count += store.size();
+        }
+        return count;
+    }
+
+    public long getDiskUsage()
+    {
+        long size = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            size += store.getTotalSize();
+        }
+        return size;
+    }
+
+    public int invalidate( final String urlPattern )
+    {
+        NullArgumentException.validateNotEmpty( urlPattern, "URL pattern" );
+        final Pattern pattern = Pattern.compile( urlPattern );
+        int count = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            count += store.invalidate( pattern );
+        }
+        return count;
+    }
+
+    public int prune( final long maxAge )
+    {
+        int count = 0;
+        for( CacheStore store : CacheStore.stores() )
+        {
+            count += store.prune( maxAge );
+        }
+        return count;
+    }
+
+    public void resetStatistics()
+    {
+        for( CacheStore store : CacheStore.stores() )
+        {
+            store.resetStatistics();
+        }
+    }
+
+}
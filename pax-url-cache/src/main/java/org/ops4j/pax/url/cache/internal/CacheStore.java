@@ -0,0 +1,1207 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.ops4j.io.StreamUtils;
+import org.ops4j.pax.url.cache.ServiceConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cached data of a working directory.
+ * <p>
+ * Cached urls are recorded in a single index file, loaded once and kept in memory, so that a cache hit is an
+ * index lookup. Entries expire after the configured time to live and are evicted (least recently or least
+ * frequently used first) when the configured maximum size or number of entries is exceeded.
+ * <p>
+ * Changes of the index (added or removed entries, access statistics) are written back in batches, at most once per
+ * save interval and when the store is closed, without holding the store lock. Data files left unreferenced by an
+ * index that wasn't written (the process died) are removed when the store is loaded again.
+ * <p>
+ * Data is fetched to a temporary file which is then moved over the data file, so readers never see partial
+ * content. Concurrent requests for the same url fetch it once: the first caller downloads, the others wait for it.
+ * Data is opened with the store locked, so that an entry evicted by a concurrent request is still served in full.
+ * <p>
+ * Optionally, small entries are also kept in memory (see {@link MemoryTier}), so that repeated requests don't
+ * touch the file system.
+ * <p>
+ * The <code>ETag</code> and <code>Last-Modified</code> validators sent by the source are recorded with each entry.
+ * Entries older than the configured revalidation age are checked with a conditional request, and fetched again
+ * only if the source changed. Sources without validators are fetched again. If the source cannot be reached, the
+ * cached data is served.
+ * <p>
+ * Data files are named after the SHA-256 hash of their content, so that identical data cached under several urls
+ * is stored once; a data file is removed with the last entry referring to it. Optionally, data that is not already
+ * compressed is stored deflated.
+ */
+public class CacheStore
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( CacheStore.class );
+
+    /**
+     * Index file name.
+     */
+    static final String INDEX_FILE = "cache.index";
+    /**
+     * Data file extension.
+     */
+    private static final String EXT_DATA = ".data";
+    /**
+     * Meta file extension (one properties file per entry, before the index was introduced).
+     */
+    private static final String EXT_META = ".meta";
+    /**
+     * Extension of files being written.
+     */
+    private static final String EXT_TMP = ".tmp";
+    /**
+     * Marks the index file format.
+     */
+    private static final int INDEX_MAGIC = 0x70637831;
+    private static final int INDEX_VERSION = 3;
+    /**
+     * Minimum time between writes of the index.
+     */
+    private static final long SAVE_INTERVAL = 30000;
+
+    /**
+     * Stores by (absolute) working directory.
+     */
+    private static final ConcurrentMap<File, CacheStore> STORES = new ConcurrentHashMap<File, CacheStore>();
+
+    private final File m_directory;
+    private final File m_indexFile;
+    /**
+     * Index entries by cache name. Guarded by this.
+     */
+    private final Map<String, CacheEntry> m_entries = new HashMap<String, CacheEntry>();
+    /**
+     * Data files by hash. Guarded by this.
+     */
+    private final Map<String, Blob> m_blobs = new HashMap<String, Blob>();
+    /**
+     * Total size of data files. Guarded by this.
+     */
+    private long m_size;
+    /**
+     * True if the in memory index differs from the index file. Written with the lock held.
+     */
+    private volatile boolean m_dirty;
+    private volatile long m_lastSave;
+    /**
+     * Serializes writes of the index file, which happen without holding the store lock.
+     */
+    private final ReentrantLock m_saveLock = new ReentrantLock();
+    /**
+     * Fetches in progress by cache name, so that concurrent requests of an url fetch it only once.
+     */
+    private final ConcurrentMap<String, Download> m_downloads = new ConcurrentHashMap<String, Download>();
+
+    /**
+     * Copies of small entries in memory.
+     */
+    private final MemoryTier m_memory = new MemoryTier();
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_bytesServed = new AtomicLong();
+    private final AtomicLong m_bytesFetched = new AtomicLong();
+
+    private volatile long m_maxSize;
+    private volatile int m_maxEntries;
+    private volatile long m_timeToLive;
+    private volatile long m_revalidateAfter;
+    private volatile boolean m_lfu;
+    private volatile boolean m_compression;
+
+    CacheStore( final File directory )
+    {
+        m_directory = directory;
+        m_indexFile = new File( directory, INDEX_FILE );
+        m_directory.mkdirs();
+        load();
+        flush();
+    }
+
+    /**
+     * Returns the store of the configured working directory.
+     *
+     * @param configuration cache configuration
+     *
+     * @return store, configured with the eviction settings of the configuration
+     */
+    public static CacheStore getInstance( final Configuration configuration )
+    {
+        final File directory = configuration.getWorkingDirectory().getAbsoluteFile();
+        CacheStore store = STORES.get( directory );
+        if( store == null )
+        {
+            synchronized( STORES )
+            {
+                store = STORES.get( directory );
+                if( store == null )
+                {
+                    store = new CacheStore( directory );
+                    STORES.put( directory, store );
+                }
+            }
+        }
+        store.configure( configuration );
+        return store;
+    }
+
+    /**
+     * Writes pending index changes of all stores and forgets them.
+     */
+    public static void closeAll()
+    {
+        synchronized( STORES )
+        {
+            for( CacheStore store : STORES.values() )
+            {
+                store.flush();
+            }
+            STORES.clear();
+        }
+    }
+
+    /**
+     * Returns the stores in use.
+     */
+    static Collection<CacheStore> stores()
+    {
+        return Collections.unmodifiableCollection( STORES.values() );
+    }
+
+    void configure( final Configuration configuration )
+    {
+        m_maxSize = configuration.getMaxSize();
+        m_maxEntries = configuration.getMaxEntries();
+        m_timeToLive = configuration.getTimeToLive();
+        m_revalidateAfter = configuration.getRevalidateAfter();
+        m_lfu = ServiceConstants.EVICTION_LFU.equals( configuration.getEvictionPolicy() );
+        m_compression = configuration.isCompression();
+        m_memory.configure(
+            configuration.getMemoryMaxSize(), configuration.getMemoryMaxEntrySize(), configuration.isMemoryDirect()
+        );
+    }
+
+    /**
+     * Opens the cached data of an url, fetching it from the source if not cached or expired, and revalidating it if
+     * older than the revalidation age.
+     *
+     * @param name   cache name
+     * @param source url to fetch data from
+     *
+     * @return cached data
+     *
+     * @throws IOException if data cannot be fetched
+     */
+    public InputStream open( final String name, final URL source )
+        throws IOException
+    {
+        try
+        {
+            return doOpen( name, source );
+        }
+        finally
+        {
+            saveIfDue();
+        }
+    }
+
+    private InputStream doOpen( final String name, final URL source )
+        throws IOException
+    {
+        final long now = System.currentTimeMillis();
+        CacheEntry hit = null;
+        InputStream data = null;
+        CacheEntry stale = null;
+        synchronized( this )
+        {
+            final CacheEntry entry = m_entries.get( name );
+            if( entry != null && !isExpired( entry, now ) && needsRevalidation( entry, now ) )
+            {
+                if( dataFile( entry ).exists() )
+                {
+                    stale = entry;
+                }
+            }
+            else if( entry != null && !isExpired( entry, now ) )
+            {
+                data = m_memory.get( name, entry.cachedOn );
+                if( data == null && dataFile( entry ).exists() )
+                {
+                    // opened with the lock held, so that the data file cannot be evicted before
+                    hit = entry;
+                    data = openData( entry );
+                }
+                if( data != null )
+                {
+                    entry.lastAccess = now;
+                    entry.hits++;
+                    m_dirty = true;
+                    served( entry, true );
+                    if( hit == null )
+                    {
+                        return data;
+                    }
+                }
+            }
+        }
+        if( hit != null )
+        {
+            if( m_memory.accepts( hit.length ) )
+            {
+                final ByteArrayOutputStream copy = new ByteArrayOutputStream( (int) hit.length );
+                StreamUtils.copyStream( data, copy, true );
+                return m_memory.put( name, hit.cachedOn, copy.toByteArray() );
+            }
+            return data;
+        }
+
+        final Download download = new Download();
+        final Download inProgress = m_downloads.putIfAbsent( name, download );
+        if( inProgress != null )
+        {
+            // somebody else is fetching the same url, use its result
+            inProgress.await();
+            synchronized( this )
+            {
+                final CacheEntry entry = m_entries.get( name );
+                if( entry != null && dataFile( entry ).exists() )
+                {
+                    entry.lastAccess = System.currentTimeMillis();
+                    entry.hits++;
+                    m_dirty = true;
+                    served( entry, true );
+                    return openData( entry );
+                }
+            }
+            return doOpen( name, source );
+        }
+        try
+        {
+            synchronized( this )
+            {
+                // fetched by another caller since the first lookup
+                final CacheEntry entry = m_entries.get( name );
+                if( entry != null && entry.validatedOn >= now && dataFile( entry ).exists() )
+                {
+                    entry.hits++;
+                    served( entry, true );
+                    return openData( entry );
+                }
+            }
+            Fetched fetched;
+            try
+            {
+                fetched = fetch( name, source, now, stale );
+            }
+            catch( IOException e )
+            {
+                synchronized( this )
+                {
+                    if( stale == null || !dataFile( stale ).exists() )
+                    {
+                        throw e;
+                    }
+                    fetched = new Fetched( stale, openData( stale ) );
+                }
+                LOG.warn( "Cannot revalidate " + source + " (" + e.getMessage() + "), using cached data" );
+            }
+            final CacheEntry entry = fetched.entry;
+            if( entry != stale )
+            {
+                m_misses.incrementAndGet();
+                m_bytesFetched.addAndGet( entry.length );
+            }
+            served( entry, entry == stale );
+            return fetched.data;
+        }
+        catch( IOException e )
+        {
+            download.failure = e;
+            throw e;
+        }
+        catch( RuntimeException e )
+        {
+            download.failure = new IOException( e );
+            throw e;
+        }
+        finally
+        {
+            m_downloads.remove( name, download );
+            download.done.countDown();
+        }
+    }
+
+    /**
+     * Fetches the source to a temporary file, then moves it to the data file named after its hash, unless that
+     * one already exists. The data file is therefore always complete.
+     *
+     * @param previous entry being revalidated, whose validators are sent along, or null
+     *
+     * @return entry of the fetched (or revalidated) data, with its data opened
+     */
+    private Fetched fetch( final String name, final URL source, final long now, final CacheEntry previous )
+        throws IOException
+    {
+        final URLConnection connection = source.openConnection();
+        if( previous != null )
+        {
+            if( previous.etag != null )
+            {
+                connection.setRequestProperty( "If-None-Match", previous.etag );
+            }
+            if( previous.lastModified > 0 )
+            {
+                connection.setIfModifiedSince( previous.lastModified );
+            }
+        }
+        final InputStream in = connection.getInputStream();
+        if( previous != null && isNotModified( connection, previous ) )
+        {
+            in.close();
+            LOG.debug( "Cached " + source + " is up to date" );
+            synchronized( this )
+            {
+                if( m_entries.get( name ) == previous )
+                {
+                    previous.validatedOn = now;
+                    previous.lastAccess = now;
+                    previous.hits++;
+                    m_dirty = true;
+                    return new Fetched( previous, openData( previous ) );
+                }
+            }
+            // evicted meanwhile
+            return fetch( name, source, now, null );
+        }
+
+        final MessageDigest digest = newDigest();
+        final File tmp = File.createTempFile( name + EXT_DATA + "-", EXT_TMP, m_directory );
+        File deflated = null;
+        try
+        {
+            StreamUtils.copyStream(
+                new DigestInputStream( in, digest ),
+                new BufferedOutputStream( new FileOutputStream( tmp ) ),
+                true
+            );
+            final String hash = toHex( digest.digest() );
+            final File dataFile = new File( m_directory, hash + EXT_DATA );
+            final long length = tmp.length();
+            File stored = tmp;
+            boolean compressed = false;
+            if( m_compression && !dataFile.exists() && isCompressible( tmp ) )
+            {
+                deflated = File.createTempFile( name + EXT_DATA + "-", EXT_TMP, m_directory );
+                deflate( tmp, deflated );
+                // not worth inflating on each read otherwise
+                if( deflated.length() < length - length / 10 )
+                {
+                    stored = deflated;
+                    compressed = true;
+                }
+            }
+
+            synchronized( this )
+            {
+                Blob blob = m_blobs.get( hash );
+                if( blob == null || !dataFile.exists() )
+                {
+                    move( stored, dataFile );
+                    if( blob == null )
+                    {
+                        blob = new Blob();
+                        m_blobs.put( hash, blob );
+                    }
+                    m_size += dataFile.length() - blob.size;
+                    blob.size = dataFile.length();
+                    blob.compressed = compressed;
+                }
+                else
+                {
+                    LOG.debug( "Data of " + source + " is already cached" );
+                }
+                blob.refs++;
+
+                final CacheEntry entry = new CacheEntry( name, source.toExternalForm() );
+                entry.cachedOn = now;
+                entry.lastAccess = now;
+                entry.hits = 1;
+                entry.size = blob.size;
+                entry.length = length;
+                entry.hash = hash;
+                entry.compressed = blob.compressed;
+                entry.validatedOn = now;
+                entry.etag = connection.getHeaderField( "ETag" );
+                entry.lastModified = connection.getLastModified();
+                m_memory.remove( name );
+                final CacheEntry replaced = m_entries.put( name, entry );
+                if( replaced != null )
+                {
+                    release( replaced );
+                }
+                evict( name );
+                m_dirty = true;
+                return new Fetched( entry, openData( entry ) );
+            }
+        }
+        finally
+        {
+            tmp.delete();
+            if( deflated != null )
+            {
+                deflated.delete();
+            }
+        }
+    }
+
+    private void served( final CacheEntry entry, final boolean hit )
+    {
+        if( hit )
+        {
+            m_hits.incrementAndGet();
+        }
+        m_bytesServed.addAndGet( entry.length );
+    }
+
+    /**
+     * Opens the data file of an entry.
+     */
+    private InputStream openData( final CacheEntry entry )
+        throws IOException
+    {
+        final InputStream in = new FileInputStream( dataFile( entry ) );
+        return new BufferedInputStream( entry.compressed ? new InflaterInputStream( in ) : in );
+    }
+
+    /**
+     * Returns the data file of an entry.
+     */
+    private File dataFile( final CacheEntry entry )
+    {
+        return new File( m_directory, entry.hash + EXT_DATA );
+    }
+
+    /**
+     * Returns the data file of a cached url, or null if not cached.
+     */
+    synchronized File getDataFile( final String name )
+    {
+        final CacheEntry entry = m_entries.get( name );
+        return entry == null ? null : dataFile( entry );
+    }
+
+    /**
+     * Moves a file, atomically if supported, replacing the target.
+     */
+    private static void move( final File from, final File to )
+        throws IOException
+    {
+        try
+        {
+            Files.move( from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( AtomicMoveNotSupportedException e )
+        {
+            Files.move( from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+
+    /**
+     * Returns false for data that is compressed already (zip or gzip).
+     */
+    private static boolean isCompressible( final File file )
+        throws IOException
+    {
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            final int b1 = in.read();
+            final int b2 = in.read();
+            return !( b1 == 'P' && b2 == 'K' ) && !( b1 == 0x1f && b2 == 0x8b );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void deflate( final File from, final File to )
+        throws IOException
+    {
+        final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+        try
+        {
+            StreamUtils.copyStream(
+                new FileInputStream( from ),
+                new DeflaterOutputStream( new BufferedOutputStream( new FileOutputStream( to ) ), deflater ),
+                true
+            );
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private static MessageDigest newDigest()
+        throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Cannot hash cached data (SHA-256 not supported)" );
+        }
+    }
+
+    private static String toHex( final byte[] digest )
+    {
+        return String.format( "%064x", new BigInteger( 1, digest ) );
+    }
+
+    private static String hash( final File file )
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while( ( count = in.read( buffer ) ) >= 0 )
+            {
+                digest.update( buffer, 0, count );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Data file shared by the entries of identical data.
+     */
+    private static class Blob
+    {
+
+        int refs;
+        long size;
+        boolean compressed;
+
+    }
+
+    /**
+     * Entry served by a fetch. Its data is opened with the lock held, before a concurrent fetch can evict it.
+     */
+    private static class Fetched
+    {
+
+        final CacheEntry entry;
+        final InputStream data;
+
+        Fetched( final CacheEntry entry, final InputStream data )
+        {
+            this.entry = entry;
+            this.data = data;
+        }
+
+    }
+
+    /**
+     * Fetch of an url in progress.
+     */
+    private static class Download
+    {
+
+        final CountDownLatch done = new CountDownLatch( 1 );
+        volatile IOException failure;
+
+        void await()
+            throws IOException
+        {
+            try
+            {
+                done.await();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while waiting for cached data" );
+            }
+            if( failure != null )
+            {
+                throw new IOException( failure.getMessage(), failure );
+            }
+        }
+
+    }
+
+    /**
+     * Returns true if the entry was fetched longer than the time to live ago.
+     */
+    private boolean isExpired( final CacheEntry entry, final long now )
+    {
+        final long ttl = m_timeToLive;
+        return ttl > 0 && now - entry.cachedOn >= ttl;
+    }
+
+    /**
+     * Returns true if the entry was validated longer than the revalidation age ago.
+     */
+    private boolean needsRevalidation( final CacheEntry entry, final long now )
+    {
+        final long maxAge = m_revalidateAfter;
+        return maxAge > 0 && now - entry.validatedOn >= maxAge;
+    }
+
+    /**
+     * Returns true if the response to a conditional request tells the cached data is still current. HTTP sources
+     * answer <code>304 Not Modified</code>; other sources are compared by the validators they expose, if any.
+     */
+    private static boolean isNotModified( final URLConnection connection, final CacheEntry previous )
+        throws IOException
+    {
+        if( connection instanceof HttpURLConnection )
+        {
+            return ( (HttpURLConnection) connection ).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+        final String etag = connection.getHeaderField( "ETag" );
+        if( etag != null && previous.etag != null )
+        {
+            return etag.equals( previous.etag );
+        }
+        return previous.lastModified > 0 && connection.getLastModified() == previous.lastModified;
+    }
+
+    /**
+     * Removes entries until the cache fits the configured limits.
+     *
+     * @param keep name of the entry being added, never evicted
+     */
+    private void evict( final String keep )
+    {
+        final long maxSize = m_maxSize;
+        final int maxEntries = m_maxEntries;
+        if( !( maxSize > 0 && m_size > maxSize ) && !( maxEntries > 0 && m_entries.size() > maxEntries ) )
+        {
+            return;
+        }
+        final List<CacheEntry> candidates = new ArrayList<CacheEntry>( m_entries.values() );
+        Collections.sort( candidates, m_lfu ? LFU : LRU );
+        for( CacheEntry candidate : candidates )
+        {
+            if( !( maxSize > 0 && m_size > maxSize ) && !( maxEntries > 0 && m_entries.size() > maxEntries ) )
+            {
+                break;
+            }
+            if( !candidate.name.equals( keep ) )
+            {
+                LOG.debug( "Evicting " + candidate.url + " from cache" );
+                remove( candidate );
+            }
+        }
+    }
+
+    private void remove( final CacheEntry entry )
+    {
+        m_memory.remove( entry.name );
+        m_entries.remove( entry.name );
+        release( entry );
+        m_dirty = true;
+    }
+
+    /**
+     * Drops the reference of an entry to its data file, removing the file if no other entry refers to it.
+     */
+    private void release( final CacheEntry entry )
+    {
+        final Blob blob = m_blobs.get( entry.hash );
+        if( blob != null && --blob.refs <= 0 )
+        {
+            m_blobs.remove( entry.hash );
+            m_size -= blob.size;
+            dataFile( entry ).delete();
+        }
+    }
+
+    /**
+     * Removes the entries of urls matching a pattern.
+     *
+     * @return number of removed entries
+     */
+    int invalidate( final Pattern urlPattern )
+    {
+        final List<CacheEntry> matching = new ArrayList<CacheEntry>();
+        synchronized( this )
+        {
+            for( CacheEntry entry : m_entries.values() )
+            {
+                if( urlPattern.matcher( entry.url ).matches() )
+                {
+                    matching.add( entry );
+                }
+            }
+            removeAll( matching );
+        }
+        flush();
+        return matching.size();
+    }
+
+    /**
+     * Removes the entries fetched longer than the given time ago.
+     *
+     * @return number of removed entries
+     */
+    int prune( final long maxAge )
+    {
+        final long now = System.currentTimeMillis();
+        final List<CacheEntry> old = new ArrayList<CacheEntry>();
+        synchronized( this )
+        {
+            for( CacheEntry entry : m_entries.values() )
+            {
+                if( now - entry.cachedOn > maxAge )
+                {
+                    old.add( entry );
+                }
+            }
+            removeAll( old );
+        }
+        flush();
+        return old.size();
+    }
+
+    private void removeAll( final List<CacheEntry> entries )
+    {
+        for( CacheEntry entry : entries )
+        {
+            LOG.debug( "Removing " + entry.url + " from cache" );
+            remove( entry );
+        }
+    }
+
+    long getHits()
+    {
+        return m_hits.get();
+    }
+
+    long getMisses()
+    {
+        return m_misses.get();
+    }
+
+    long getBytesServed()
+    {
+        return m_bytesServed.get();
+    }
+
+    long getBytesFetched()
+    {
+        return m_bytesFetched.get();
+    }
+
+    void resetStatistics()
+    {
+        m_hits.set( 0 );
+        m_misses.set( 0 );
+        m_bytesServed.set( 0 );
+        m_bytesFetched.set( 0 );
+    }
+
+    /**
+     * Writes pending changes of the index.
+     */
+    void flush()
+    {
+        m_saveLock.lock();
+        try
+        {
+            save();
+        }
+        finally
+        {
+            m_saveLock.unlock();
+        }
+    }
+
+    /**
+     * Writes pending changes of the index if it was last written longer than the save interval ago, unless another
+     * caller is writing it already.
+     */
+    private void saveIfDue()
+    {
+        if( m_dirty && System.currentTimeMillis() - m_lastSave > SAVE_INTERVAL && m_saveLock.tryLock() )
+        {
+            try
+            {
+                save();
+            }
+            finally
+            {
+                m_saveLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in memory.
+     */
+    int memorySize()
+    {
+        return m_memory.size();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     */
+    synchronized int size()
+    {
+        return m_entries.size();
+    }
+
+    /**
+     * Returns the total size of data files.
+     */
+    synchronized long getTotalSize()
+    {
+        return m_size;
+    }
+
+    /**
+     * Writes the index, if changed, to a temporary file and moves it over the index file. The index is serialized in
+     * memory with the store lock held, and written after releasing it. Called with the save lock held.
+     */
+    private void save()
+    {
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        synchronized( this )
+        {
+            if( !m_dirty )
+            {
+                return;
+            }
+            try
+            {
+                final DataOutputStream out = new DataOutputStream( index );
+                out.writeInt( INDEX_MAGIC );
+                out.writeInt( INDEX_VERSION );
+                out.writeInt( m_entries.size() );
+                for( CacheEntry entry : m_entries.values() )
+                {
+                    entry.write( out );
+                }
+                out.flush();
+            }
+            catch( IOException e )
+            {
+                // not thrown by in memory streams
+                throw new IllegalStateException( e );
+            }
+            m_dirty = false;
+            m_lastSave = System.currentTimeMillis();
+        }
+        final File tmp = new File( m_directory, INDEX_FILE + ".tmp" );
+        try
+        {
+            final OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                index.writeTo( out );
+            }
+            finally
+            {
+                out.close();
+            }
+            Files.move( tmp.toPath(), m_indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch( IOException e )
+        {
+            LOG.warn( "Cannot write cache index " + m_indexFile + ": " + e.getMessage() );
+            tmp.delete();
+            m_dirty = true;
+        }
+    }
+
+    /**
+     * Loads the index file. If there's none (or it can't be read, or is of another format version), entries are
+     * imported from the meta files written by previous versions, and their data files are renamed after their hash.
+     * Data files not referenced by any entry are removed: the index may not have been written since they were
+     * fetched.
+     */
+    private synchronized void load()
+    {
+        boolean current = false;
+        // files left over by interrupted fetches
+        final File[] tmpFiles = m_directory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( final File dir, final String name )
+            {
+                return name.endsWith( EXT_TMP );
+            }
+        }
+        );
+        if( tmpFiles != null )
+        {
+            for( File tmpFile : tmpFiles )
+            {
+                tmpFile.delete();
+            }
+        }
+        if( m_indexFile.isFile() )
+        {
+            try
+            {
+                final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream( new FileInputStream( m_indexFile ) )
+                );
+                try
+                {
+                    if( in.readInt() != INDEX_MAGIC )
+                    {
+                        throw new IOException( "unsupported format" );
+                    }
+                    final int version = in.readInt();
+                    if( version != INDEX_VERSION )
+                    {
+                        throw new IOException( "unsupported version " + version );
+                    }
+                    final int count = in.readInt();
+                    for( int i = 0; i < count; i++ )
+                    {
+                        adopt( CacheEntry.read( in ) );
+                    }
+                    current = true;
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch( IOException e )
+            {
+                LOG.warn( "Cannot read cache index " + m_indexFile + " (" + e.getMessage() + "), rebuilding it" );
+                m_entries.clear();
+                m_blobs.clear();
+                m_size = 0;
+            }
+        }
+        if( !current )
+        {
+            importMetaFiles();
+            m_dirty = true;
+        }
+        m_lastSave = System.currentTimeMillis();
+        final File[] dataFiles = m_directory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( final File dir, final String name )
+            {
+                return name.endsWith( EXT_DATA );
+            }
+        }
+        );
+        if( dataFiles != null )
+        {
+            for( File dataFile : dataFiles )
+            {
+                final String hash = dataFile.getName().substring( 0, dataFile.getName().length() - EXT_DATA.length() );
+                if( !m_blobs.containsKey( hash ) )
+                {
+                    dataFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes an entry read from disk. The data file of an entry imported from a meta file (named after the entry) is
+     * renamed after its hash.
+     */
+    private void adopt( final CacheEntry entry )
+    {
+        if( entry.hash == null )
+        {
+            final File legacy = new File( m_directory, entry.name + EXT_DATA );
+            if( !legacy.isFile() )
+            {
+                return;
+            }
+            try
+            {
+                entry.hash = hash( legacy );
+                entry.compressed = false;
+                entry.length = legacy.length();
+                final File dataFile = dataFile( entry );
+                if( dataFile.exists() )
+                {
+                    legacy.delete();
+                }
+                else
+                {
+                    move( legacy, dataFile );
+                }
+            }
+            catch( IOException e )
+            {
+                LOG.debug( "Cannot import " + legacy + ": " + e.getMessage() );
+                return;
+            }
+        }
+        final File dataFile = dataFile( entry );
+        if( !dataFile.isFile() )
+        {
+            return;
+        }
+        Blob blob = m_blobs.get( entry.hash );
+        if( blob == null )
+        {
+            blob = new Blob();
+            blob.size = dataFile.length();
+            blob.compressed = entry.compressed;
+            m_blobs.put( entry.hash, blob );
+            m_size += blob.size;
+        }
+        blob.refs++;
+        entry.size = blob.size;
+        m_entries.put( entry.name, entry );
+    }
+
+    private void importMetaFiles()
+    {
+        final File[] metaFiles = m_directory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( final File dir, final String name )
+            {
+                return name.endsWith( EXT_META );
+            }
+        }
+        );
+        if( metaFiles == null )
+        {
+            return;
+        }
+        for( File metaFile : metaFiles )
+        {
+            final String name = metaFile.getName().substring( 0, metaFile.getName().length() - EXT_META.length() );
+            final File dataFile = new File( m_directory, name + EXT_DATA );
+            final Properties meta = new Properties();
+            try
+            {
+                final InputStream in = new FileInputStream( metaFile );
+                try
+                {
+                    meta.load( in );
+                }
+                finally
+                {
+                    in.close();
+                }
+                final String cachedOn = meta.getProperty( "cachedOn" );
+                if( dataFile.isFile() && cachedOn != null )
+                {
+                    final CacheEntry entry = new CacheEntry( name, meta.getProperty( "url", "" ) );
+                    entry.cachedOn = Long.parseLong( cachedOn );
+                    entry.validatedOn = entry.cachedOn;
+                    entry.lastAccess = dataFile.lastModified();
+                    adopt( entry );
+                }
+            }
+            catch( IOException e )
+            {
+                LOG.debug( "Cannot import " + metaFile + ": " + e.getMessage() );
+            }
+            catch( NumberFormatException e )
+            {
+                LOG.debug( "Cannot import " + metaFile + ": " + e.getMessage() );
+            }
+            metaFile.delete();
+        }
+    }
+
+    /**
+     * Least recently used first.
+     */
+    private static final Comparator<CacheEntry> LRU = new Comparator<CacheEntry>()
+    {
+        public int compare( final CacheEntry e1, final CacheEntry e2 )
+        {
+            return Long.compare( e1.lastAccess, e2.lastAccess );
+        }
+    };
+
+    /**
+     * Least frequently used first, then least recently used.
+     */
+    private static final Comparator<CacheEntry> LFU = new Comparator<CacheEntry>()
+    {
+        public int compare( final CacheEntry e1, final CacheEntry e2 )
+        {
+            final int result = Long.compare( e1.hits, e2.hits );
+            return result != 0 ? result : Long.compare( e1.lastAccess, e2.lastAccess );
+        }
+    };
+
+}
@@ -36,4 +36,69 @@ public interface Configuration
      */
     File getWorkingDirectory();
 
+    /**
+     * Returns the maximum total size (in bytes) of cached data, 0 for no limit.
+     *
+     * @return maximum cache size
+     */
+    long getMaxSize();
+
+    /**
+     * Returns the maximum number of cached entries, 0 for no limit.
+     *
+     * @return maximum number of entries
+     */
+    int getMaxEntries();
+
+    /**
+     * Returns the time (in milliseconds) after which cached entries expire, 0 if they never expire.
+     *
+     * @return time to live of entries
+     */
+    long getTimeToLive();
+
+    /**
+     * Returns the time (in milliseconds) after which entries are revalidated against their source, 0 to never
+     * revalidate.
+     *
+     * @return maximum age of entries before revalidation
+     */
+    long getRevalidateAfter();
+
+    /**
+     * Returns the eviction policy, {@link org.ops4j.pax.url.cache.ServiceConstants#EVICTION_LRU} or
+     * {@link org.ops4j.pax.url.cache.ServiceConstants#EVICTION_LFU}.
+     *
+     * @return eviction policy
+     */
+    String getEvictionPolicy();
+
+    /**
+     * Returns the maximum total size (in bytes) of entries kept in memory, 0 to disable the memory tier.
+     *
+     * @return maximum memory size
+     */
+    long getMemoryMaxSize();
+
+    /**
+     * Returns the maximum size (in bytes) of an entry kept in memory. Defaults to 65536.
+     *
+     * @return maximum size of an entry in memory
+     */
+    long getMemoryMaxEntrySize();
+
+    /**
+     * Returns true if entries are kept in direct (off-heap) buffers.
+     *
+     * @return true for off-heap memory tier
+     */
+    boolean isMemoryDirect();
+
+    /**
+     * Returns true if compressible data is stored compressed.
+     *
+     * @return true to compress stored data
+     */
+    boolean isCompression();
+
 }
\ No newline at end of file
@@ -68,4 +68,128 @@ public class ConfigurationImpl
         }
         return get( ServiceConstants.PROPERTY_WORKING_DIRECTORY );
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxSize()
+    {
+        return getLong( ServiceConstants.PROPERTY_MAX_SIZE, 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxEntries()
+    {
+        return (int) getLong( ServiceConstants.PROPERTY_MAX_ENTRIES, 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTimeToLive()
+    {
+        return getLong( ServiceConstants.PROPERTY_TIME_TO_LIVE, 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRevalidateAfter()
+    {
+        return getLong( ServiceConstants.PROPERTY_REVALIDATE_AFTER, 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getEvictionPolicy()
+    {
+        if( !contains( ServiceConstants.PROPERTY_EVICTION_POLICY ) )
+        {
+            String policy = m_propertyResolver.get( ServiceConstants.PROPERTY_EVICTION_POLICY );
+            if( !ServiceConstants.EVICTION_LFU.equalsIgnoreCase( policy ) )
+            {
+                policy = ServiceConstants.EVICTION_LRU;
+            }
+            return set( ServiceConstants.PROPERTY_EVICTION_POLICY, policy.toLowerCase() );
+        }
+        return get( ServiceConstants.PROPERTY_EVICTION_POLICY );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemoryMaxSize()
+    {
+        return getLong( ServiceConstants.PROPERTY_MEMORY_MAX_SIZE, 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemoryMaxEntrySize()
+    {
+        return getLong( ServiceConstants.PROPERTY_MEMORY_MAX_ENTRY_SIZE, 65536 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isMemoryDirect()
+    {
+        if( !contains( ServiceConstants.PROPERTY_MEMORY_DIRECT ) )
+        {
+            return set( ServiceConstants.PROPERTY_MEMORY_DIRECT,
+                        Boolean.valueOf( m_propertyResolver.get( ServiceConstants.PROPERTY_MEMORY_DIRECT ) )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_MEMORY_DIRECT );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isCompression()
+    {
+        if( !contains( ServiceConstants.PROPERTY_COMPRESSION ) )
+        {
+            return set( ServiceConstants.PROPERTY_COMPRESSION,
+                        Boolean.valueOf( m_propertyResolver.get( ServiceConstants.PROPERTY_COMPRESSION ) )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_COMPRESSION );
+    }
+
+    /**
+     * Resolves a numeric property, memoizing the value.
+     *
+     * @param property     property name
+     * @param defaultValue value used if the property is not set or is not a number
+     *
+     * @return property value
+     */
+    private long getLong( final String property, final long defaultValue )
+    {
+        if( !contains( property ) )
+        {
+            long value = defaultValue;
+            final String text = m_propertyResolver.get( property );
+            if( text != null )
+            {
+                try
+                {
+                    value = Long.parseLong( text.trim() );
+                }
+                catch( NumberFormatException ignore )
+                {
+                    // use default
+                }
+            }
+            return set( property, value );
+        }
+        final Long value = get( property );
+        return value;
+    }
 }
\ No newline at end of file
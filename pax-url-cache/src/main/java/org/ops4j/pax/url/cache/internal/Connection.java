@@ -17,23 +17,14 @@
  */
 package org.ops4j.pax.url.cache.internal;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Properties;
-import org.ops4j.io.StreamUtils;
 import org.ops4j.lang.NullArgumentException;
 
 /**
@@ -58,23 +49,6 @@ public class Connection
      * Name corresponding to url (base64 encoding).
      */
     private final String m_cacheName;
-    /**
-     * Url property name.
-     */
-    private static final String META_URL = "url";
-    /**
-     * Cached time property name.
-     */
-    private static final String META_CACHED_ON = "cachedOn";
-    /**
-     * Meta file extension.
-     */
-    private static final String EXT_META = ".meta";
-    /**
-     * Data file extension.
-     */
-    private static final String EXT_DATA = ".data";
-
     /**
      * Creates a new connection.
      *
@@ -150,56 +124,7 @@ public class Connection
         throws IOException
     {
         connect();
-        final File workingDir = m_configuration.getWorkingDirectory();
-        workingDir.mkdirs();
-        final File cacheMetaFile = new File( workingDir, m_cacheName + EXT_META );
-        final File cacheDateFile = new File( workingDir, m_cacheName + EXT_DATA );
-
-        final Properties cacheMeta = new Properties();
-        try
-        {
-            InputStream in = new FileInputStream( cacheMetaFile );
-            try
-            {
-                cacheMeta.load( in );
-            }
-            finally
-            {
-                in.close();
-            }
-        }
-        catch( FileNotFoundException ignore )
-        {
-            //ignore 
-        }
-
-        final String cacheUrl = cacheMeta.getProperty( META_URL );
-        if( cacheUrl == null )
-        {
-            cacheMeta.setProperty( META_URL, url.getPath() );
-        }
-
-        final String cacheTime = cacheMeta.getProperty( META_CACHED_ON );
-        if( cacheTime == null || !cacheDateFile.exists() )
-        {
-            StreamUtils.copyStream(
-                m_parser.getUrl().openStream(),
-                new BufferedOutputStream( new FileOutputStream( cacheDateFile ) ),
-                true
-            );
-            cacheMeta.setProperty( META_CACHED_ON, String.valueOf( System.currentTimeMillis() ) );
-        }
-
-        OutputStream out = new FileOutputStream( cacheMetaFile );
-        try
-        {
-            cacheMeta.store( out, null );
-        }
-        finally
-        {
-            out.close();
-        }
-        return new BufferedInputStream( new FileInputStream( cacheDateFile ) );
+        return CacheStore.getInstance( m_configuration ).open( m_cacheName, m_parser.getUrl() );
     }
 }
 
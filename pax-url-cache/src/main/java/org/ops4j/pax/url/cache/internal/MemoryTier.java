@@ -0,0 +1,204 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least recently used, in memory copy of small cached entries, in front of the data files.
+ * <p>
+ * Data is kept in heap or direct (off-heap) buffers. Each item is tagged with the time its entry was fetched,
+ * so that data of a re-fetched entry is never served.
+ */
+class MemoryTier
+{
+
+    /**
+     * Items by cache name, in access order. Guarded by this.
+     */
+    private final LinkedHashMap<String, Item> m_items = new LinkedHashMap<String, Item>( 16, 0.75f, true );
+    private long m_size;
+
+    private long m_maxSize;
+    private long m_maxEntrySize;
+    private boolean m_direct;
+
+    synchronized void configure( final long maxSize, final long maxEntrySize, final boolean direct )
+    {
+        if( direct != m_direct )
+        {
+            clear();
+        }
+        m_maxSize = maxSize;
+        m_maxEntrySize = maxEntrySize;
+        m_direct = direct;
+        trim();
+    }
+
+    /**
+     * Returns true if data of given size should be kept in memory.
+     */
+    synchronized boolean accepts( final long size )
+    {
+        return m_maxSize > 0 && size <= m_maxEntrySize && size <= m_maxSize;
+    }
+
+    /**
+     * Returns a stream over the data of an entry, or null if not in memory (or fetched at another time).
+     */
+    synchronized InputStream get( final String name, final long version )
+    {
+        final Item item = m_items.get( name );
+        if( item == null )
+        {
+            return null;
+        }
+        if( item.version != version )
+        {
+            remove( name );
+            return null;
+        }
+        return new ByteBufferInputStream( item.buffer.duplicate() );
+    }
+
+    /**
+     * Keeps data of an entry in memory.
+     *
+     * @return stream over the data
+     */
+    synchronized InputStream put( final String name, final long version, final byte[] data )
+    {
+        remove( name );
+        final ByteBuffer buffer;
+        if( m_direct )
+        {
+            buffer = ByteBuffer.allocateDirect( data.length );
+            buffer.put( data ).flip();
+        }
+        else
+        {
+            buffer = ByteBuffer.wrap( data );
+        }
+        m_items.put( name, new Item( buffer, version ) );
+        m_size += data.length;
+        trim();
+        return new ByteBufferInputStream( buffer.duplicate() );
+    }
+
+    synchronized void remove( final String name )
+    {
+        final Item item = m_items.remove( name );
+        if( item != null )
+        {
+            m_size -= item.buffer.capacity();
+        }
+    }
+
+    synchronized void clear()
+    {
+        m_items.clear();
+        m_size = 0;
+    }
+
+    synchronized int size()
+    {
+        return m_items.size();
+    }
+
+    /**
+     * Evicts least recently used items until the limit is satisfied.
+     */
+    private void trim()
+    {
+        final Iterator<Map.Entry<String, Item>> it = m_items.entrySet().iterator();
+        while( m_size > m_maxSize && it.hasNext() )
+        {
+            m_size -= it.next().getValue().buffer.capacity();
+            it.remove();
+        }
+    }
+
+    private static class Item
+    {
+
+        final ByteBuffer buffer;
+        final long version;
+
+        Item( final ByteBuffer buffer, final long version )
+        {
+            this.buffer = buffer;
+            this.version = version;
+        }
+
+    }
+
+    /**
+     * Stream over a (private duplicate of a) buffer.
+     */
+    private static class ByteBufferInputStream
+        extends InputStream
+    {
+
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream( final ByteBuffer buffer )
+        {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read( final byte[] b, final int off, final int len )
+        {
+            if( len == 0 )
+            {
+                return 0;
+            }
+            if( !m_buffer.hasRemaining() )
+            {
+                return -1;
+            }
+            final int count = Math.min( len, m_buffer.remaining() );
+            m_buffer.get( b, off, count );
+            return count;
+        }
+
+        @Override
+        public long skip( final long n )
+        {
+            final int count = (int) Math.max( 0, Math.min( n, m_buffer.remaining() ) );
+            m_buffer.position( m_buffer.position() + count );
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return m_buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,532 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.io.FileUtils;
+import org.ops4j.io.StreamUtils;
+import org.ops4j.pax.url.cache.CacheMXBean;
+import org.ops4j.pax.url.cache.ServiceConstants;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CacheStore}.
+ */
+public class CacheStoreTest
+{
+
+    private File m_dir;
+    private File m_sources;
+
+    @Before
+    public void setUp()
+    {
+        CacheStore.closeAll();
+        m_dir = new File( "target/cache-store/cache" );
+        m_sources = new File( "target/cache-store/sources" );
+        FileUtils.delete( m_dir.getParentFile() );
+        m_sources.mkdirs();
+    }
+
+    @After
+    public void tearDown()
+    {
+        CacheStore.closeAll();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+        throws Exception
+    {
+        final Properties properties = properties();
+        properties.setProperty( ServiceConstants.PROPERTY_MAX_ENTRIES, "2" );
+        final CacheStore store = CacheStore.getInstance( new ConfigurationImpl( new PropertiesPropertyResolver( properties ) ) );
+
+        assertEquals( "a", read( store.open( "a", source( "a", "a" ) ) ) );
+        Thread.sleep( 5 );
+        assertEquals( "b", read( store.open( "b", source( "b", "b" ) ) ) );
+        Thread.sleep( 5 );
+        // a is now more recently used than b
+        assertEquals( "a", read( store.open( "a", source( "a", "changed" ) ) ) );
+        Thread.sleep( 5 );
+        assertEquals( "c", read( store.open( "c", source( "c", "c" ) ) ) );
+
+        assertEquals( 2, store.size() );
+        assertTrue( store.getDataFile( "a" ).exists() );
+        assertNull( store.getDataFile( "b" ) );
+        assertEquals( 2, store.getTotalSize() );
+    }
+
+    @Test
+    public void expiredEntriesAreFetchedAgain()
+        throws Exception
+    {
+        final Properties properties = properties();
+        properties.setProperty( ServiceConstants.PROPERTY_TIME_TO_LIVE, "50" );
+        final CacheStore store = CacheStore.getInstance( new ConfigurationImpl( new PropertiesPropertyResolver( properties ) ) );
+
+        assertEquals( "1", read( store.open( "a", source( "a", "1" ) ) ) );
+        assertEquals( "1", read( store.open( "a", source( "a", "2" ) ) ) );
+        Thread.sleep( 100 );
+        assertEquals( "2", read( store.open( "a", source( "a", "2" ) ) ) );
+    }
+
+    @Test
+    public void indexSurvivesRestartAndImportsMetaFiles()
+        throws Exception
+    {
+        m_dir.mkdirs();
+        write( new File( m_dir, "legacy.data" ), "legacy" );
+        write( new File( m_dir, "legacy.meta" ), "url=file:legacy\ncachedOn=1\n" );
+        write( new File( m_dir, "orphan.data" ), "orphan" );
+
+        final ConfigurationImpl configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties() ) );
+        CacheStore store = CacheStore.getInstance( configuration );
+        assertEquals( 1, store.size() );
+        assertFalse( new File( m_dir, "legacy.meta" ).exists() );
+        assertFalse( new File( m_dir, "orphan.data" ).exists() );
+        assertEquals( "legacy", read( store.open( "legacy", source( "legacy", "new" ) ) ) );
+        read( store.open( "a", source( "a", "a" ) ) );
+
+        CacheStore.closeAll();
+        store = CacheStore.getInstance( configuration );
+        assertEquals( 2, store.size() );
+        assertEquals( "a", read( store.open( "a", source( "a", "changed" ) ) ) );
+    }
+
+    @Test
+    public void indexIsWrittenInBatches()
+        throws Exception
+    {
+        final ConfigurationImpl configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties() ) );
+        CacheStore store = CacheStore.getInstance( configuration );
+        final File index = new File( m_dir, CacheStore.INDEX_FILE );
+        final long empty = index.length();
+        read( store.open( "a", source( "a", "a" ) ) );
+        read( store.open( "b", source( "b", "b" ) ) );
+        assertEquals( empty, index.length() );
+
+        // written when closed
+        CacheStore.closeAll();
+        final long written = index.length();
+        assertTrue( written > empty );
+        store = CacheStore.getInstance( configuration );
+        assertEquals( 2, store.size() );
+
+        // not written yet, as if the process died: data files not in the index are dropped
+        read( store.open( "c", source( "c", "c" ) ) );
+        assertEquals( written, index.length() );
+        assertEquals( 2, new CacheStore( m_dir.getAbsoluteFile() ).size() );
+        assertEquals( 3, m_dir.list().length );
+    }
+
+    @Test
+    public void indexOfAnotherVersionIsRebuilt()
+        throws Exception
+    {
+        final ConfigurationImpl configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties() ) );
+        read( CacheStore.getInstance( configuration ).open( "a", source( "a", "a" ) ) );
+        CacheStore.closeAll();
+        final RandomAccessFile index = new RandomAccessFile( new File( m_dir, CacheStore.INDEX_FILE ), "rw" );
+        try
+        {
+            // the version follows the magic number
+            index.seek( 4 );
+            index.writeInt( 2 );
+        }
+        finally
+        {
+            index.close();
+        }
+
+        assertEquals( 0, CacheStore.getInstance( configuration ).size() );
+        assertEquals( 1, m_dir.list().length );
+    }
+
+    @Test
+    public void concurrentRequestsFetchOnce()
+        throws Exception
+    {
+        final CacheStore store = CacheStore.getInstance( new ConfigurationImpl( new PropertiesPropertyResolver( properties() ) ) );
+        final File file = new File( m_sources, "slow" );
+        write( file, "slow" );
+        final AtomicInteger fetches = new AtomicInteger();
+        final URL source = new URL( null, "slow:data", new URLStreamHandler()
+        {
+            @Override
+            protected URLConnection openConnection( final URL u )
+                throws IOException
+            {
+                fetches.incrementAndGet();
+                try
+                {
+                    Thread.sleep( 200 );
+                }
+                catch( InterruptedException e )
+                {
+                    throw new IOException( e );
+                }
+                return file.toURI().toURL().openConnection();
+            }
+        }
+        );
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final List<Future<String>> results = new ArrayList<Future<String>>();
+            for( int i = 0; i < 4; i++ )
+            {
+                results.add( executor.submit( new Callable<String>()
+                {
+                    public String call()
+                        throws Exception
+                    {
+                        return read( store.open( "slow", source ) );
+                    }
+                }
+                ) );
+            }
+            for( Future<String> result : results )
+            {
+                assertEquals( "slow", result.get() );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals( 1, fetches.get() );
+        // no temporary file left
+        assertEquals( 2, m_dir.list().length );
+    }
+
+    @Test
+    public void hitsAreServedWhileEvicted()
+        throws Exception
+    {
+        final Properties properties = properties();
+        properties.setProperty( ServiceConstants.PROPERTY_MAX_ENTRIES, "1" );
+        final CacheStore store = CacheStore.getInstance( new ConfigurationImpl( new PropertiesPropertyResolver( properties ) ) );
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final List<Future<String>> results = new ArrayList<Future<String>>();
+            for( int i = 0; i < 4; i++ )
+            {
+                // each fetch of a name evicts the others, which are being served concurrently
+                final String name = "entry" + i;
+                final URL source = source( name, name );
+                results.add( executor.submit( new Callable<String>()
+                {
+                    public String call()
+                        throws Exception
+                    {
+                        for( int j = 0; j < 200; j++ )
+                        {
+                            final String content = read( store.open( name, source ) );
+                            if( !name.equals( content ) )
+                            {
+                                return content;
+                            }
+                        }
+                        return name;
+                    }
+                }
+                ) );
+            }
+            for( int i = 0; i < 4; i++ )
+            {
+                assertEquals( "entry" + i, results.get( i ).get() );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals( 1, store.size() );
+    }
+
+    @Test
+    public void smallEntriesAreServedFromMemory()
+        throws Exception
+    {
+        final Properties properties = properties();
+        properties.setProperty( ServiceConstants.PROPERTY_MEMORY_MAX_SIZE, "10" );
+        properties.setProperty( ServiceConstants.PROPERTY_MEMORY_MAX_ENTRY_SIZE, "5" );
+        properties.setProperty( ServiceConstants.PROPERTY_MEMORY_DIRECT, "true" );
+        final CacheStore store = CacheStore.getInstance( new ConfigurationImpl( new PropertiesPropertyResolver( properties ) ) );
+
+        assertEquals( "small", read( store.open( "small", source( "small", "small" ) ) ) );
+        assertEquals( "too large", read( store.open( "large", source( "large", "too large" ) ) ) );
+        // loaded into memory on first hit
+        assertEquals( "small", read( store.open( "small", source( "small", "small" ) ) ) );
+        assertEquals( "too large", read( store.open( "large", source( "large", "too large" ) ) ) );
+        assertEquals( 1, store.memorySize() );
+
+        store.getDataFile( "small" ).delete();
+        assertEquals( "small", read( store.open( "small", source( "small", "changed" ) ) ) );
+    }
+
+    @Test
+    public void identicalDataIsStoredOnceCompressed()
+        throws Exception
+    {
+        final Properties properties = properties();
+        properties.setProperty( ServiceConstants.PROPERTY_COMPRESSION, "true" );
+        properties.setProperty( ServiceConstants.PROPERTY_MAX_ENTRIES, "2" );
+        final ConfigurationImpl configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties ) );
+        CacheStore store = CacheStore.getInstance( configuration );
+        final StringBuilder xml = new StringBuilder( "<features>" );
+        for( int i = 0; i < 100; i++ )
+        {
+            xml.append( "<feature name=\"f" ).append( i ).append( "\"/>" );
+        }
+        final String content = xml.append( "</features>" ).toString();
+
+        assertEquals( content, read( store.open( "a", source( "a", content ) ) ) );
+        assertEquals( content, read( store.open( "b", source( "b", content ) ) ) );
+        assertEquals( store.getDataFile( "a" ), store.getDataFile( "b" ) );
+        assertTrue( store.getTotalSize() < content.length() / 2 );
+
+        // data is kept while referenced
+        assertEquals( "c", read( store.open( "c", source( "c", "c" ) ) ) );
+        assertNull( store.getDataFile( "a" ) );
+        assertTrue( store.getDataFile( "b" ).exists() );
+
+        CacheStore.closeAll();
+        store = CacheStore.getInstance( configuration );
+        assertEquals( content, read( store.open( "b", source( "b", "changed" ) ) ) );
+        // index and two data files
+        assertEquals( 3, m_dir.list().length );
+    }
+
+    @Test
+    public void entriesAreRevalidatedWithConditionalRequests()
+        throws Exception
+    {
+        final Properties properties = properties();
+        properties.setProperty( ServiceConstants.PROPERTY_REVALIDATE_AFTER, "1" );
+        final ConfigurationImpl configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties ) );
+        CacheStore store = CacheStore.getInstance( configuration );
+        final HttpSource source = new HttpSource();
+
+        source.set( "1", "\"v1\"" );
+        assertEquals( "1", read( store.open( "a", source.url ) ) );
+        assertEquals( 1, source.transfers.get() );
+
+        // validators survive a restart
+        CacheStore.closeAll();
+        store = CacheStore.getInstance( configuration );
+        Thread.sleep( 5 );
+        assertEquals( "1", read( store.open( "a", source.url ) ) );
+        assertEquals( "\"v1\"", source.ifNoneMatch );
+        assertEquals( 1, source.transfers.get() );
+
+        source.set( "2", "\"v2\"" );
+        Thread.sleep( 5 );
+        assertEquals( "2", read( store.open( "a", source.url ) ) );
+        assertEquals( 2, source.transfers.get() );
+
+        // unreachable source, cached data is served
+        source.set( null, null );
+        Thread.sleep( 5 );
+        assertEquals( "2", read( store.open( "a", source.url ) ) );
+    }
+
+    @Test
+    public void managementReportsAndInvalidates()
+        throws Exception
+    {
+        final CacheStore store = CacheStore.getInstance( new ConfigurationImpl( new PropertiesPropertyResolver( properties() ) ) );
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName( CacheMXBean.OBJECT_NAME + ",test=true" );
+        server.registerMBean( new CacheManagement(), name );
+        try
+        {
+            read( store.open( "a", source( "a", "aaaa" ) ) );
+            read( store.open( "a", source( "a", "aaaa" ) ) );
+            read( store.open( "b", source( "b", "bb" ) ) );
+
+            assertEquals( 1L, server.getAttribute( name, "Hits" ) );
+            assertEquals( 2L, server.getAttribute( name, "Misses" ) );
+            assertEquals( 10L, server.getAttribute( name, "BytesServed" ) );
+            assertEquals( 6L, server.getAttribute( name, "BytesFetched" ) );
+            assertEquals( 2, server.getAttribute( name, "EntryCount" ) );
+            assertEquals( 6L, server.getAttribute( name, "DiskUsage" ) );
+
+            assertEquals( 1, server.invoke( name, "invalidate", new Object[]{ ".*/a" },
+                                            new String[]{ String.class.getName() }
+            ) );
+            assertNull( store.getDataFile( "a" ) );
+            Thread.sleep( 5 );
+            assertEquals( 1, server.invoke( name, "prune", new Object[]{ 0L }, new String[]{ "long" } ) );
+            assertEquals( 0, store.size() );
+            assertEquals( 1, m_dir.list().length );
+        }
+        finally
+        {
+            server.unregisterMBean( name );
+        }
+    }
+
+    private Properties properties()
+    {
+        final Properties properties = new Properties();
+        properties.setProperty( ServiceConstants.PROPERTY_WORKING_DIRECTORY, m_dir.getPath() );
+        return properties;
+    }
+
+    private URL source( final String name, final String content )
+        throws IOException
+    {
+        final File file = new File( m_sources, name );
+        write( file, content );
+        return file.toURI().toURL();
+    }
+
+    private static void write( final File file, final String content )
+        throws IOException
+    {
+        final OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String read( final InputStream in )
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyStream( in, out, true );
+        return out.toString( "UTF-8" );
+    }
+
+    /**
+     * HTTP source answering conditional requests, without a server.
+     */
+    private static class HttpSource
+    {
+
+        final AtomicInteger transfers = new AtomicInteger();
+        final URL url;
+        volatile String content;
+        volatile String etag;
+        volatile String ifNoneMatch;
+
+        HttpSource()
+            throws IOException
+        {
+            url = new URL( null, "http://localhost/a", new URLStreamHandler()
+            {
+                @Override
+                protected URLConnection openConnection( final URL u )
+                {
+                    return new HttpURLConnection( u )
+                    {
+                        @Override
+                        public void connect()
+                        {
+                        }
+
+                        @Override
+                        public void disconnect()
+                        {
+                        }
+
+                        @Override
+                        public boolean usingProxy()
+                        {
+                            return false;
+                        }
+
+                        @Override
+                        public int getResponseCode()
+                        {
+                            return etag.equals( getRequestProperty( "If-None-Match" ) ) ? HTTP_NOT_MODIFIED : HTTP_OK;
+                        }
+
+                        @Override
+                        public String getHeaderField( final String name )
+                        {
+                            return "ETag".equalsIgnoreCase( name ) ? etag : null;
+                        }
+
+                        @Override
+                        public InputStream getInputStream()
+                            throws IOException
+                        {
+                            if( content == null )
+                            {
+                                throw new IOException( "Connection refused" );
+                            }
+                            ifNoneMatch = getRequestProperty( "If-None-Match" );
+                            if( getResponseCode() == HTTP_NOT_MODIFIED )
+                            {
+                                return new ByteArrayInputStream( new byte[0] );
+                            }
+                            transfers.incrementAndGet();
+                            return new ByteArrayInputStream( content.getBytes( "UTF-8" ) );
+                        }
+                    };
+                }
+            }
+            );
+        }
+
+        void set( final String content, final String etag )
+        {
+            this.content = content;
+            this.etag = etag;
+        }
+
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On disk cache of bundles created by url handlers (wrapped jars, web bundles).
+ * <p>
+ * Each bundle is stored in a file named after its key, a hash of everything the bundle depends on (see
+ * {@link #key(String...)}). Files are touched when used, and least recently used ones are removed when the total size
+ * exceeds the configured maximum. Bundles are opened with the cache locked, so that a bundle being served cannot be
+ * removed before it is open.
+ */
+public class BundleCache
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( BundleCache.class );
+
+    /**
+     * Extension of cached bundles.
+     */
+    private static final String EXT_BUNDLE = ".jar";
+    /**
+     * Extension of files being written.
+     */
+    private static final String EXT_TMP = ".tmp";
+
+    /**
+     * Caches by (absolute) directory.
+     */
+    private static final ConcurrentMap<File, BundleCache> CACHES = new ConcurrentHashMap<File, BundleCache>();
+
+    private final File m_directory;
+    private volatile long m_maxSize;
+    /**
+     * Total size of cached bundles. Guarded by this.
+     */
+    private long m_size;
+
+    BundleCache( final File directory )
+    {
+        m_directory = directory;
+        m_directory.mkdirs();
+        final File[] tmpFiles = m_directory.listFiles( new FileFilter()
+        {
+            public boolean accept( final File file )
+            {
+                return file.getName().endsWith( EXT_TMP );
+            }
+        }
+        );
+        if( tmpFiles != null )
+        {
+            for( File tmpFile : tmpFiles )
+            {
+                // left over by an interrupted transformation
+                tmpFile.delete();
+            }
+        }
+        for( File file : list() )
+        {
+            m_size += file.length();
+        }
+    }
+
+    /**
+     * Returns the cache of a directory. Handlers configured with the same directory share the same cache.
+     *
+     * @param directory cache directory, can be null
+     * @param maxSize   maximum total size of cached bundles in bytes, not bounded if not positive
+     *
+     * @return cache, or null if bundles should not be cached
+     */
+    public static BundleCache getInstance( final File directory, final long maxSize )
+    {
+        if( directory == null )
+        {
+            return null;
+        }
+        final File absolute = directory.getAbsoluteFile();
+        BundleCache cache = CACHES.get( absolute );
+        if( cache == null )
+        {
+            final BundleCache created = new BundleCache( absolute );
+            cache = CACHES.putIfAbsent( absolute, created );
+            if( cache == null )
+            {
+                cache = created;
+            }
+        }
+        cache.m_maxSize = maxSize;
+        return cache;
+    }
+
+    /**
+     * Computes a cache key.
+     *
+     * @param parts values the cached content depends on
+     *
+     * @return key
+     *
+     * @throws IOException if the key cannot be computed
+     */
+    public static String key( final String... parts )
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        for( String part : parts )
+        {
+            digest.update( bytes( part ) );
+            digest.update( (byte) 0 );
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @throws IOException if SHA-256 is not supported
+     */
+    public static MessageDigest newDigest()
+        throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Cannot compute cache key (SHA-256 not supported)" );
+        }
+    }
+
+    /**
+     * Formats a digest as used in cache keys.
+     */
+    public static String toHex( final byte[] digest )
+    {
+        return String.format( "%064x", new BigInteger( 1, digest ) );
+    }
+
+    private static byte[] bytes( final String text )
+    {
+        try
+        {
+            return text.getBytes( "UTF-8" );
+        }
+        catch( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Opens the cached bundle of a key.
+     *
+     * @param key cache key
+     *
+     * @return bundle content, or null if not cached
+     */
+    public InputStream get( final String key )
+    {
+        final File file = new File( m_directory, key + EXT_BUNDLE );
+        synchronized( this )
+        {
+            if( !file.isFile() )
+            {
+                return null;
+            }
+            try
+            {
+                final InputStream bundle = open( file );
+                file.setLastModified( System.currentTimeMillis() );
+                return bundle;
+            }
+            catch( FileNotFoundException e )
+            {
+                // removed by somebody else
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Caches a bundle.
+     *
+     * @param key    cache key
+     * @param bundle bundle content, closed once read
+     *
+     * @return cached bundle content
+     *
+     * @throws IOException if the bundle cannot be read, or is not a valid jar
+     */
+    public InputStream put( final String key, final InputStream bundle )
+        throws IOException
+    {
+        final File file = new File( m_directory, key + EXT_BUNDLE );
+        final File tmp = createTempFile( key );
+        try
+        {
+            copy( bundle, new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+            validate( tmp );
+            synchronized( this )
+            {
+                // a concurrent miss may have cached the same bundle meanwhile
+                final long replaced = file.length();
+                try
+                {
+                    Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE );
+                }
+                catch( AtomicMoveNotSupportedException e )
+                {
+                    Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+                }
+                m_size += file.length() - replaced;
+                evict( file );
+                return open( file );
+            }
+        }
+        finally
+        {
+            tmp.delete();
+        }
+    }
+
+    private static InputStream open( final File file )
+        throws FileNotFoundException
+    {
+        return new BufferedInputStream( new FileInputStream( file ) );
+    }
+
+    /**
+     * Copies a stream, closing both streams.
+     */
+    public static void copy( final InputStream in, final OutputStream out )
+        throws IOException
+    {
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while( ( count = in.read( buffer ) ) >= 0 )
+            {
+                out.write( buffer, 0, count );
+            }
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a temporary file in the cache directory, removed on restart if left over.
+     */
+    public File createTempFile( final String prefix )
+        throws IOException
+    {
+        // the directory may have been cleared meanwhile
+        m_directory.mkdirs();
+        return File.createTempFile( prefix + "-", EXT_TMP, m_directory );
+    }
+
+    /**
+     * Bundles are created in a separate thread that cannot report failures other than by ending the stream early,
+     * so a bundle is only cached if it is a complete jar.
+     */
+    private static void validate( final File bundle )
+        throws IOException
+    {
+        try
+        {
+            new ZipFile( bundle ).close();
+        }
+        catch( ZipException e )
+        {
+            throw new IOException( "Bundle cannot be generated (" + e.getMessage() + ")", e );
+        }
+    }
+
+    /**
+     * Removes least recently used bundles until the cache fits its maximum size. Called with the lock held.
+     *
+     * @param keep bundle being added, never removed
+     */
+    private void evict( final File keep )
+    {
+        final long maxSize = m_maxSize;
+        if( maxSize <= 0 || m_size <= maxSize )
+        {
+            return;
+        }
+        final File[] files = list();
+        final long[] lastModified = new long[files.length];
+        final Integer[] order = new Integer[files.length];
+        for( int i = 0; i < files.length; i++ )
+        {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort( order, new Comparator<Integer>()
+        {
+            public int compare( final Integer i1, final Integer i2 )
+            {
+                return Long.compare( lastModified[i1], lastModified[i2] );
+            }
+        }
+        );
+        m_size = 0;
+        for( File file : files )
+        {
+            m_size += file.length();
+        }
+        for( int i = 0; i < order.length && m_size > maxSize; i++ )
+        {
+            final File file = files[order[i]];
+            if( !file.equals( keep ) )
+            {
+                final long length = file.length();
+                if( file.delete() )
+                {
+                    LOG.debug( "Removed cached bundle " + file );
+                    m_size -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of cached bundles, as accounted for eviction.
+     */
+    synchronized long size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Lists cached bundles.
+     */
+    private File[] list()
+    {
+        final File[] files = m_directory.listFiles( new FileFilter()
+        {
+            public boolean accept( final File file )
+            {
+                return file.isFile() && file.getName().endsWith( EXT_BUNDLE );
+            }
+        }
+        );
+        return files == null ? new File[0] : files;
+    }
+
+}
@@ -0,0 +1,544 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random access reader of a local zip (or jar, war) archive.
+ * <p>
+ * The archive is memory mapped and its central directory parsed once, when opened. Archives stored (not compressed)
+ * in an archive, as the jars of a war often are, are read out of the same mapping (see
+ * {@link #getArchive(ZipArchiveEntry)}). Entries are then listed or looked
+ * up without reading their content, and the content of an entry is only read (and inflated) when its stream is: the
+ * bytes of the entries that are not needed are never touched. Streams of entries can be read concurrently.
+ * <p>
+ * Archives larger than 2GB cannot be mapped, nor can encrypted entries or entries compressed with other methods than
+ * deflate be read. The mapping is released once the archive is closed and garbage collected (before that, some
+ * platforms do not allow the file to be deleted).
+ */
+public class ZipArchive
+    implements Closeable
+{
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int ZIP64_END_HEADER_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    /**
+     * Value of the sizes and offsets that are recorded in the zip64 extra field.
+     */
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File m_file;
+    private final List<ZipArchiveEntry> m_entries;
+    /**
+     * Entries by name, created on first lookup. Guarded by this.
+     */
+    private Map<String, ZipArchiveEntry> m_names;
+    /**
+     * Mapped archive (little endian, never repositioned), null once closed.
+     */
+    private volatile ByteBuffer m_buffer;
+
+    /**
+     * Opens an archive.
+     *
+     * @param file archive file
+     *
+     * @throws ZipException if the file is not a zip archive, or cannot be read by this reader
+     * @throws IOException  if the file cannot be read
+     */
+    public ZipArchive( final File file )
+        throws IOException
+    {
+        this( file, map( file ) );
+    }
+
+    private ZipArchive( final File file, final ByteBuffer buffer )
+        throws ZipException
+    {
+        m_file = file;
+        m_entries = Collections.unmodifiableList( readCentralDirectory( buffer ) );
+        m_buffer = buffer;
+    }
+
+    private static ByteBuffer map( final File file )
+        throws IOException
+    {
+        final RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try
+        {
+            final FileChannel channel = input.getChannel();
+            final long size = channel.size();
+            if( size > Integer.MAX_VALUE )
+            {
+                throw new ZipException( "Archive [" + file + "] is too large to be mapped" );
+            }
+            // the mapping stays valid once the channel is closed
+            return channel.map( FileChannel.MapMode.READ_ONLY, 0, size ).order( ByteOrder.LITTLE_ENDIAN );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the archive file (of the enclosing archive, for an archive opened by
+     * {@link #getArchive(ZipArchiveEntry)}).
+     */
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Returns the entries of the archive, in the order of the central directory.
+     */
+    public List<ZipArchiveEntry> getEntries()
+    {
+        return m_entries;
+    }
+
+    /**
+     * Returns the number of entries of the archive.
+     */
+    public int size()
+    {
+        return m_entries.size();
+    }
+
+    /**
+     * Looks an entry up.
+     *
+     * @param name name of the entry
+     *
+     * @return the entry (the first one if more than one entry has this name), or null if there is none
+     */
+    public synchronized ZipArchiveEntry getEntry( final String name )
+    {
+        if( m_names == null )
+        {
+            m_names = new HashMap<String, ZipArchiveEntry>( m_entries.size() * 4 / 3 + 1 );
+            for( ZipArchiveEntry entry : m_entries )
+            {
+                if( !m_names.containsKey( entry.getName() ) )
+                {
+                    m_names.put( entry.getName(), entry );
+                }
+            }
+        }
+        return m_names.get( name );
+    }
+
+    /**
+     * Returns the manifest of the archive, looked up as {@link JarFile} does (whatever the case of its name).
+     *
+     * @return the manifest, or null if there is none
+     *
+     * @throws IOException if the manifest cannot be read
+     */
+    public Manifest getManifest()
+        throws IOException
+    {
+        ZipArchiveEntry entry = getEntry( JarFile.MANIFEST_NAME );
+        for( int i = 0; entry == null && i < m_entries.size(); i++ )
+        {
+            if( m_entries.get( i ).getName().equalsIgnoreCase( JarFile.MANIFEST_NAME ) )
+            {
+                entry = m_entries.get( i );
+            }
+        }
+        if( entry == null )
+        {
+            return null;
+        }
+        final InputStream in = getInputStream( entry );
+        try
+        {
+            return new Manifest( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens the content of an entry. Nothing is read until the returned stream is.
+     *
+     * @param entry entry of this archive
+     *
+     * @return uncompressed content of the entry
+     *
+     * @throws ZipException if the entry is invalid or its compression method not supported
+     * @throws IOException  if the archive is closed
+     */
+    public InputStream getInputStream( final ZipArchiveEntry entry )
+        throws IOException
+    {
+        final ByteBuffer content = content( entry );
+        switch( entry.getMethod() )
+        {
+            case ZipEntry.STORED:
+                return new ByteBufferInputStream( content );
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterInputStream( content );
+            default:
+                throw new ZipException(
+                    "Unsupported compression method " + entry.getMethod() + " of entry [" + entry.getName() + "]"
+                );
+        }
+    }
+
+    /**
+     * Opens an archive stored in this one, without reading nor copying it: its central directory is looked up in the
+     * mapping of this archive, and so are its entries when read.
+     *
+     * @param entry entry of this archive, that must be stored (not compressed)
+     *
+     * @return nested archive, closed independently of this one
+     *
+     * @throws ZipException if the entry is compressed, or is not a zip archive
+     * @throws IOException  if the archive is closed
+     */
+    public ZipArchive getArchive( final ZipArchiveEntry entry )
+        throws IOException
+    {
+        if( entry.getMethod() != ZipEntry.STORED )
+        {
+            throw new ZipException( "Entry [" + entry.getName() + "] of [" + m_file + "] is compressed" );
+        }
+        // slices are big endian
+        return new ZipArchive( m_file, content( entry ).order( ByteOrder.LITTLE_ENDIAN ) );
+    }
+
+    /**
+     * Returns the raw (possibly compressed) content of an entry.
+     */
+    private ByteBuffer content( final ZipArchiveEntry entry )
+        throws IOException
+    {
+        final ByteBuffer buffer = m_buffer;
+        if( buffer == null )
+        {
+            throw new IOException( "Archive [" + m_file + "] is closed" );
+        }
+        final long offset = entry.getOffset();
+        if( offset + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt( (int) offset ) != LOCAL_HEADER )
+        {
+            throw new ZipException( "Invalid local header of entry [" + entry.getName() + "] in [" + m_file + "]" );
+        }
+        final long start = offset + LOCAL_HEADER_SIZE
+                           + u16( buffer, (int) offset + 26 ) + u16( buffer, (int) offset + 28 );
+        final long end = start + entry.getCompressedSize();
+        if( end > buffer.limit() )
+        {
+            throw new ZipException( "Truncated entry [" + entry.getName() + "] in [" + m_file + "]" );
+        }
+        final ByteBuffer content = buffer.duplicate();
+        content.position( (int) start );
+        content.limit( (int) end );
+        return content.slice();
+    }
+
+    /**
+     * Closes the archive. Streams of entries that are still open can still be read.
+     */
+    public void close()
+    {
+        m_buffer = null;
+    }
+
+    private List<ZipArchiveEntry> readCentralDirectory( final ByteBuffer buffer )
+        throws ZipException
+    {
+        final int end = findEnd( buffer );
+        long count = u16( buffer, end + 10 );
+        long size = u32( buffer, end + 12 );
+        long offset = u32( buffer, end + 16 );
+        // the central directory ends where the end records start
+        long directoryEnd = end;
+        if( ( count == ZIP64_MAGIC_COUNT || size == ZIP64_MAGIC || offset == ZIP64_MAGIC )
+            && end >= ZIP64_LOCATOR_SIZE
+            && buffer.getInt( end - ZIP64_LOCATOR_SIZE ) == ZIP64_LOCATOR )
+        {
+            final long zip64End = buffer.getLong( end - ZIP64_LOCATOR_SIZE + 8 );
+            if( zip64End < 0
+                || zip64End + ZIP64_END_HEADER_SIZE > end - ZIP64_LOCATOR_SIZE
+                || buffer.getInt( (int) zip64End ) != ZIP64_END_HEADER )
+            {
+                throw new ZipException( "Invalid zip64 end of central directory in [" + m_file + "]" );
+            }
+            count = buffer.getLong( (int) zip64End + 32 );
+            size = buffer.getLong( (int) zip64End + 40 );
+            offset = buffer.getLong( (int) zip64End + 48 );
+            directoryEnd = zip64End;
+        }
+        // offsets are relative to the first entry, that does not start the file if the archive is prefixed
+        final long base = directoryEnd - size - offset;
+        if( base < 0 || size < 0 || offset < 0 || count < 0 || count > size / CENTRAL_HEADER_SIZE )
+        {
+            throw new ZipException( "Invalid end of central directory in [" + m_file + "]" );
+        }
+        final List<ZipArchiveEntry> entries = new ArrayList<ZipArchiveEntry>( (int) count );
+        byte[] name = new byte[256];
+        int position = (int) ( base + offset );
+        for( long i = 0; i < count; i++ )
+        {
+            if( position + CENTRAL_HEADER_SIZE > directoryEnd || buffer.getInt( position ) != CENTRAL_HEADER )
+            {
+                throw new ZipException( "Invalid central directory in [" + m_file + "]" );
+            }
+            final int flags = u16( buffer, position + 8 );
+            final int nameLength = u16( buffer, position + 28 );
+            final int extraLength = u16( buffer, position + 30 );
+            final int commentLength = u16( buffer, position + 32 );
+            final int next = position + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if( next > directoryEnd )
+            {
+                throw new ZipException( "Invalid central directory in [" + m_file + "]" );
+            }
+            if( name.length < nameLength )
+            {
+                name = new byte[nameLength];
+            }
+            final ByteBuffer names = buffer.duplicate();
+            names.position( position + CENTRAL_HEADER_SIZE );
+            names.get( name, 0, nameLength );
+            final String entryName = new String( name, 0, nameLength, StandardCharsets.UTF_8 );
+            if( ( flags & FLAG_ENCRYPTED ) != 0 )
+            {
+                throw new ZipException( "Encrypted entry [" + entryName + "] in [" + m_file + "]" );
+            }
+            long compressedSize = u32( buffer, position + 20 );
+            long entrySize = u32( buffer, position + 24 );
+            long entryOffset = u32( buffer, position + 42 );
+            if( compressedSize == ZIP64_MAGIC || entrySize == ZIP64_MAGIC || entryOffset == ZIP64_MAGIC )
+            {
+                // the actual values are in the zip64 extra field, in this order, if they are too large
+                int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+                final int extraEnd = extra + extraLength;
+                while( extra + 4 <= extraEnd )
+                {
+                    final int id = u16( buffer, extra );
+                    final int length = u16( buffer, extra + 2 );
+                    int field = extra + 4;
+                    extra = field + length;
+                    if( id != ZIP64_EXTRA || extra > extraEnd )
+                    {
+                        continue;
+                    }
+                    if( entrySize == ZIP64_MAGIC && field + 8 <= extra )
+                    {
+                        entrySize = buffer.getLong( field );
+                        field += 8;
+                    }
+                    if( compressedSize == ZIP64_MAGIC && field + 8 <= extra )
+                    {
+                        compressedSize = buffer.getLong( field );
+                        field += 8;
+                    }
+                    if( entryOffset == ZIP64_MAGIC && field + 8 <= extra )
+                    {
+                        entryOffset = buffer.getLong( field );
+                    }
+                }
+            }
+            entries.add( new ZipArchiveEntry(
+                entryName,
+                u16( buffer, position + 10 ),
+                u32( buffer, position + 12 ),
+                u32( buffer, position + 16 ),
+                compressedSize,
+                entrySize,
+                base + entryOffset
+            ) );
+            position = next;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the position of the end of central directory record, searched backwards as it is followed by a comment.
+     */
+    private int findEnd( final ByteBuffer buffer )
+        throws ZipException
+    {
+        final int last = buffer.limit() - END_HEADER_SIZE;
+        final int first = Math.max( 0, last - MAX_COMMENT_SIZE );
+        for( int position = last; position >= first; position-- )
+        {
+            if( buffer.getInt( position ) == END_HEADER && position + u16( buffer, position + 20 ) <= last )
+            {
+                return position;
+            }
+        }
+        throw new ZipException( "[" + m_file + "] is not a zip archive" );
+    }
+
+    private static int u16( final ByteBuffer buffer, final int position )
+    {
+        return buffer.getShort( position ) & 0xffff;
+    }
+
+    private static long u32( final ByteBuffer buffer, final int position )
+    {
+        return buffer.getInt( position ) & 0xffffffffL;
+    }
+
+    /**
+     * Stream of a buffer.
+     */
+    private static class ByteBufferInputStream
+        extends InputStream
+    {
+
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream( final ByteBuffer buffer )
+        {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read( final byte[] bytes, final int offset, final int length )
+        {
+            if( length == 0 )
+            {
+                return 0;
+            }
+            if( !m_buffer.hasRemaining() )
+            {
+                return -1;
+            }
+            final int count = Math.min( length, m_buffer.remaining() );
+            m_buffer.get( bytes, offset, count );
+            return count;
+        }
+
+        @Override
+        public long skip( final long count )
+        {
+            final int skipped = (int) Math.max( 0, Math.min( count, m_buffer.remaining() ) );
+            m_buffer.position( m_buffer.position() + skipped );
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return m_buffer.remaining();
+        }
+
+    }
+
+    /**
+     * Inflates a deflated entry.
+     */
+    private static class EntryInflaterInputStream
+        extends InflaterInputStream
+    {
+
+        private boolean m_eof;
+        private boolean m_closed;
+
+        EntryInflaterInputStream( final ByteBuffer content )
+        {
+            super(
+                new ByteBufferInputStream( content ),
+                new Inflater( true ),
+                Math.max( 1, Math.min( content.remaining(), BUFFER_SIZE ) )
+            );
+        }
+
+        /**
+         * As {@link java.util.zip.ZipFile} does, adds the dummy byte the inflater needs in "nowrap" mode.
+         */
+        @Override
+        protected void fill()
+            throws IOException
+        {
+            if( m_eof )
+            {
+                throw new EOFException( "Unexpected end of ZLIB input stream" );
+            }
+            len = in.read( buf, 0, buf.length );
+            if( len == -1 )
+            {
+                buf[0] = 0;
+                len = 1;
+                m_eof = true;
+            }
+            inf.setInput( buf, 0, len );
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            if( !m_closed )
+            {
+                m_closed = true;
+                super.close();
+                inf.end();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.zip;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Entry of a {@link ZipArchive}, as recorded in its central directory.
+ */
+public class ZipArchiveEntry
+{
+
+    private final String m_name;
+    private final int m_method;
+    private final long m_dosTime;
+    private final long m_crc;
+    private final long m_compressedSize;
+    private final long m_size;
+    /**
+     * Offset of the local header of the entry in the archive.
+     */
+    private final long m_offset;
+
+    ZipArchiveEntry( final String name,
+                     final int method,
+                     final long dosTime,
+                     final long crc,
+                     final long compressedSize,
+                     final long size,
+                     final long offset )
+    {
+        m_name = name;
+        m_method = method;
+        m_dosTime = dosTime;
+        m_crc = crc;
+        m_compressedSize = compressedSize;
+        m_size = size;
+        m_offset = offset;
+    }
+
+    /**
+     * Returns the name of the entry (its path in the archive).
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * Returns true if the entry is a directory (its name ends with a slash).
+     */
+    public boolean isDirectory()
+    {
+        return m_name.endsWith( "/" );
+    }
+
+    /**
+     * Returns the compression method, {@link java.util.zip.ZipEntry#STORED} or {@link java.util.zip.ZipEntry#DEFLATED}
+     * (other methods cannot be read).
+     */
+    public int getMethod()
+    {
+        return m_method;
+    }
+
+    /**
+     * Returns the last modification time, in milliseconds (recorded in local time, to the nearest two seconds).
+     */
+    public long getTime()
+    {
+        final Calendar calendar = new GregorianCalendar(
+            (int) ( ( m_dosTime >> 25 ) & 0x7f ) + 1980,
+            (int) ( ( m_dosTime >> 21 ) & 0x0f ) - 1,
+            (int) ( ( m_dosTime >> 16 ) & 0x1f ),
+            (int) ( ( m_dosTime >> 11 ) & 0x1f ),
+            (int) ( ( m_dosTime >> 5 ) & 0x3f ),
+            (int) ( ( m_dosTime << 1 ) & 0x3e )
+        );
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the CRC-32 of the uncompressed content.
+     */
+    public long getCrc()
+    {
+        return m_crc;
+    }
+
+    /**
+     * Returns the size of the content as stored in the archive.
+     */
+    public long getCompressedSize()
+    {
+        return m_compressedSize;
+    }
+
+    /**
+     * Returns the size of the uncompressed content.
+     */
+    public long getSize()
+    {
+        return m_size;
+    }
+
+    long getOffset()
+    {
+        return m_offset;
+    }
+
+    @Override
+    public String toString()
+    {
+        return m_name;
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link BundleCache}.
+ */
+public class BundleCacheTest
+{
+
+    private File m_cache;
+
+    @Before
+    public void setUp()
+    {
+        m_cache = new File( "target/bundle-cache-test" );
+        delete( m_cache );
+    }
+
+    @Test
+    public void cachesAreSharedByDirectory()
+    {
+        assertNull( BundleCache.getInstance( null, 0 ) );
+        assertSame( cache( 0 ), BundleCache.getInstance( new File( m_cache.getAbsolutePath() ), 0 ) );
+    }
+
+    @Test
+    public void leastRecentlyUsedBundlesAreRemoved()
+        throws Exception
+    {
+        final byte[] a = jar( "a" );
+        final BundleCache cache = cache( a.length * 2 + 1 );
+        cache.put( BundleCache.key( "a" ), new ByteArrayInputStream( a ) ).close();
+        cache.put( BundleCache.key( "b" ), new ByteArrayInputStream( jar( "b" ) ) ).close();
+        new File( m_cache, BundleCache.key( "b" ) + ".jar" ).setLastModified( System.currentTimeMillis() - 60000 );
+        read( cache.get( BundleCache.key( "a" ) ) );
+        cache.put( BundleCache.key( "c" ), new ByteArrayInputStream( jar( "c" ) ) ).close();
+
+        assertNull( cache.get( BundleCache.key( "b" ) ) );
+        assertArrayEquals( a, read( cache.get( BundleCache.key( "a" ) ) ) );
+        final InputStream c = cache.get( BundleCache.key( "c" ) );
+        assertNotNull( c );
+        c.close();
+    }
+
+    @Test
+    public void invalidBundlesAreNotCached()
+        throws Exception
+    {
+        final BundleCache cache = cache( 0 );
+        try
+        {
+            cache.put( BundleCache.key( "a" ), new ByteArrayInputStream( new byte[]{ 1, 2, 3 } ) );
+            fail( "Invalid bundle cached" );
+        }
+        catch( IOException expected )
+        {
+        }
+        assertNull( cache.get( BundleCache.key( "a" ) ) );
+        assertEquals( 0, m_cache.list().length );
+    }
+
+    @Test
+    public void replacedBundlesAreCountedOnce()
+        throws Exception
+    {
+        final byte[] a = jar( "a" );
+        final BundleCache cache = cache( 0 );
+        final long size = cache.size();
+        // as when concurrent misses cache the same bundle
+        cache.put( BundleCache.key( "a" ), new ByteArrayInputStream( a ) ).close();
+        cache.put( BundleCache.key( "a" ), new ByteArrayInputStream( a ) ).close();
+
+        assertEquals( size + a.length, cache.size() );
+    }
+
+    @Test
+    public void openBundlesSurviveEviction()
+        throws Exception
+    {
+        final BundleCache cache = cache( 1 );
+        final byte[] a = jar( "a" );
+        final InputStream put = cache.put( BundleCache.key( "a" ), new ByteArrayInputStream( a ) );
+        final InputStream hit = cache.get( BundleCache.key( "a" ) );
+        cache.put( BundleCache.key( "b" ), new ByteArrayInputStream( jar( "b" ) ) ).close();
+
+        assertNull( cache.get( BundleCache.key( "a" ) ) );
+        assertArrayEquals( a, read( put ) );
+        assertArrayEquals( a, read( hit ) );
+    }
+
+    @Test
+    public void hitsAreServedWhileEvicted()
+        throws Exception
+    {
+        final BundleCache cache = cache( 1 );
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            final List<byte[]> jars = new ArrayList<byte[]>();
+            for( int i = 0; i < 4; i++ )
+            {
+                // each bundle put evicts the others, which are being served concurrently
+                final String key = BundleCache.key( "bundle" + i );
+                final byte[] jar = jar( key );
+                jars.add( jar );
+                results.add( executor.submit( new Callable<byte[]>()
+                {
+                    public byte[] call()
+                        throws Exception
+                    {
+                        for( int j = 0; j < 100; j++ )
+                        {
+                            InputStream bundle = cache.get( key );
+                            if( bundle == null )
+                            {
+                                bundle = cache.put( key, new ByteArrayInputStream( jar ) );
+                            }
+                            final byte[] content = read( bundle );
+                            if( !Arrays.equals( jar, content ) )
+                            {
+                                return content;
+                            }
+                        }
+                        return jar;
+                    }
+                }
+                ) );
+            }
+            for( int i = 0; i < 4; i++ )
+            {
+                assertArrayEquals( jars.get( i ), results.get( i ).get() );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private BundleCache cache( final long maxSize )
+    {
+        return BundleCache.getInstance( m_cache, maxSize );
+    }
+
+    /**
+     * Returns a jar containing a resource of given content.
+     */
+    private static byte[] jar( final String content )
+        throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ZipOutputStream out = new ZipOutputStream( bytes );
+        out.putNextEntry( new ZipEntry( "content.txt" ) );
+        out.write( content.getBytes( "UTF-8" ) );
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BundleCache.copy( in, out );
+        return out.toByteArray();
+    }
+
+    private static void delete( final File file )
+    {
+        final File[] children = file.listFiles();
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ZipArchive}.
+ */
+public class ZipArchiveTest
+{
+
+    private File m_dir;
+
+    @Before
+    public void setUp()
+    {
+        m_dir = new File( "target/zip-archive-test" );
+        m_dir.mkdirs();
+    }
+
+    @Test
+    public void sameEntriesAsZipFile()
+        throws Exception
+    {
+        final File jar = new File( Test.class.getProtectionDomain().getCodeSource().getLocation().toURI() );
+        assertSameEntries( jar );
+    }
+
+    @Test
+    public void storedAndDeflatedEntries()
+        throws Exception
+    {
+        final File zip = new File( m_dir, "test.zip" );
+        final byte[] content = new byte[100000];
+        new Random( 0 ).nextBytes( content );
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zip ) );
+        out.putNextEntry( new ZipEntry( "a/" ) );
+        out.putNextEntry( new ZipEntry( "a/deflated.bin" ) );
+        out.write( content );
+        final ZipEntry stored = new ZipEntry( "a/stored.bin" );
+        stored.setMethod( ZipEntry.STORED );
+        stored.setSize( content.length );
+        final CRC32 crc = new CRC32();
+        crc.update( content );
+        stored.setCrc( crc.getValue() );
+        out.putNextEntry( stored );
+        out.write( content );
+        out.putNextEntry( new ZipEntry( "empty.txt" ) );
+        out.close();
+
+        assertSameEntries( zip );
+        final ZipArchive archive = new ZipArchive( zip );
+        try
+        {
+            assertEquals( 4, archive.size() );
+            assertArrayEquals( content, read( archive, archive.getEntry( "a/deflated.bin" ) ) );
+            assertArrayEquals( content, read( archive, archive.getEntry( "a/stored.bin" ) ) );
+            assertEquals( ZipEntry.STORED, archive.getEntry( "a/stored.bin" ).getMethod() );
+            assertEquals( 0, read( archive, archive.getEntry( "empty.txt" ) ).length );
+            assertNull( archive.getEntry( "missing" ) );
+            assertNull( archive.getManifest() );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void storedArchiveIsReadInPlace()
+        throws Exception
+    {
+        final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream( jar );
+        out.putNextEntry( new ZipEntry( "META-INF/web-fragment.xml" ) );
+        out.write( "<web-fragment/>".getBytes( "UTF-8" ) );
+        out.close();
+        final byte[] content = jar.toByteArray();
+        final File war = new File( m_dir, "test.war" );
+        out = new ZipOutputStream( new FileOutputStream( war ) );
+        out.putNextEntry( new ZipEntry( "WEB-INF/lib/deflated.jar" ) );
+        out.write( content );
+        final ZipEntry stored = new ZipEntry( "WEB-INF/lib/stored.jar" );
+        stored.setMethod( ZipEntry.STORED );
+        stored.setSize( content.length );
+        final CRC32 crc = new CRC32();
+        crc.update( content );
+        stored.setCrc( crc.getValue() );
+        out.putNextEntry( stored );
+        out.write( content );
+        out.close();
+
+        final ZipArchive archive = new ZipArchive( war );
+        try
+        {
+            final ZipArchive nested = archive.getArchive( archive.getEntry( "WEB-INF/lib/stored.jar" ) );
+            assertEquals( 1, nested.size() );
+            assertEquals( "<web-fragment/>", new String(
+                read( nested, nested.getEntry( "META-INF/web-fragment.xml" ) ), "UTF-8"
+            ) );
+            nested.close();
+            try
+            {
+                archive.getArchive( archive.getEntry( "WEB-INF/lib/deflated.jar" ) );
+                fail( "Compressed entry opened as an archive" );
+            }
+            catch( ZipException expected )
+            {
+            }
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void manifestIsFoundWhateverItsCase()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) );
+        out.putNextEntry( new ZipEntry( "meta-inf/manifest.mf" ) );
+        out.write( "Manifest-Version: 1.0\r\nBundle-Name: test\r\n\r\n".getBytes( "UTF-8" ) );
+        out.close();
+
+        final ZipArchive archive = new ZipArchive( jar );
+        try
+        {
+            final Manifest manifest = archive.getManifest();
+            assertNotNull( manifest );
+            assertEquals( "test", manifest.getMainAttributes().getValue( "Bundle-Name" ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void prefixedArchive()
+        throws Exception
+    {
+        final File zip = new File( m_dir, "prefixed.zip" );
+        final OutputStream file = new FileOutputStream( zip );
+        file.write( "#!/bin/sh\nexit 0\n".getBytes( "UTF-8" ) );
+        final ZipOutputStream out = new ZipOutputStream( file );
+        out.putNextEntry( new ZipEntry( "content.txt" ) );
+        out.write( "content".getBytes( "UTF-8" ) );
+        out.close();
+
+        final ZipArchive archive = new ZipArchive( zip );
+        try
+        {
+            assertEquals( "content", new String( read( archive, archive.getEntry( "content.txt" ) ), "UTF-8" ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void zip64Archive()
+        throws Exception
+    {
+        // more entries than the end of central directory can count
+        final File zip = new File( m_dir, "zip64.zip" );
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zip ) );
+        out.setLevel( 0 );
+        for( int i = 0; i < 70000; i++ )
+        {
+            out.putNextEntry( new ZipEntry( "e" + i ) );
+            out.write( i );
+        }
+        out.close();
+
+        final ZipArchive archive = new ZipArchive( zip );
+        try
+        {
+            assertEquals( 70000, archive.size() );
+            assertArrayEquals( new byte[]{ (byte) 69999 }, read( archive, archive.getEntry( "e69999" ) ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test( expected = ZipException.class )
+    public void notAnArchive()
+        throws Exception
+    {
+        final File file = new File( m_dir, "test.txt" );
+        final OutputStream out = new FileOutputStream( file );
+        out.write( "not a zip archive".getBytes( "UTF-8" ) );
+        out.close();
+        new ZipArchive( file );
+    }
+
+    @Test( expected = IOException.class )
+    public void closedArchive()
+        throws Exception
+    {
+        final File zip = new File( m_dir, "closed.zip" );
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zip ) );
+        out.putNextEntry( new ZipEntry( "content.txt" ) );
+        out.close();
+        final ZipArchive archive = new ZipArchive( zip );
+        archive.close();
+        archive.getInputStream( archive.getEntry( "content.txt" ) );
+    }
+
+    private static void assertSameEntries( final File file )
+        throws IOException
+    {
+        final ZipFile expected = new ZipFile( file );
+        final ZipArchive actual = new ZipArchive( file );
+        try
+        {
+            assertEquals( expected.size(), actual.size() );
+            int i = 0;
+            final Enumeration<? extends ZipEntry> entries = expected.entries();
+            while( entries.hasMoreElements() )
+            {
+                final ZipEntry entry = entries.nextElement();
+                final ZipArchiveEntry actualEntry = actual.getEntries().get( i++ );
+                assertEquals( entry.getName(), actualEntry.getName() );
+                assertEquals( entry.isDirectory(), actualEntry.isDirectory() );
+                assertEquals( entry.getSize(), actualEntry.getSize() );
+                assertEquals( entry.getCompressedSize(), actualEntry.getCompressedSize() );
+                assertEquals( entry.getCrc(), actualEntry.getCrc() );
+                assertEquals( entry.getTime(), actualEntry.getTime() );
+                assertArrayEquals( read( expected.getInputStream( entry ) ), read( actual, actualEntry ) );
+            }
+        }
+        finally
+        {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static byte[] read( final ZipArchive archive, final ZipArchiveEntry entry )
+        throws IOException
+    {
+        return read( archive.getInputStream( entry ) );
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            final byte[] buffer = new byte[4096];
+            int count;
+            while( ( count = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, count );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -55,6 +55,16 @@ public interface ServiceConstants
      * when pax-logging is present.
      */
     static final String PROPERTY_IMPORT_PAXLOGGING_PACKAGES = PID + ".importPaxLoggingPackages";
+    /**
+     * Directory where generated web bundles are cached, so that opening the same war with the same instructions again
+     * reuses them, across restarts. Not set by default (no cache).
+     */
+    static final String PROPERTY_CACHE_DIRECTORY = PID + ".cache.directory";
+    /**
+     * Maximum total size (in bytes) of cached web bundles, least recently used ones being removed first. Defaults to
+     * 268435456 (256 MB).
+     */
+    static final String PROPERTY_CACHE_MAX_SIZE = PID + ".cache.maxSize";
     /**
      * URI of the war file to be processed.
      */
@@ -17,37 +17,45 @@
  */
 package org.ops4j.pax.url.war.internal;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.JarURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.lang.PreConditionException;
 import org.ops4j.net.URLUtils;
 import org.ops4j.pax.swissbox.bnd.BndUtils;
 import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+import org.ops4j.pax.url.commons.zip.ZipArchive;
+import org.ops4j.pax.url.commons.zip.ZipArchiveEntry;
 import org.ops4j.pax.url.war.ServiceConstants;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * Abstract url connection for wrap protocol handler.
@@ -64,12 +72,11 @@ abstract class AbstractConnection
      * Service configuration.
      */
     private final Configuration m_configuration;
-    
-	/**
-	 * DocumentBuilderFactory for parsing web.xml files
-	 */
-	private static DocumentBuilderFactory dbf = null;
 
+    /**
+     * Web fragment of a jar of WEB-INF/lib.
+     */
+    private static final String WEB_FRAGMENT = "META-INF/web-fragment.xml";
     
     /**
      * The pattern blacklist to verify that the jar is "legal" within a web-context.
@@ -113,6 +120,12 @@ abstract class AbstractConnection
 
     /**
      * Returns the input stream denoted by the url.
+     * <p>
+     * The war is read once: a remote war is first downloaded to a temporary file, then the jars of WEB-INF/lib are
+     * listed and web.xml is parsed in a single pass over the local copy, that the bundle is finally created from.
+     * <p>
+     * If a cache directory is configured, the web bundle is taken from the cache when the same war (same content) was
+     * already transformed with the same instructions.
      *
      * @return the input stream for the resource denoted by url
      *
@@ -136,14 +149,69 @@ abstract class AbstractConnection
             );
         }
 
-        generateClassPathInstruction( instructions );
-        
-        generateImportPackageFromWebXML( instructions );
-
-        return createBundle(
-                    URLUtils.prepareInputStream(new URL(warUri), !m_configuration.getCertificateCheck()),
-                    instructions,
-                    warUri );
+        final BundleCache cache = BundleCache.getInstance(
+            m_configuration.getCacheDirectory(), m_configuration.getCacheMaxSize()
+        );
+        final MessageDigest digest = cache != null ? BundleCache.newDigest() : null;
+        File war = localFile( warUri );
+        boolean downloaded = false;
+        if( war == null )
+        {
+            war = download( warUri, cache, digest );
+            downloaded = true;
+        }
+        else if( digest != null )
+        {
+            digest( war, digest );
+        }
+        try
+        {
+            String key = null;
+            if( cache != null )
+            {
+                // the bundle only depends on the war content and on the instructions (as long as they are not scanned)
+                key = cacheKey( BundleCache.toHex( digest.digest() ), instructions );
+                final InputStream bundle = cache.get( key );
+                if( bundle != null )
+                {
+                    return bundle;
+                }
+            }
+            scanWar( war, warUri, instructions );
+            final InputStream in = new BufferedInputStream( new FileInputStream( war ) );
+            final InputStream bundle;
+            try
+            {
+                bundle = createBundle( in, instructions, warUri );
+            }
+            catch( IOException e )
+            {
+                in.close();
+                throw e;
+            }
+            if( cache != null )
+            {
+                try
+                {
+                    return cache.put( key, bundle );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            // the downloaded war is removed once the bundle is read
+            final File source = downloaded ? war : null;
+            downloaded = false;
+            return new SourceClosingInputStream( bundle, in, source );
+        }
+        finally
+        {
+            if( downloaded )
+            {
+                war.delete();
+            }
+        }
     }
 
 	/**
@@ -201,17 +269,15 @@ abstract class AbstractConnection
      * all jars found in WEB-INF/lib
      *
      * @param instructions instructions
-     *
-     * @throws java.io.IOException re-thrown from extractJarListFromWar()
+     * @param jars         jars found in WEB-INF/lib
      */
-    private static void generateClassPathInstruction( final Properties instructions )
-        throws IOException
+    private static void generateClassPathInstruction( final Properties instructions, final List<String> jars )
     {
         final List<String> bundleClassPath = new ArrayList<String>();
         // first take the bundle class path if present
         bundleClassPath.addAll( toList( instructions.getProperty( ServiceConstants.INSTR_BUNDLE_CLASSPATH ), "," ) );
         // then get the list of jars in WEB-INF/lib
-        bundleClassPath.addAll( extractJarListFromWar( instructions.getProperty( ServiceConstants.INSTR_WAR_URL ) ) );
+        bundleClassPath.addAll( jars );
         // check if we have a "WEB-INF/classpath" entry
         if( !bundleClassPath.contains( "WEB-INF/classes" ) )
         {
@@ -229,105 +295,164 @@ abstract class AbstractConnection
     }
     
     /**
-     * Adds Package-Import for classes contained in the web.xml of the war. 
-     * 
-     * @param instructions - Properties containing the instructions for the manifest generation
-     * @throws IOException 
+     * Lists the jars of WEB-INF/lib in a single pass over the central directory of the war, parses web.xml and, unless
+     * it is metadata complete, the web fragments of the jars, then generates the Bundle-ClassPath and Import-Package
+     * instructions. No other entry of the war is read (see {@link #scanWebFragment}).
+     *
+     * @param war          local war file
+     * @param warUri       war file uri
+     * @param instructions instructions
+     *
+     * @throws IOException if the war is not a valid war file
      */
-    private static void generateImportPackageFromWebXML(Properties instructions) throws IOException {
-    	String warUri = instructions.getProperty( ServiceConstants.INSTR_WAR_URL );
-    	JarFile jarFile = null;
-    	List<String> webXmlImports = new ArrayList<String>();
+    private static void scanWar( final File war, final String warUri, final Properties instructions )
+        throws IOException
+    {
+        final List<String> jars = new ArrayList<String>();
+        final Set<String> webXmlImports = new LinkedHashSet<String>();
         try
         {
-            final JarURLConnection conn = (JarURLConnection) new URL( "jar:" + warUri + "!/" ).openConnection();
-            conn.setUseCaches( false );
-            jarFile = conn.getJarFile();
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while( entries.hasMoreElements() )
+            final ZipArchive archive = new ZipArchive( war );
+            try
             {
-            	JarEntry entry = (JarEntry) entries.nextElement();
-            	if ("WEB-INF/web.xml".equalsIgnoreCase(entry.getName())){
-            		//Found the web.xml will try to get all "-class" attributes from it to import them
-            		if (dbf == null) {
-            			dbf = DocumentBuilderFactory.newInstance();
-            			dbf.setNamespaceAware(true);
-            			dbf.setValidating(false);
-            			dbf.setAttribute("http://xml.org/sax/features/namespaces", true);
-            	        dbf.setAttribute("http://xml.org/sax/features/validation", false);
-            	        dbf.setAttribute("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
-            	        dbf.setAttribute("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-
-            		}
-            		DocumentBuilder db = dbf.newDocumentBuilder();
-
-            		Document doc = db.parse(jarFile.getInputStream(entry));
-
-            		NodeList childNodes = doc.getDocumentElement().getChildNodes();
-            		parseChildNodes(webXmlImports, childNodes);
-
-            		break;
-            	}
+                final List<ZipArchiveEntry> libraries = new ArrayList<ZipArchiveEntry>();
+                ZipArchiveEntry webXml = null;
+                for( ZipArchiveEntry entry : archive.getEntries() )
+                {
+                    final String name = entry.getName();
+                    if( isLibraryJar( name ) )
+                    {
+                        jars.add( name );
+                        libraries.add( entry );
+                    }
+                    else if( webXml == null && "WEB-INF/web.xml".equalsIgnoreCase( name ) )
+                    {
+                        webXml = entry;
+                    }
+                }
+                // packages of the "-class" elements of web.xml, and of the web fragments unless web.xml is complete
+                final boolean metadataComplete =
+                    webXml != null && WebXmlScanner.scan( archive.getInputStream( webXml ), webXmlImports );
+                if( !metadataComplete )
+                {
+                    for( ZipArchiveEntry library : libraries )
+                    {
+                        scanWebFragment( archive, library, webXmlImports );
+                    }
+                }
             }
-
-            StringBuffer buff = new StringBuffer(instructions.getProperty("Import-Package"));
-            
-            for (String importPackage : webXmlImports) {
-            	if (buff.toString().contains(importPackage))
-            		continue; //skip this one it's already included
-            	buff.append(",");
-            	buff.append(importPackage);
-            	buff.append(";resolution:=optional");
+            finally
+            {
+                archive.close();
             }
-
-            instructions.setProperty("Import-Package", buff.toString());
-        } catch( ClassCastException e ) {
+        }
+        catch( IOException e )
+        {
             throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-        } catch (MalformedURLException e) {
-        	throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		} catch (IOException e) {
-			throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		} catch (ParserConfigurationException e) {
-			throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		} catch (SAXException e) {
-			throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		}
-        finally {
-            if( jarFile != null )
+        }
+        generateClassPathInstruction( instructions, jars );
+        generateImportPackageFromWebXML( instructions, webXmlImports );
+    }
+
+    /**
+     * Scans the web fragment of a jar of WEB-INF/lib, if any.
+     * <p>
+     * The fragment of a stored jar is looked up in the central directory of the jar, read in place. A compressed jar
+     * has to be inflated from its start: it is read up to its fragment, which can follow the classes.
+     *
+     * @param archive       war
+     * @param library       jar of WEB-INF/lib
+     * @param webXmlImports packages found so far
+     */
+    private static void scanWebFragment( final ZipArchive archive,
+                                         final ZipArchiveEntry library,
+                                         final Set<String> webXmlImports )
+        throws IOException
+    {
+        if( library.getMethod() == ZipEntry.STORED )
+        {
+            try
             {
+                final ZipArchive jar = archive.getArchive( library );
                 try
                 {
-                    jarFile.close();
+                    final ZipArchiveEntry fragment = jar.getEntry( WEB_FRAGMENT );
+                    if( fragment != null )
+                    {
+                        WebXmlScanner.scan( jar.getInputStream( fragment ), webXmlImports );
+                    }
                 }
-                catch( IOException ignore )
+                finally
+                {
+                    jar.close();
+                }
+            }
+            catch( IOException e )
+            {
+                // a jar or fragment that cannot be read is left to the web container to report
+            }
+            return;
+        }
+        final ZipInputStream jar = new ZipInputStream( archive.getInputStream( library ) );
+        try
+        {
+            ZipEntry entry;
+            while( ( entry = jar.getNextEntry() ) != null )
+            {
+                if( WEB_FRAGMENT.equals( entry.getName() ) )
                 {
-                    // ignore
+                    WebXmlScanner.scan( jar, webXmlImports );
+                    return;
                 }
             }
         }
-                	
+        catch( IOException e )
+        {
+            // a jar or fragment that cannot be read is left to the web container to report
+        }
+        finally
+        {
+            jar.close();
+        }
     }
 
-
-	/**
-	 * @param webXmlImports
-	 * @param childNodes
-	 */
-	private static void parseChildNodes(List<String> webXmlImports, NodeList childNodes) {
-		for (int i = 0; i < childNodes.getLength(); i++) {
-			Node node = childNodes.item(i);
-			NodeList subNodes = node.getChildNodes();
-			if (subNodes != null)
-				parseChildNodes(webXmlImports, subNodes);
-			String nodeName = node.getNodeName();
-			if (nodeName.contains("-class")) {
-				//found a class attribute extract package
-				String lookupClass = node.getTextContent();
-				String packageName = lookupClass.substring(0, lookupClass.lastIndexOf(".")).trim();
-				webXmlImports.add(packageName);
-			}
-		}
-	}
+    /**
+     * Adds Package-Import for classes contained in the web.xml and web fragments of the war, that are not imported
+     * yet.
+     * 
+     * @param instructions - Properties containing the instructions for the manifest generation
+     * @param webXmlImports - packages of the classes named in the web.xml and web fragments
+     */
+    private static void generateImportPackageFromWebXML( final Properties instructions,
+                                                         final Set<String> webXmlImports )
+    {
+        final String importPackage = instructions.getProperty( "Import-Package" );
+        final StringBuilder buffer = new StringBuilder();
+        final Set<String> imported = new HashSet<String>();
+        if( importPackage != null )
+        {
+            buffer.append( importPackage );
+            for( String clause : importPackage.split( "," ) )
+            {
+                imported.add( clause.split( ";" )[0].trim() );
+            }
+        }
+        for( String pkg : webXmlImports )
+        {
+            if( imported.add( pkg ) )
+            {
+                if( buffer.length() > 0 )
+                {
+                    buffer.append( ',' );
+                }
+                buffer.append( pkg ).append( ";resolution:=optional" );
+            }
+        }
+        if( buffer.length() > 0 )
+        {
+            instructions.setProperty( "Import-Package", buffer.toString() );
+        }
+    }
 
 
     /**
@@ -340,63 +465,121 @@ abstract class AbstractConnection
     }
 
     /**
-     * Extracts the list of jars from a war file. The list will contain all jars under WEB-INF/lib directory.
+     * Returns true if the entry is a jar of WEB-INF/lib that is legal within a web-context.
+     *
+     * @param name name of the war entry
+     *
+     * @return true if the jar belongs to the bundle class path
+     */
+    private static boolean isLibraryJar( final String name )
+    {
+        return name.startsWith( "WEB-INF/lib/" ) && name.endsWith( ".jar" ) && checkJarIsLegal( name );
+    }
+
+    /**
+     * Returns the file of a local war (file: url).
+     *
+     * @param warUri war file uri
+     *
+     * @return the war file, or null if the war is not a local file
+     */
+    private static File localFile( final String warUri )
+    {
+        try
+        {
+            final URL url = new URL( warUri );
+            if( !"file".equals( url.getProtocol() ) )
+            {
+                return null;
+            }
+            final URI uri = url.toURI();
+            // relative paths (as file:target/test.war) make opaque uris
+            final File file = uri.isOpaque() ? new File( uri.getSchemeSpecificPart() ) : new File( uri );
+            return file.isFile() ? file : null;
+        }
+        catch( MalformedURLException e )
+        {
+            // reported when the war is downloaded
+            return null;
+        }
+        catch( URISyntaxException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Downloads a war to a temporary file.
      *
      * @param warUri war file uri
+     * @param cache  bundle cache, where the war is downloaded to, null if there is no cache
+     * @param digest digest updated with the content of the war, null if not needed
      *
-     * @return list of jars
+     * @return downloaded war, to be removed once used
      *
-     * @throws java.io.IOException re-thrown from accessing urls or if the warUri does not refer to a jar
+     * @throws IOException if the war cannot be downloaded
      */
-    private static List<String> extractJarListFromWar( final String warUri )
+    private File download( final String warUri, final BundleCache cache, final MessageDigest digest )
         throws IOException
     {
-        final List<String> list = new ArrayList<String>();
-        JarFile jarFile = null;
+        // downloaded to the cache directory if any, where it is removed on restart if left over
+        final File war = cache != null
+                         ? cache.createTempFile( "source" )
+                         : File.createTempFile( "pax-url-war-", ".war" );
         try
         {
-            final JarURLConnection conn = (JarURLConnection) new URL( "jar:" + warUri + "!/" ).openConnection();
-            conn.setUseCaches( false );
-            jarFile = conn.getJarFile();
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while( entries.hasMoreElements() )
+            InputStream in = URLUtils.prepareInputStream( new URL( warUri ), !m_configuration.getCertificateCheck() );
+            if( digest != null )
             {
-                JarEntry entry = (JarEntry) entries.nextElement();
-                String name = entry.getName();
-                if( !name.startsWith( "WEB-INF/lib/" ) )
-                {
-                    continue;
-                }
-                if( !name.endsWith( ".jar" ) )
-                {
-                    continue;
-                }
-                if ( !checkJarIsLegal(name) )
-                {
-                	continue;
-                }
-                list.add( name );
+                in = new DigestInputStream( in, digest );
             }
+            BundleCache.copy( in, new BufferedOutputStream( new FileOutputStream( war ) ) );
         }
-        catch( ClassCastException e )
+        catch( IOException e )
         {
-            throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file" );
+            war.delete();
+            throw e;
         }
-        finally
+        return war;
+    }
+
+    /**
+     * Updates a digest with the content of a file.
+     */
+    private static void digest( final File file, final MessageDigest digest )
+        throws IOException
+    {
+        final InputStream in = new DigestInputStream( new FileInputStream( file ), digest );
+        try
         {
-            if( jarFile != null )
+            final byte[] buffer = new byte[8192];
+            while( in.read( buffer ) >= 0 )
             {
-                try
-                {
-                    jarFile.close();
-                }
-                catch( IOException ignore )
-                {
-                    // ignore
-                }
+                // digest only
             }
         }
-        return list;
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Computes the cache key of the web bundle: it depends on the war content and on the instructions, as well as on
+     * the connection (protocols transform wars differently) and on the url itself (as its query).
+     *
+     * @param warHash      hash of the war content
+     * @param instructions instructions, before the war is scanned
+     */
+    private String cacheKey( final String warHash, final Properties instructions )
+        throws IOException
+    {
+        final StringBuilder buffer = new StringBuilder();
+        for( Map.Entry<Object, Object> entry : new TreeMap<Object, Object>( instructions ).entrySet() )
+        {
+            buffer.append( entry.getKey() ).append( '=' ).append( entry.getValue() ).append( '\n' );
+        }
+        return BundleCache.key( getClass().getName(), url.toExternalForm(), "sha-256:" + warHash, buffer.toString() );
     }
 
     /**
@@ -461,4 +644,47 @@ abstract class AbstractConnection
         return buffer.toString();
     }
 
-}
\ No newline at end of file
+    /**
+     * Bundle stream that closes the war it is created from, and removes it if it was downloaded, once closed.
+     */
+    private static class SourceClosingInputStream
+        extends FilterInputStream
+    {
+
+        private final InputStream m_source;
+        private final File m_file;
+
+        SourceClosingInputStream( final InputStream bundle, final InputStream source, final File file )
+        {
+            super( bundle );
+            m_source = source;
+            m_file = file;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                try
+                {
+                    m_source.close();
+                }
+                finally
+                {
+                    if( m_file != null && !m_file.delete() && m_file.exists() )
+                    {
+                        m_file.deleteOnExit();
+                    }
+                }
+            }
+        }
+
+    }
+
+}
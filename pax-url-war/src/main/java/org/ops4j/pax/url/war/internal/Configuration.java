@@ -17,6 +17,8 @@
  */
 package org.ops4j.pax.url.war.internal;
 
+import java.io.File;
+
 /**
  * War protocol configuration.
  *
@@ -39,4 +41,18 @@ public interface Configuration
      * @return true if pax-logging packages should be imported
      */
     Boolean getImportPaxLoggingPackages();
+
+    /**
+     * Returns the directory where generated web bundles are cached, or null if they should not be cached.
+     *
+     * @return cache directory
+     */
+    File getCacheDirectory();
+
+    /**
+     * Returns the maximum total size (in bytes) of cached web bundles.
+     *
+     * @return maximum cache size
+     */
+    Long getCacheMaxSize();
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Extracts the packages of the classes named in a web.xml or web-fragment.xml descriptor: the content of the elements
+ * whose name contains "-class", as servlet-class or listener-class.
+ * <p>
+ * Descriptors are streamed, never held in memory, and their DTD is neither loaded nor processed. Each thread uses its
+ * own parser factory, so descriptors can be scanned concurrently.
+ */
+class WebXmlScanner
+{
+
+    private static final String CLASS_SUFFIX = "-class";
+    private static final String METADATA_COMPLETE = "metadata-complete";
+
+    /**
+     * Parser factories, by thread (factories are not guaranteed to be thread safe).
+     */
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>()
+    {
+        @Override
+        protected XMLInputFactory initialValue()
+        {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+            factory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+            factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+            return factory;
+        }
+    };
+
+    private WebXmlScanner()
+    {
+        // utility class
+    }
+
+    /**
+     * Scans a descriptor.
+     *
+     * @param in       descriptor content, closed once scanned
+     * @param packages packages found so far, where the packages of the descriptor are added
+     *
+     * @return true if the descriptor is metadata complete (its root element has metadata-complete="true"), in which
+     *         case the web fragments of the war are ignored
+     *
+     * @throws IOException if the descriptor cannot be read or parsed
+     */
+    static boolean scan( final InputStream in, final Set<String> packages )
+        throws IOException
+    {
+        try
+        {
+            final XMLStreamReader reader = FACTORY.get().createXMLStreamReader( in );
+            try
+            {
+                boolean metadataComplete = false;
+                int depth = 0;
+                // depth of the element whose content is a class name, 0 out of such an element
+                int classDepth = 0;
+                final StringBuilder className = new StringBuilder();
+                while( reader.hasNext() )
+                {
+                    switch( reader.next() )
+                    {
+                        case XMLStreamConstants.START_ELEMENT:
+                            depth++;
+                            if( depth == 1 )
+                            {
+                                final String value = reader.getAttributeValue( null, METADATA_COMPLETE );
+                                metadataComplete = value != null && "true".equalsIgnoreCase( value.trim() );
+                            }
+                            else if( classDepth == 0 && reader.getLocalName().contains( CLASS_SUFFIX ) )
+                            {
+                                classDepth = depth;
+                                className.setLength( 0 );
+                            }
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            if( classDepth > 0 )
+                            {
+                                className.append(
+                                    reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()
+                                );
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            if( depth == classDepth )
+                            {
+                                addPackage( packages, className.toString().trim() );
+                                classDepth = 0;
+                            }
+                            depth--;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                return metadataComplete;
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch( XMLStreamException e )
+        {
+            throw new IOException( "Descriptor cannot be parsed (" + e.getMessage() + ")", e );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void addPackage( final Set<String> packages, final String className )
+    {
+        final int dot = className.lastIndexOf( '.' );
+        // classes of the default package cannot be imported
+        if( dot > 0 )
+        {
+            packages.add( className.substring( 0, dot ) );
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+import org.ops4j.pax.url.war.ServiceConstants;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Unit tests for {@link WarConnection} and {@link WebBundleConnection}.
+ */
+public class WarConnectionTest
+{
+
+    private File m_dir;
+    private File m_cache;
+
+    @Before
+    public void setUp()
+    {
+        m_dir = new File( "target/war-connection-test" );
+        delete( m_dir );
+        m_cache = new File( m_dir, "cache" );
+        m_dir.mkdirs();
+    }
+
+    @Test
+    public void bundlesAreCachedByWarProtocolAndInstructions()
+        throws Exception
+    {
+        final File war = new File( m_dir, "test.war" );
+        writeWar( war, "a" );
+        final Properties properties = new Properties();
+        properties.setProperty( ServiceConstants.PROPERTY_CACHE_DIRECTORY, m_cache.getPath() );
+        final Configuration configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties ) );
+
+        final byte[] first = read( openWar( war, "Bundle-SymbolicName=test", configuration ) );
+        assertEquals( "test", new JarInputStream( new ByteArrayInputStream( first ) ).getManifest()
+            .getMainAttributes().getValue( "Bundle-SymbolicName" ) );
+        assertEquals( 1, bundles() );
+        assertArrayEquals( first, read( openWar( war, "Bundle-SymbolicName=test", configuration ) ) );
+        assertEquals( 1, bundles() );
+
+        // the instructions of the url are part of the key
+        read( openWar( war, "Bundle-SymbolicName=other", configuration ) );
+        assertEquals( 2, bundles() );
+        // so is the connection type, as war and webbundle urls transform the same war differently
+        read( openWebBundle( war, "Web-ContextPath=test", configuration ) );
+        assertEquals( 3, bundles() );
+        read( openWar( war, "Web-ContextPath=test", configuration ) );
+        assertEquals( 4, bundles() );
+        // and the war content
+        writeWar( war, "b" );
+        read( openWar( war, "Bundle-SymbolicName=test", configuration ) );
+        assertEquals( 5, bundles() );
+    }
+
+    private static InputStream openWar( final File war, final String instructions, final Configuration configuration )
+        throws IOException
+    {
+        return new WarConnection( url( "war", war, instructions ), configuration ).getInputStream();
+    }
+
+    private static InputStream openWebBundle( final File war,
+                                              final String instructions,
+                                              final Configuration configuration )
+        throws IOException
+    {
+        return new WebBundleConnection( url( "webbundle", war, instructions ), configuration ).getInputStream();
+    }
+
+    private static URL url( final String protocol, final File war, final String instructions )
+        throws IOException
+    {
+        return new URL( null, protocol + ":" + war.toURI().toURL() + "?" + instructions, new NoHandler() );
+    }
+
+    private int bundles()
+    {
+        final File[] files = m_cache.listFiles();
+        assertNotNull( files );
+        int count = 0;
+        for( File file : files )
+        {
+            if( file.getName().endsWith( ".jar" ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a war containing a manifest, a web.xml, and a resource of given content.
+     */
+    private static void writeWar( final File file, final String content )
+        throws IOException
+    {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( file ), manifest );
+        try
+        {
+            out.putNextEntry( new ZipEntry( "WEB-INF/web.xml" ) );
+            out.write( ( "<web-app><servlet><servlet-name>test</servlet-name>"
+                         + "<servlet-class>com.example.servlet.TestServlet</servlet-class></servlet></web-app>"
+                       ).getBytes( "UTF-8" ) );
+            out.putNextEntry( new ZipEntry( "content.txt" ) );
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BundleCache.copy( in, out );
+        return out.toByteArray();
+    }
+
+    private static void delete( final File file )
+    {
+        final File[] children = file.listFiles();
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+    private static class NoHandler
+        extends URLStreamHandler
+    {
+
+        @Override
+        protected URLConnection openConnection( final URL u )
+            throws IOException
+        {
+            throw new IOException( "Not supported" );
+        }
+
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link WebXmlScanner}.
+ */
+public class WebXmlScannerTest
+{
+
+    @Test
+    public void packagesOfClassElements()
+        throws IOException
+    {
+        final Set<String> packages = new LinkedHashSet<String>();
+        final boolean metadataComplete = scan(
+            "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">"
+            + "<listener><listener-class>org.example.listener.Listener</listener-class></listener>"
+            + "<filter><filter-name>f</filter-name>"
+            + "<filter-class>\n  org.example.filter.Filter\n</filter-class></filter>"
+            + "<servlet><servlet-name>s</servlet-name><servlet-class>org.example.Servlet</servlet-class></servlet>"
+            + "<servlet><servlet-name>t</servlet-name><servlet-class>org.example.Other</servlet-class></servlet>"
+            + "<servlet><servlet-name>u</servlet-name><servlet-class>DefaultPackage</servlet-class></servlet>"
+            + "</web-app>",
+            packages
+        );
+        assertFalse( metadataComplete );
+        assertEquals(
+            Arrays.asList( "org.example.listener", "org.example.filter", "org.example" ),
+            Arrays.asList( packages.toArray() )
+        );
+    }
+
+    @Test
+    public void dtdIsNotLoaded()
+        throws IOException
+    {
+        final Set<String> packages = new LinkedHashSet<String>();
+        scan(
+            "<!DOCTYPE web-app PUBLIC \"-//Sun Microsystems, Inc.//DTD Web Application 2.3//EN\""
+            + " \"http://localhost:1/web-app_2_3.dtd\">"
+            + "<web-app><servlet><servlet-name>s</servlet-name>"
+            + "<servlet-class><![CDATA[org.example.Servlet]]></servlet-class></servlet></web-app>",
+            packages
+        );
+        assertTrue( packages.contains( "org.example" ) );
+    }
+
+    @Test
+    public void metadataComplete()
+        throws IOException
+    {
+        assertTrue( scan( "<web-app metadata-complete=\"true\"/>", new LinkedHashSet<String>() ) );
+        assertFalse( scan( "<web-app metadata-complete=\"false\"/>", new LinkedHashSet<String>() ) );
+    }
+
+    @Test( expected = IOException.class )
+    public void malformedDescriptor()
+        throws IOException
+    {
+        scan( "<web-app><servlet></web-app>", new LinkedHashSet<String>() );
+    }
+
+    private static boolean scan( final String descriptor, final Set<String> packages )
+        throws IOException
+    {
+        return WebXmlScanner.scan( new ByteArrayInputStream( descriptor.getBytes( "UTF-8" ) ), packages );
+    }
+
+}
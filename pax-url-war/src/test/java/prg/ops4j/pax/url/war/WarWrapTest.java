@@ -2,12 +2,18 @@ package prg.ops4j.pax.url.war;
 
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.jar.JarInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 /*
  * Copyright 2008 Alin Dreghiciu.
  *
@@ -49,4 +55,113 @@ public class WarWrapTest {
         }
         jis.close();
     }
+
+    @Test
+    public void shouldWrapRemoteWar() throws IOException {
+        System.setProperty("java.protocol.handler.pkgs", "org.ops4j.pax.url");
+        // a war that is not a local file (here, an entry of a zip) is downloaded once, then scanned and wrapped
+        ByteArrayOutputStream war = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(war);
+        out.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+        out.write(("<web-app><servlet><servlet-name>test</servlet-name>"
+            + "<servlet-class>com.example.servlet.TestServlet</servlet-class></servlet></web-app>").getBytes("UTF-8"));
+        out.putNextEntry(new ZipEntry("WEB-INF/lib/test.jar"));
+        out.putNextEntry(new ZipEntry("WEB-INF/lib/servlet-api.jar"));
+        out.close();
+        File zip = new File("target/remote-war.zip");
+        out = new ZipOutputStream(new FileOutputStream(zip));
+        out.putNextEntry(new ZipEntry("test.war"));
+        out.write(war.toByteArray());
+        out.close();
+
+        URL url = new URL("war:jar:" + zip.toURI() + "!/test.war");
+        JarInputStream jis = new JarInputStream(url.openStream());
+        Manifest manifest = jis.getManifest();
+        assertThat(manifest.getMainAttributes().getValue("Bundle-ClassPath"),
+                   is("WEB-INF/classes,WEB-INF/lib/test.jar"));
+        assertThat(manifest.getMainAttributes().getValue("Import-Package").contains("com.example.servlet"),
+                   is(true));
+        jis.close();
+    }
+
+    @Test
+    public void shouldImportPackagesOfWebFragments() throws IOException {
+        System.setProperty("java.protocol.handler.pkgs", "org.ops4j.pax.url");
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(jar);
+        out.putNextEntry(new ZipEntry("META-INF/web-fragment.xml"));
+        out.write(("<web-fragment><listener>"
+            + "<listener-class>com.example.fragment.TestListener</listener-class>"
+            + "</listener></web-fragment>").getBytes("UTF-8"));
+        out.close();
+        File war = new File("target/fragment.war");
+        out = new ZipOutputStream(new FileOutputStream(war));
+        out.putNextEntry(new ZipEntry("WEB-INF/lib/fragment.jar"));
+        out.write(jar.toByteArray());
+        out.close();
+
+        JarInputStream jis = new JarInputStream(new URL("war:" + war.toURI()).openStream());
+        assertThat(jis.getManifest().getMainAttributes().getValue("Import-Package").contains("com.example.fragment"),
+                   is(true));
+        jis.close();
+    }
+
+    @Test
+    public void shouldImportPackagesOfWebFragmentsFollowingClasses() throws IOException {
+        System.setProperty("java.protocol.handler.pkgs", "org.ops4j.pax.url");
+        // maven writes META-INF resources after the classes, only the manifest comes first
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(jar);
+        out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+        out.write("Manifest-Version: 1.0\r\n\r\n".getBytes("UTF-8"));
+        out.putNextEntry(new ZipEntry("com/example/late/TestServlet.class"));
+        out.putNextEntry(new ZipEntry("META-INF/web-fragment.xml"));
+        out.write(("<web-fragment><servlet><servlet-name>late</servlet-name>"
+            + "<servlet-class>com.example.late.TestServlet</servlet-class>"
+            + "</servlet></web-fragment>").getBytes("UTF-8"));
+        out.close();
+        File war = new File("target/late-fragment.war");
+        out = new ZipOutputStream(new FileOutputStream(war));
+        out.putNextEntry(new ZipEntry("WEB-INF/lib/late.jar"));
+        out.write(jar.toByteArray());
+        out.close();
+
+        JarInputStream jis = new JarInputStream(new URL("war:" + war.toURI()).openStream());
+        assertThat(jis.getManifest().getMainAttributes().getValue("Import-Package").contains("com.example.late"),
+                   is(true));
+        jis.close();
+    }
+
+    @Test
+    public void shouldImportPackagesOfWebFragmentsOfStoredJars() throws IOException {
+        System.setProperty("java.protocol.handler.pkgs", "org.ops4j.pax.url");
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(jar);
+        out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+        out.write("Manifest-Version: 1.0\r\n\r\n".getBytes("UTF-8"));
+        out.putNextEntry(new ZipEntry("META-INF/web-fragment.xml"));
+        out.write(("<web-fragment><filter>"
+            + "<filter-class>com.example.stored.TestFilter</filter-class>"
+            + "</filter></web-fragment>").getBytes("UTF-8"));
+        out.putNextEntry(new ZipEntry("com/example/stored/TestFilter.class"));
+        out.close();
+        byte[] content = jar.toByteArray();
+        File war = new File("target/stored-fragment.war");
+        out = new ZipOutputStream(new FileOutputStream(war));
+        // jars are often stored, their web fragment is then looked up in place
+        ZipEntry stored = new ZipEntry("WEB-INF/lib/stored.jar");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        stored.setCrc(crc.getValue());
+        out.putNextEntry(stored);
+        out.write(content);
+        out.close();
+
+        JarInputStream jis = new JarInputStream(new URL("war:" + war.toURI()).openStream());
+        assertThat(jis.getManifest().getMainAttributes().getValue("Import-Package").contains("com.example.stored"),
+                   is(true));
+        jis.close();
+    }
 }
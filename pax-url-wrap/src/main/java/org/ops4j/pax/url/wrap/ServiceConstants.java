@@ -34,6 +34,31 @@ public interface ServiceConstants
      * Certificate check configuration property name.
      */
     static final String PROPERTY_CERTIFICATE_CHECK = PID + ".certificateCheck";
+    /**
+     * Directory where created bundles are cached, so that wrapping the same jar with the same instructions again
+     * reuses them. Not set by default (no cache).
+     */
+    static final String PROPERTY_CACHE_DIRECTORY = PID + ".cache.directory";
+    /**
+     * Maximum total size (in bytes) of cached bundles, least recently used ones being removed first. Defaults to
+     * 268435456 (256 MB).
+     */
+    static final String PROPERTY_CACHE_MAX_SIZE = PID + ".cache.maxSize";
+    /**
+     * Engine creating bundles, {@link #ENGINE_BND} (default) or {@link #ENGINE_PARALLEL}.
+     */
+    static final String PROPERTY_ENGINE = PID + ".engine";
+    /**
+     * Engine letting bnd analyze the whole jar.
+     */
+    static final String ENGINE_BND = "bnd";
+    /**
+     * Engine parsing the class files of the jar in parallel before bnd computes the manifest, then streaming the
+     * bundle out of the jar: faster for jars with many classes, and without holding the jar in memory. Classes are
+     * parsed by bnd as usual if the instructions inspect them (<code>${classes}</code> macro, component or metatype
+     * annotations, plugins).
+     */
+    static final String ENGINE_PARALLEL = "parallel";
     /**
      * The protocol name.
      */
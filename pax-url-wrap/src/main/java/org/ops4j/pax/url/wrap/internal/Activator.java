@@ -71,4 +71,16 @@ public final class Activator
         );
     }
 
+    /**
+     * Stops the pool parsing classes of the parallel engine.
+     *
+     * @see HandlerActivator#stop(BundleContext)
+     */
+    @Override
+    public void stop( final BundleContext bundleContext )
+    {
+        super.stop( bundleContext );
+        ParallelWrapper.shutdown();
+    }
+
 }
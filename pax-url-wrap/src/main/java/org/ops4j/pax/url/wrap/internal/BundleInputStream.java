@@ -0,0 +1,237 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import aQute.bnd.osgi.Jar;
+import org.ops4j.pax.url.commons.zip.ZipArchive;
+import org.ops4j.pax.url.commons.zip.ZipArchiveEntry;
+
+/**
+ * Bundle made of the entries of a jar with a new manifest, written as it is read.
+ * <p>
+ * The manifest comes first, then the entries of the jar in their order, copied a few kilobytes at a time: whatever
+ * the size of the jar, only the entry being copied is open and only a chunk of it is held in memory. As bnd does,
+ * directory entries are created for the parents of all entries.
+ */
+class BundleInputStream
+    extends InputStream
+{
+
+    /**
+     * Number of bytes of an entry copied at a time.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final ZipArchive m_jar;
+    private final Manifest m_manifest;
+    private final Iterator<ZipArchiveEntry> m_entries;
+    /**
+     * Output not read yet (from {@link #m_position}).
+     */
+    private final Buffer m_buffer = new Buffer();
+    private final ZipOutputStream m_out = new ZipOutputStream( m_buffer );
+    /**
+     * Names of written entries and directories.
+     */
+    private final Set<String> m_written = new HashSet<String>();
+    private final byte[] m_chunk = new byte[CHUNK_SIZE];
+    /**
+     * Content of the entry being copied, null between entries.
+     */
+    private InputStream m_entry;
+    private int m_position;
+    private boolean m_started;
+    private boolean m_finished;
+
+    /**
+     * Creates the bundle stream.
+     *
+     * @param jar      jar whose entries are copied, closed with the stream
+     * @param manifest manifest of the bundle, replacing the one of the jar
+     */
+    BundleInputStream( final ZipArchive jar, final Manifest manifest )
+    {
+        m_jar = jar;
+        m_manifest = manifest;
+        m_entries = jar.getEntries().iterator();
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        final byte[] one = new byte[1];
+        return read( one, 0, 1 ) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read( final byte[] bytes, final int offset, final int length )
+        throws IOException
+    {
+        if( length == 0 )
+        {
+            return 0;
+        }
+        while( m_position == m_buffer.size() )
+        {
+            m_buffer.reset();
+            m_position = 0;
+            if( !write() )
+            {
+                return -1;
+            }
+        }
+        final int count = Math.min( length, m_buffer.size() - m_position );
+        System.arraycopy( m_buffer.bytes(), m_position, bytes, offset, count );
+        m_position += count;
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return m_buffer.size() - m_position;
+    }
+
+    /**
+     * Writes the next part of the bundle (that may not produce output yet, as it is compressed).
+     *
+     * @return false if the whole bundle was written already
+     */
+    private boolean write()
+        throws IOException
+    {
+        if( m_finished )
+        {
+            return false;
+        }
+        if( !m_started )
+        {
+            m_started = true;
+            m_written.add( JarFile.MANIFEST_NAME );
+            writeDirectories( JarFile.MANIFEST_NAME );
+            m_out.putNextEntry( new ZipEntry( JarFile.MANIFEST_NAME ) );
+            Jar.writeManifest( m_manifest, m_out );
+            m_out.closeEntry();
+            return true;
+        }
+        if( m_entry != null )
+        {
+            final int count = m_entry.read( m_chunk );
+            if( count < 0 )
+            {
+                m_entry.close();
+                m_entry = null;
+                m_out.closeEntry();
+            }
+            else
+            {
+                m_out.write( m_chunk, 0, count );
+            }
+            return true;
+        }
+        while( m_entries.hasNext() )
+        {
+            final ZipArchiveEntry entry = m_entries.next();
+            final String name = entry.getName();
+            // the manifest of the jar is replaced (whatever its case)
+            if( entry.isDirectory()
+                || name.equalsIgnoreCase( JarFile.MANIFEST_NAME )
+                || !m_written.add( name ) )
+            {
+                continue;
+            }
+            writeDirectories( name );
+            final ZipEntry copy = new ZipEntry( name );
+            copy.setTime( entry.getTime() );
+            m_out.putNextEntry( copy );
+            m_entry = m_jar.getInputStream( entry );
+            return true;
+        }
+        m_out.finish();
+        m_finished = true;
+        return true;
+    }
+
+    /**
+     * Writes the entries of the parent directories of an entry, if not written yet.
+     */
+    private void writeDirectories( final String name )
+        throws IOException
+    {
+        int end = name.indexOf( '/' );
+        while( end > 0 )
+        {
+            final String directory = name.substring( 0, end + 1 );
+            if( m_written.add( directory ) )
+            {
+                m_out.putNextEntry( new ZipEntry( directory ) );
+                m_out.closeEntry();
+            }
+            end = name.indexOf( '/', end + 1 );
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            if( m_entry != null )
+            {
+                m_entry.close();
+                m_entry = null;
+            }
+            m_out.close();
+        }
+        finally
+        {
+            m_finished = true;
+            m_jar.close();
+        }
+    }
+
+    /**
+     * Gives access to the written bytes.
+     */
+    private static class Buffer
+        extends ByteArrayOutputStream
+    {
+
+        Buffer()
+        {
+            super( 2 * CHUNK_SIZE );
+        }
+
+        byte[] bytes()
+        {
+            return buf;
+        }
+
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Package references of the class files of a jar, as parsed by bnd.
+ * <p>
+ * Classes are grouped by the directory they are stored in. A directory holding classes of more than one package is
+ * not grouped (its classes have to be analyzed one by one), nor are the classes bnd cannot parse.
+ */
+class ClassAnalysis
+{
+
+    /**
+     * Classes by directory (path of the directory including the trailing slash, empty for the root).
+     */
+    private final Map<String, Group> m_groups = new TreeMap<String, Group>();
+    /**
+     * Directories holding classes of more than one package.
+     */
+    private final Set<String> m_mixed = new TreeSet<String>();
+    /**
+     * Paths of classes that cannot be parsed.
+     */
+    private final Set<String> m_unparsed = new TreeSet<String>();
+
+    /**
+     * Records a parsed class.
+     *
+     * @param path     path of the class file
+     * @param pkg      package of the class (binary name, as "org/ops4j/pax/url")
+     * @param version  class file major version
+     * @param referred packages referred by the class (binary names)
+     * @param apiUses  packages used by the API of the class (binary names)
+     */
+    void addClass( final String path,
+                   final String pkg,
+                   final int version,
+                   final Set<String> referred,
+                   final Set<String> apiUses )
+    {
+        final String directory = directory( path );
+        if( m_mixed.contains( directory ) )
+        {
+            return;
+        }
+        Group group = m_groups.get( directory );
+        if( group == null )
+        {
+            group = new Group( pkg );
+            m_groups.put( directory, group );
+        }
+        else if( !group.m_pkg.equals( pkg ) )
+        {
+            m_groups.remove( directory );
+            m_mixed.add( directory );
+            return;
+        }
+        group.m_versions.add( version );
+        group.m_referred.addAll( referred );
+        group.m_apiUses.addAll( apiUses );
+    }
+
+    /**
+     * Records a class that cannot be parsed.
+     *
+     * @param path path of the class file
+     */
+    void addUnparsed( final String path )
+    {
+        m_unparsed.add( path );
+    }
+
+    /**
+     * Merges the analysis of other classes of the same jar.
+     *
+     * @param other analysis to merge
+     *
+     * @return this analysis
+     */
+    ClassAnalysis merge( final ClassAnalysis other )
+    {
+        m_unparsed.addAll( other.m_unparsed );
+        for( String directory : other.m_mixed )
+        {
+            m_groups.remove( directory );
+            m_mixed.add( directory );
+        }
+        for( Map.Entry<String, Group> entry : other.m_groups.entrySet() )
+        {
+            final String directory = entry.getKey();
+            final Group group = m_groups.get( directory );
+            if( m_mixed.contains( directory ) )
+            {
+                continue;
+            }
+            if( group == null )
+            {
+                m_groups.put( directory, entry.getValue() );
+            }
+            else if( group.m_pkg.equals( entry.getValue().m_pkg ) )
+            {
+                group.m_versions.addAll( entry.getValue().m_versions );
+                group.m_referred.addAll( entry.getValue().m_referred );
+                group.m_apiUses.addAll( entry.getValue().m_apiUses );
+            }
+            else
+            {
+                m_groups.remove( directory );
+                m_mixed.add( directory );
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the grouped classes, by directory.
+     */
+    Map<String, Group> getGroups()
+    {
+        return Collections.unmodifiableMap( m_groups );
+    }
+
+    /**
+     * Returns true if the class has to be analyzed on its own: it cannot be parsed, or is not grouped with the other
+     * classes of its directory.
+     *
+     * @param path path of the class file
+     */
+    boolean isUngrouped( final String path )
+    {
+        return m_unparsed.contains( path ) || !m_groups.containsKey( directory( path ) );
+    }
+
+    static String directory( final String path )
+    {
+        return path.substring( 0, path.lastIndexOf( '/' ) + 1 );
+    }
+
+    /**
+     * Classes of one package stored in the same directory.
+     */
+    static class Group
+    {
+
+        /**
+         * Package (binary name).
+         */
+        private final String m_pkg;
+        /**
+         * Class file major versions in use.
+         */
+        private final SortedSet<Integer> m_versions = new TreeSet<Integer>();
+        /**
+         * Referred packages (binary names).
+         */
+        private final SortedSet<String> m_referred = new TreeSet<String>();
+        /**
+         * Packages used by the API of the classes (binary names).
+         */
+        private final SortedSet<String> m_apiUses = new TreeSet<String>();
+
+        Group( final String pkg )
+        {
+            m_pkg = pkg;
+        }
+
+        String getPackage()
+        {
+            return m_pkg;
+        }
+
+        SortedSet<Integer> getVersions()
+        {
+            return Collections.unmodifiableSortedSet( m_versions );
+        }
+
+        SortedSet<String> getReferred()
+        {
+            return Collections.unmodifiableSortedSet( m_referred );
+        }
+
+        SortedSet<String> getApiUses()
+        {
+            return Collections.unmodifiableSortedSet( m_apiUses );
+        }
+
+    }
+
+}
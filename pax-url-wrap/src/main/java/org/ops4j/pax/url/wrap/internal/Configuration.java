@@ -17,6 +17,8 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
+
 /**
  * Handler configuration.
  *
@@ -33,4 +35,25 @@ public interface Configuration
      */
     Boolean getCertificateCheck();
 
+    /**
+     * Returns the directory where created bundles are cached, or null if they should not be cached.
+     *
+     * @return cache directory
+     */
+    File getCacheDirectory();
+
+    /**
+     * Returns the maximum total size (in bytes) of cached bundles.
+     *
+     * @return maximum cache size
+     */
+    Long getCacheMaxSize();
+
+    /**
+     * Returns the engine creating bundles.
+     *
+     * @return engine, one of the ServiceConstants.ENGINE_* values
+     */
+    String getEngine();
+
 }
@@ -17,6 +17,7 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.url.wrap.ServiceConstants;
 import org.ops4j.util.property.PropertyResolver;
@@ -34,6 +35,11 @@ public class ConfigurationImpl
     implements Configuration
 {
 
+    /**
+     * Default maximum size of the bundle cache (256 MB).
+     */
+    private static final Long DEFAULT_CACHE_MAX_SIZE = 256L * 1024 * 1024;
+
     /**
      * Property resolver. Cannot be null.
      */
@@ -64,4 +70,61 @@ public class ConfigurationImpl
         return get( ServiceConstants.PROPERTY_CERTIFICATE_CHECK );
     }
 
+    /**
+     * @see Configuration#getCacheDirectory()
+     */
+    public File getCacheDirectory()
+    {
+        if( !contains( ServiceConstants.PROPERTY_CACHE_DIRECTORY ) )
+        {
+            final String directory = m_propertyResolver.get( ServiceConstants.PROPERTY_CACHE_DIRECTORY );
+            return set( ServiceConstants.PROPERTY_CACHE_DIRECTORY,
+                        directory == null || directory.trim().length() == 0 ? null : new File( directory.trim() )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_CACHE_DIRECTORY );
+    }
+
+    /**
+     * @see Configuration#getCacheMaxSize()
+     */
+    public Long getCacheMaxSize()
+    {
+        if( !contains( ServiceConstants.PROPERTY_CACHE_MAX_SIZE ) )
+        {
+            Long maxSize = DEFAULT_CACHE_MAX_SIZE;
+            final String value = m_propertyResolver.get( ServiceConstants.PROPERTY_CACHE_MAX_SIZE );
+            if( value != null )
+            {
+                try
+                {
+                    maxSize = Long.valueOf( value.trim() );
+                }
+                catch( NumberFormatException e )
+                {
+                    // use default
+                }
+            }
+            return set( ServiceConstants.PROPERTY_CACHE_MAX_SIZE, maxSize );
+        }
+        return get( ServiceConstants.PROPERTY_CACHE_MAX_SIZE );
+    }
+
+    /**
+     * @see Configuration#getEngine()
+     */
+    public String getEngine()
+    {
+        if( !contains( ServiceConstants.PROPERTY_ENGINE ) )
+        {
+            final String engine = m_propertyResolver.get( ServiceConstants.PROPERTY_ENGINE );
+            return set( ServiceConstants.PROPERTY_ENGINE,
+                        ServiceConstants.ENGINE_PARALLEL.equalsIgnoreCase( engine == null ? null : engine.trim() )
+                        ? ServiceConstants.ENGINE_PARALLEL
+                        : ServiceConstants.ENGINE_BND
+            );
+        }
+        return get( ServiceConstants.PROPERTY_ENGINE );
+    }
+
 }
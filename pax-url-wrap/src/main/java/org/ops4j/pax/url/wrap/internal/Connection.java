@@ -18,15 +18,34 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.Manifest;
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.net.URLUtils;
 import org.ops4j.pax.swissbox.bnd.BndUtils;
+import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+import org.ops4j.pax.url.commons.zip.ZipArchive;
+import org.ops4j.pax.url.wrap.ServiceConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Url connection for wrap protocol handler.
@@ -38,6 +57,8 @@ public class Connection
     extends URLConnection
 {
 
+    private static final Logger LOG = LoggerFactory.getLogger( Connection.class );
+
     /**
      * Parsed url.
      */
@@ -69,6 +90,14 @@ public class Connection
 
     /**
      * Returns an input stream for the bundle created from the jar.
+     * <p>
+     * If the manifest is kept (overwrite mode KEEP) and the jar is a bundle already, the jar is returned as is.
+     * <p>
+     * With the parallel engine, class files of the jar are parsed in parallel and the bundle is streamed out of the jar
+     * (see {@link ParallelWrapper}). Classes of a jar already wrapped (same content) are not parsed again.
+     * <p>
+     * If a cache directory is configured, the bundle is taken from the cache when the same jar (same released maven
+     * artifact, or same content) was already wrapped with the same instructions.
      *
      * @return the input stream for the bundle created from the jar
      *
@@ -80,17 +109,294 @@ public class Connection
         throws IOException
     {
         connect();
+        final BundleCache cache = BundleCache.getInstance(
+            m_configuration.getCacheDirectory(), m_configuration.getCacheMaxSize()
+        );
+        final URL wrappedJarURL = m_parser.getWrappedJarURL();
+        String key = null;
+        if( cache != null && isImmutable( wrappedJarURL ) )
+        {
+            key = cacheKey( wrappedJarURL.toExternalForm() );
+            final InputStream bundle = cache.get( key );
+            if( bundle != null )
+            {
+                return bundle;
+            }
+        }
+
+        File jar = localFile( wrappedJarURL );
+        String hash = null;
+        boolean downloaded = false;
+        if( jar == null && ( cache != null || m_parser.getOverwriteMode() == OverwriteMode.KEEP || isParallel() ) )
+        {
+            // the jar is needed more than once
+            jar = cache != null ? cache.createTempFile( "source" ) : File.createTempFile( "pax-url-wrap-", ".jar" );
+            downloaded = true;
+            final MessageDigest digest = BundleCache.newDigest();
+            BundleCache.copy(
+                new DigestInputStream( openWrappedJar(), digest ),
+                new BufferedOutputStream( new FileOutputStream( jar ) )
+            );
+            hash = BundleCache.toHex( digest.digest() );
+        }
+        try
+        {
+            if( jar != null && m_parser.getOverwriteMode() == OverwriteMode.KEEP && isBundle( jar ) )
+            {
+                LOG.debug( "Jar [" + wrappedJarURL + "] is already a bundle, manifest kept" );
+                InputStream in = new FileInputStream( jar );
+                if( downloaded )
+                {
+                    in = new DeleteOnCloseInputStream( in, jar );
+                    downloaded = false;
+                }
+                return new BufferedInputStream( in );
+            }
+            if( cache == null )
+            {
+                InputStream bundle = createBundle( jar, hash );
+                if( downloaded )
+                {
+                    // the jar is read as the bundle is
+                    bundle = new DeleteOnCloseInputStream( bundle, jar );
+                    downloaded = false;
+                }
+                return bundle;
+            }
+            if( key == null )
+            {
+                if( hash == null )
+                {
+                    hash = hash( jar );
+                }
+                key = cacheKey( "sha-256:" + hash );
+            }
+            final InputStream bundle = cache.get( key );
+            if( bundle != null )
+            {
+                return bundle;
+            }
+            return cache.put( key, createBundle( jar, hash ) );
+        }
+        finally
+        {
+            if( downloaded )
+            {
+                delete( jar );
+            }
+        }
+    }
+
+    /**
+     * Returns true if the manifest of the jar, looked up in the zip central directory, makes it a bundle that the
+     * overwrite mode KEEP leaves unchanged: it exports or imports packages.
+     *
+     * @param jar jar file
+     *
+     * @return true if the jar can be used as is
+     */
+    static boolean isBundle( final File jar )
+    {
+        try
+        {
+            final ZipArchive archive = new ZipArchive( jar );
+            try
+            {
+                final Manifest manifest = archive.getManifest();
+                return manifest != null
+                       && ( manifest.getMainAttributes().getValue( "Export-Package" ) != null
+                            || manifest.getMainAttributes().getValue( "Import-Package" ) != null );
+            }
+            finally
+            {
+                archive.close();
+            }
+        }
+        catch( IOException e )
+        {
+            // let the bundle creation report it
+            return false;
+        }
+    }
+
+    /**
+     * Removes a downloaded jar, or schedules its removal if it is still in use (as the mapping of a
+     * {@link ZipArchive} that is not garbage collected yet may prevent it on some platforms).
+     */
+    private static void delete( final File jar )
+    {
+        if( !jar.delete() && jar.exists() )
+        {
+            jar.deleteOnExit();
+        }
+    }
+
+    /**
+     * Returns the file of a file: url, or null.
+     */
+    private static File localFile( final URL url )
+    {
+        if( !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+        try
+        {
+            final URI uri = url.toURI();
+            // relative paths (as file:target/test.jar) make opaque uris
+            final File file = uri.isOpaque() ? new File( uri.getSchemeSpecificPart() ) : new File( uri );
+            return file.isFile() ? file : null;
+        }
+        catch( URISyntaxException e )
+        {
+            return null;
+        }
+        catch( IllegalArgumentException e )
+        {
+            return null;
+        }
+    }
+
+    private static String hash( final File file )
+        throws IOException
+    {
+        final MessageDigest digest = BundleCache.newDigest();
+        final InputStream in = new DigestInputStream( new FileInputStream( file ), digest );
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            while( in.read( buffer ) >= 0 )
+            {
+                // digest only
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return BundleCache.toHex( digest.digest() );
+    }
+
+    private InputStream openWrappedJar()
+        throws IOException
+    {
+        return URLUtils.prepareInputStream(
+            m_parser.getWrappedJarURL(),
+            !m_configuration.getCertificateCheck()
+        );
+    }
+
+    /**
+     * Creates the bundle with the configured engine.
+     *
+     * @param jar  local copy of the wrapped jar, null if there is none
+     * @param hash hash of the content of the jar, null if not computed yet
+     */
+    private InputStream createBundle( final File jar, final String hash )
+        throws IOException
+    {
+        if( jar != null && isParallel() )
+        {
+            // the class analysis of a jar is reused, whatever the headers, based on its content
+            return ParallelWrapper.createBundle(
+                jar,
+                hash != null ? hash : hash( jar ),
+                m_parser.getWrappingProperties(),
+                url.toExternalForm(),
+                m_parser.getOverwriteMode()
+            );
+        }
         return BndUtils.createBundle(
-            URLUtils.prepareInputStream(
-                m_parser.getWrappedJarURL(),
-                !m_configuration.getCertificateCheck()
-            ),
+            jar != null ? new BufferedInputStream( new FileInputStream( jar ) ) : openWrappedJar(),
             m_parser.getWrappingProperties(),
             url.toExternalForm(),
             m_parser.getOverwriteMode()
         );
     }
 
+    private boolean isParallel()
+    {
+        return ServiceConstants.ENGINE_PARALLEL.equals( m_configuration.getEngine() );
+    }
+
+    /**
+     * Computes the cache key of the bundle: it depends on the wrapped jar, the wrapping instructions and the overwrite
+     * mode, as well as on the url itself (recorded in the manifest).
+     *
+     * @param jarId identifies the content of the wrapped jar
+     */
+    private String cacheKey( final String jarId )
+        throws IOException
+    {
+        final StringBuilder instructions = new StringBuilder();
+        for( Map.Entry<Object, Object> entry : new TreeMap<Object, Object>( m_parser.getWrappingProperties() ).entrySet() )
+        {
+            instructions.append( entry.getKey() ).append( '=' ).append( entry.getValue() ).append( '\n' );
+        }
+        return BundleCache.key(
+            url.toExternalForm(), jarId, instructions.toString(), m_parser.getOverwriteMode().name()
+        );
+    }
+
+    /**
+     * Returns true if the url refers to a released maven artifact, whose content never changes.
+     *
+     * @param url wrapped jar url
+     *
+     * @return true for released artifacts
+     */
+    static boolean isImmutable( final URL url )
+    {
+        if( !"mvn".equals( url.getProtocol() ) )
+        {
+            return false;
+        }
+        final String spec = url.toExternalForm();
+        final String[] segments = spec.substring( spec.lastIndexOf( '!' ) + 1 ).split( "/" );
+        if( segments.length < 3 )
+        {
+            return false;
+        }
+        final String version = segments[2].trim();
+        return version.length() > 0
+               && !version.endsWith( "SNAPSHOT" )
+               && !"LATEST".equals( version )
+               && !"RELEASE".equals( version )
+               && version.indexOf( '[' ) < 0
+               && version.indexOf( '(' ) < 0;
+    }
+
+    /**
+     * Stream reading (from) a downloaded jar, that removes the jar once closed.
+     */
+    private static class DeleteOnCloseInputStream
+        extends FilterInputStream
+    {
+
+        private final File m_file;
+
+        DeleteOnCloseInputStream( final InputStream in, final File file )
+        {
+            super( in );
+            m_file = file;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                delete( m_file );
+            }
+        }
+
+    }
+
     /**
      * Does nothing.
      */
@@ -0,0 +1,44 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map removing the least recently used entries above a maximum number of entries.
+ */
+class LruMap<K, V>
+    extends LinkedHashMap<K, V>
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final int m_maxSize;
+
+    LruMap( final int maxSize )
+    {
+        super( 16, 0.75f, true );
+        m_maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry( final Map.Entry<K, V> eldest )
+    {
+        return size() > m_maxSize;
+    }
+
+}
@@ -0,0 +1,601 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Descriptors;
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+import org.ops4j.pax.swissbox.bnd.BndUtils;
+import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+import org.ops4j.pax.url.commons.zip.ZipArchive;
+import org.ops4j.pax.url.commons.zip.ZipArchiveEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates bundles as {@link BndUtils#createBundle(InputStream, Properties, String, OverwriteMode)} does, but parses the
+ * class files of the jar in parallel.
+ * <p>
+ * bnd parses the classes of the jar it analyzes one after the other. Here the classes are parsed (by bnd) in the
+ * threads of a fork-join pool, and their references merged by package. bnd then analyzes a copy of the jar where the
+ * classes of each package are replaced by a single class referring to all the packages they refer to, so the
+ * Import-Package and Export-Package headers (uses directives included) are the same.
+ * <p>
+ * The bundle is then streamed out of the jar with the computed manifest (see {@link BundleInputStream}), instead of
+ * being held in memory by bnd. Together with the classes being parsed one at a time, memory use does not depend on the
+ * size of the jar.
+ * <p>
+ * The analysis of the classes only depends on the content of the jar and on the bnd directives, not on the headers
+ * being set: it is kept in memory and reused when the same jar is wrapped again, even with other headers.
+ * <p>
+ * Instructions looking at the classes themselves rather than at their references (the <code>${classes}</code> macro,
+ * component and metatype annotations, plugins) would see the replacing classes instead: bnd then parses the classes
+ * of the jar as usual (see {@link #inspectsClasses(Properties)}), and only the streaming of the bundle remains.
+ */
+class ParallelWrapper
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( ParallelWrapper.class );
+
+    /**
+     * Simple name of the classes standing for all the classes of a package, followed by their class file version.
+     */
+    private static final String STUB_NAME = "PaxUrlWrap$Package";
+    /**
+     * Maximum number of classes parsed by a single task.
+     */
+    private static final int BATCH_SIZE = 64;
+    private static final String PACKAGE_INFO = "package-info.class";
+    /**
+     * Maximum number of class analyses kept in memory.
+     */
+    private static final int ANALYSES_SIZE = 32;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+
+    /**
+     * The <code>${classes}</code> macro, whatever the brackets.
+     */
+    private static final Pattern CLASSES_MACRO = Pattern.compile( "\\$[{(\\[<]classes\\b" );
+    /**
+     * Instructions making bnd look at the classes themselves.
+     */
+    private static final Set<String> INSPECTING_CLASSES = new HashSet<String>( Arrays.asList(
+        Constants.SERVICE_COMPONENT, Constants.DSANNOTATIONS, Constants.METATYPE, Constants.PLUGIN,
+        Constants.CONDITIONAL_PACKAGE, Constants.CONDITIONALPACKAGE
+    ) );
+
+    /**
+     * Pool parsing the classes, created on first use. Guarded by the class.
+     */
+    private static ForkJoinPool pool;
+    /**
+     * Class analyses, by jar content and bnd directives (see {@link #analysisKey(String, Properties)}).
+     */
+    private static final Map<String, ClassAnalysis> ANALYSES =
+        Collections.synchronizedMap( new LruMap<String, ClassAnalysis>( ANALYSES_SIZE ) );
+
+    private ParallelWrapper()
+    {
+        // utility class
+    }
+
+    /**
+     * Creates a bundle out of a jar, in two passes: the manifest is first computed, then the bundle is streamed.
+     *
+     * @param jar          jar to wrap, that must not be removed before the returned stream is closed
+     * @param hash         hash of the content of the jar, null if not known (classes are then always parsed)
+     * @param instructions bnd instructions
+     * @param location     location of the jar (recorded in the manifest and used as default symbolic name)
+     * @param mode         how an existing manifest is handled
+     *
+     * @return bundle, written as it is read
+     *
+     * @throws IOException if the jar cannot be read or analyzed
+     */
+    static InputStream createBundle( final File jar,
+                                     final String hash,
+                                     final Properties instructions,
+                                     final String location,
+                                     final OverwriteMode mode )
+        throws IOException
+    {
+        LOG.debug( "Creating bundle for [" + location + "]" );
+        final Manifest manifest = calculateManifest( jar, hash, instructions, location, mode );
+        return new BundleInputStream( new ZipArchive( jar ), manifest );
+    }
+
+    /**
+     * Computes the manifest of the bundle.
+     */
+    private static Manifest calculateManifest( final File jar,
+                                               final String hash,
+                                               final Properties instructions,
+                                               final String location,
+                                               final OverwriteMode mode )
+        throws IOException
+    {
+        // resources are read only if bnd needs them
+        final Jar content = new Jar( "dot", jar );
+        final Analyzer analyzer = new Analyzer();
+        try
+        {
+            final Manifest manifest = content.getManifest();
+            if( manifest != null
+                && mode == OverwriteMode.KEEP
+                && ( manifest.getMainAttributes().getValue( Constants.EXPORT_PACKAGE ) != null
+                     || manifest.getMainAttributes().getValue( Constants.IMPORT_PACKAGE ) != null ) )
+            {
+                return manifest;
+            }
+            final Properties properties = new Properties();
+            properties.putAll( instructions );
+            properties.put( "Generated-By-Ops4j-Pax-From", location );
+            analyzer.setJar( content );
+            analyzer.setProperties( properties );
+            if( manifest != null && mode == OverwriteMode.MERGE )
+            {
+                analyzer.mergeManifest( manifest );
+            }
+            checkMandatoryProperties( analyzer, location );
+            if( inspectsClasses( analyzer.getProperties() ) )
+            {
+                LOG.debug( "Instructions for [" + location + "] inspect classes, left to bnd" );
+            }
+            else
+            {
+                replaceClasses( content, analyze( jar, hash, instructions ), activator( analyzer ) );
+            }
+            return analyzer.calcManifest();
+        }
+        catch( IOException e )
+        {
+            throw e;
+        }
+        catch( Exception e )
+        {
+            throw new IOException( "Bundle cannot be generated (" + e.getMessage() + ")", e );
+        }
+        finally
+        {
+            analyzer.close();
+            content.close();
+        }
+    }
+
+    /**
+     * Returns the analysis of the classes of a jar, parsed only if the same content was not analyzed with the same bnd
+     * directives yet.
+     *
+     * @param jar          jar to analyze
+     * @param hash         hash of the content of the jar, null if not known (classes are then parsed)
+     * @param instructions bnd instructions
+     *
+     * @return analysis of the classes, not to be modified
+     *
+     * @throws IOException if the jar cannot be read
+     */
+    static ClassAnalysis analyze( final File jar, final String hash, final Properties instructions )
+        throws IOException
+    {
+        if( hash == null )
+        {
+            return analyze( jar, instructions );
+        }
+        final String key = analysisKey( hash, instructions );
+        ClassAnalysis analysis = ANALYSES.get( key );
+        if( analysis != null )
+        {
+            LOG.debug( "Classes of [" + jar + "] already analyzed" );
+            return analysis;
+        }
+        analysis = analyze( jar, instructions );
+        ANALYSES.put( key, analysis );
+        return analysis;
+    }
+
+    /**
+     * Parses the classes of a jar.
+     *
+     * @param jar          jar to analyze
+     * @param instructions bnd instructions (some of which affect parsing)
+     *
+     * @return analysis of the classes
+     *
+     * @throws IOException if the jar cannot be read
+     */
+    static ClassAnalysis analyze( final File jar, final Properties instructions )
+        throws IOException
+    {
+        // the class files are read concurrently out of the mapped jar
+        final ZipArchive zip = new ZipArchive( jar );
+        try
+        {
+            final List<ZipArchiveEntry> classes = new ArrayList<ZipArchiveEntry>();
+            for( ZipArchiveEntry entry : zip.getEntries() )
+            {
+                if( !entry.isDirectory() && entry.getName().endsWith( ".class" ) && !isPackageInfo( entry.getName() ) )
+                {
+                    classes.add( entry );
+                }
+            }
+            return pool().invoke( new ParseTask( zip, classes, 0, classes.size(), instructions ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Headers (as Bundle-SymbolicName or Import-Package) do not change how classes are parsed, bnd directives (starting
+     * with a dash) may: only the latter are part of the key.
+     */
+    private static String analysisKey( final String hash, final Properties instructions )
+    {
+        final StringBuilder key = new StringBuilder( hash );
+        for( Map.Entry<Object, Object> entry : new TreeMap<Object, Object>( instructions ).entrySet() )
+        {
+            if( entry.getKey().toString().startsWith( "-" ) )
+            {
+                key.append( '\n' ).append( entry.getKey() ).append( '=' ).append( entry.getValue() );
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Shuts the pool parsing the classes down, and forgets the analyzed classes.
+     */
+    static synchronized void shutdown()
+    {
+        ANALYSES.clear();
+        if( pool != null )
+        {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static synchronized ForkJoinPool pool()
+    {
+        if( pool == null )
+        {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Same defaults as {@link BndUtils}.
+     */
+    private static void checkMandatoryProperties( final Analyzer analyzer, final String location )
+    {
+        final String importPackage = analyzer.getProperty( Constants.IMPORT_PACKAGE );
+        if( importPackage == null || importPackage.trim().length() == 0 )
+        {
+            analyzer.setProperty( Constants.IMPORT_PACKAGE, "*;resolution:=optional" );
+        }
+        final String exportPackage = analyzer.getProperty( Constants.EXPORT_PACKAGE );
+        if( exportPackage == null || exportPackage.trim().length() == 0 )
+        {
+            analyzer.setProperty( Constants.EXPORT_PACKAGE, "*" );
+        }
+        if( analyzer.getProperty( Constants.BUNDLE_SYMBOLICNAME, null ) == null )
+        {
+            analyzer.setProperty( Constants.BUNDLE_SYMBOLICNAME, location.replaceAll( "[^a-zA-Z_0-9.-]", "_" ) );
+        }
+    }
+
+    /**
+     * Returns true if bnd needs the classes of the jar as they are to apply the instructions (merged with the
+     * manifest), rather than their references only.
+     */
+    static boolean inspectsClasses( final Properties instructions )
+    {
+        for( String name : instructions.stringPropertyNames() )
+        {
+            if( INSPECTING_CLASSES.contains( name )
+                || CLASSES_MACRO.matcher( instructions.getProperty( name ) ).find() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the path of the bundle activator class (which bnd looks for), or null.
+     */
+    private static String activator( final Analyzer analyzer )
+    {
+        final String activator = analyzer.getProperty( Constants.BUNDLE_ACTIVATOR );
+        if( activator == null || activator.trim().length() == 0 )
+        {
+            return null;
+        }
+        final int end = activator.indexOf( ';' );
+        return ( end < 0 ? activator : activator.substring( 0, end ) ).trim().replace( '.', '/' ) + ".class";
+    }
+
+    /**
+     * Replaces the grouped classes of the jar by one class per package and version.
+     *
+     * @param jar       analyzed jar
+     * @param analysis  analysis of the classes
+     * @param activator path of the activator class, kept
+     */
+    private static void replaceClasses( final Jar jar, final ClassAnalysis analysis, final String activator )
+        throws IOException
+    {
+        final Map<String, Resource> stubs = new HashMap<String, Resource>();
+        for( Map.Entry<String, ClassAnalysis.Group> entry : analysis.getGroups().entrySet() )
+        {
+            final ClassAnalysis.Group group = entry.getValue();
+            for( int version : group.getVersions() )
+            {
+                final String path = entry.getKey() + STUB_NAME + version + ".class";
+                if( jar.getResource( path ) != null )
+                {
+                    // never happens, but then the classes are analyzed as they are
+                    LOG.debug( "Class [" + path + "] already exists" );
+                    return;
+                }
+                // references are held by the class of the highest version
+                final boolean last = version == group.getVersions().last();
+                stubs.put( path, new EmbeddedResource( stub(
+                    name( group.getPackage(), STUB_NAME + version ),
+                    version,
+                    last ? group.getReferred() : Collections.<String>emptySet(),
+                    last ? group.getApiUses() : Collections.<String>emptySet()
+                ), 0 ) );
+            }
+        }
+        for( String path : new ArrayList<String>( jar.getResources().keySet() ) )
+        {
+            if( path.endsWith( ".class" ) && !isPackageInfo( path ) && !path.equals( activator )
+                && !analysis.isUngrouped( path ) )
+            {
+                jar.remove( path );
+            }
+        }
+        for( Map.Entry<String, Resource> entry : stubs.entrySet() )
+        {
+            jar.putResource( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    private static boolean isPackageInfo( final String path )
+    {
+        return path.endsWith( "/" + PACKAGE_INFO ) || path.equals( PACKAGE_INFO );
+    }
+
+    private static String name( final String pkg, final String simpleName )
+    {
+        return pkg.length() == 0 ? simpleName : pkg + "/" + simpleName;
+    }
+
+    /**
+     * Returns the class file of a class referring to a field of a class of each given package (bnd only considers the
+     * classes whose members are referred), and with a public field of a type of each package used by its API.
+     *
+     * @param name     class name (binary)
+     * @param version  class file major version
+     * @param referred referred packages (binary names)
+     * @param apiUses  packages used by the API (binary names)
+     */
+    static byte[] stub( final String name,
+                        final int version,
+                        final Collection<String> referred,
+                        final Collection<String> apiUses )
+        throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( 0xCAFEBABE );
+        out.writeShort( 0 );
+        out.writeShort( version );
+        // constant pool (indexes start at 1): this and super classes, name and type of the referred fields, a class
+        // and a field entry per referred package, then the type of each public field
+        out.writeShort( 8 + 3 * referred.size() + apiUses.size() );
+        writeClass( out, 1, name );
+        writeClass( out, 3, "java/lang/Object" );
+        out.writeByte( CONSTANT_UTF8 );
+        out.writeUTF( "x" );
+        out.writeByte( CONSTANT_UTF8 );
+        out.writeUTF( "I" );
+        out.writeByte( CONSTANT_NAME_AND_TYPE );
+        out.writeShort( 5 );
+        out.writeShort( 6 );
+        int index = 8;
+        for( String pkg : referred )
+        {
+            writeClass( out, index, name( pkg, STUB_NAME ) );
+            out.writeByte( CONSTANT_FIELDREF );
+            out.writeShort( index + 1 );
+            out.writeShort( 7 );
+            index += 3;
+        }
+        final int types = index;
+        for( String pkg : apiUses )
+        {
+            out.writeByte( CONSTANT_UTF8 );
+            out.writeUTF( "L" + name( pkg, STUB_NAME ) + ";" );
+        }
+        // public, super, this class, super class, no interfaces
+        out.writeShort( ACC_PUBLIC | ACC_SUPER );
+        out.writeShort( 2 );
+        out.writeShort( 4 );
+        out.writeShort( 0 );
+        // fields (all named "x"), without attributes
+        out.writeShort( apiUses.size() );
+        for( int i = 0; i < apiUses.size(); i++ )
+        {
+            out.writeShort( ACC_PUBLIC );
+            out.writeShort( 5 );
+            out.writeShort( types + i );
+            out.writeShort( 0 );
+        }
+        // no methods or attributes
+        out.writeShort( 0 );
+        out.writeShort( 0 );
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the name and class entries of a class at the given constant pool index.
+     */
+    private static void writeClass( final DataOutputStream out, final int index, final String name )
+        throws IOException
+    {
+        out.writeByte( CONSTANT_UTF8 );
+        out.writeUTF( name );
+        out.writeByte( CONSTANT_CLASS );
+        out.writeShort( index );
+    }
+
+    /**
+     * Parses a range of classes, splitting it in smaller ranges parsed in parallel.
+     */
+    private static class ParseTask
+        extends RecursiveTask<ClassAnalysis>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ZipArchive m_zip;
+        private final List<ZipArchiveEntry> m_classes;
+        private final int m_from;
+        private final int m_to;
+        private final Properties m_instructions;
+
+        ParseTask( final ZipArchive zip,
+                   final List<ZipArchiveEntry> classes,
+                   final int from,
+                   final int to,
+                   final Properties instructions )
+        {
+            m_zip = zip;
+            m_classes = classes;
+            m_from = from;
+            m_to = to;
+            m_instructions = instructions;
+        }
+
+        @Override
+        protected ClassAnalysis compute()
+        {
+            if( m_to - m_from > BATCH_SIZE )
+            {
+                final int middle = ( m_from + m_to ) >>> 1;
+                final ParseTask first = new ParseTask( m_zip, m_classes, m_from, middle, m_instructions );
+                first.fork();
+                final ClassAnalysis second =
+                    new ParseTask( m_zip, m_classes, middle, m_to, m_instructions ).compute();
+                return first.join().merge( second );
+            }
+            final ClassAnalysis analysis = new ClassAnalysis();
+            // analyzers are not thread safe, each task uses its own
+            final Analyzer analyzer = new Analyzer();
+            try
+            {
+                analyzer.setProperties( m_instructions );
+                for( ZipArchiveEntry entry : m_classes.subList( m_from, m_to ) )
+                {
+                    try
+                    {
+                        final byte[] bytes = read( entry );
+                        final Clazz clazz = new Clazz(
+                            analyzer, entry.getName(), new EmbeddedResource( bytes, entry.getTime() )
+                        );
+                        clazz.parseClassFile();
+                        analysis.addClass(
+                            entry.getName(),
+                            clazz.getClassName().getPackageRef().getBinary(),
+                            ( ( bytes[6] & 0xff ) << 8 ) | ( bytes[7] & 0xff ),
+                            binaryNames( clazz.getReferred() ),
+                            binaryNames( clazz.getAPIUses() )
+                        );
+                    }
+                    catch( Exception e )
+                    {
+                        // left to bnd, that reports it as usual
+                        analysis.addUnparsed( entry.getName() );
+                    }
+                }
+            }
+            finally
+            {
+                analyzer.close();
+            }
+            return analysis;
+        }
+
+        private static Set<String> binaryNames( final Collection<Descriptors.PackageRef> packages )
+        {
+            final Set<String> names = new TreeSet<String>();
+            for( Descriptors.PackageRef ref : packages )
+            {
+                names.add( ref.getBinary() );
+            }
+            return names;
+        }
+
+        private byte[] read( final ZipArchiveEntry entry )
+            throws IOException
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                entry.getSize() > 0 ? (int) entry.getSize() : 8192
+            );
+            BundleCache.copy( m_zip.getInputStream( entry ), out );
+            return out.toByteArray();
+        }
+
+    }
+
+}
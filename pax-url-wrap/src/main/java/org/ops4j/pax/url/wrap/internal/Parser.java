@@ -18,10 +18,14 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -67,6 +71,21 @@ public class Parser
     private static final Pattern SYNTAX_JAR_BND =
         Pattern.compile( "(.+?)" + INSTRUCTIONS_FILE_SEPARATOR + "(.+?)" );
 
+    /**
+     * Maximum number of parsed paths, as well as of instructions files, kept in memory.
+     */
+    private static final int CACHE_SIZE = 256;
+    /**
+     * Parsed paths, by path. Paths referring to an instructions file that is not a local file are not cached.
+     */
+    private static final Map<String, Parsed> PARSED =
+        Collections.synchronizedMap( new LruMap<String, Parsed>( CACHE_SIZE ) );
+    /**
+     * Local instructions files, by url.
+     */
+    private static final Map<String, InstructionsFile> INSTRUCTIONS_FILES =
+        Collections.synchronizedMap( new LruMap<String, InstructionsFile>( CACHE_SIZE ) );
+
     /**
      * Wrapped jar URL.
      */
@@ -82,6 +101,9 @@ public class Parser
 
     /**
      * Creates a new protocol parser.
+     * <p>
+     * Parsed paths, and the local instructions files they refer to, are cached: parsing the same path again, or a path
+     * referring to the same instructions file (as long as the file did not change) does not read the file again.
      *
      * @param path the path part of the url (without starting wrap:)
      *
@@ -100,64 +122,110 @@ public class Parser
                 "Path cannot start or end with " + INSTRUCTIONS_SEPARATOR + ". Syntax " + SYNTAX
             );
         }
+        Parsed parsed = PARSED.get( path );
+        if( parsed == null || ( parsed.m_instructionsFile != null && !parsed.m_instructionsFile.isUpToDate() ) )
+        {
+            parsed = parse( path );
+            if( parsed.m_cacheable )
+            {
+                PARSED.put( path, parsed );
+            }
+        }
+        m_wrappedJarURL = parsed.m_wrappedJarURL;
+        // callers may change the instructions
         m_wrappingProperties = new Properties();
+        m_wrappingProperties.putAll( parsed.m_wrappingProperties );
+        m_overwriteMode = parsed.m_overwriteMode;
+    }
+
+    private static Parsed parse( final String path )
+        throws MalformedURLException
+    {
+        final Parsed parsed = new Parsed();
         Matcher matcher = SYNTAX_JAR_BND_INSTR.matcher( path );
         if( matcher.matches() )
         {
             // we have all the parts
-            m_wrappedJarURL = new URL( matcher.group( 1 ) );
-            parseInstructionsFile( new URL( matcher.group( 2 ) ) );
-            m_wrappingProperties.putAll( BndUtils.parseInstructions( matcher.group( 3 ) ) );
+            parsed.m_wrappedJarURL = new URL( matcher.group( 1 ) );
+            parseInstructionsFile( new URL( matcher.group( 2 ) ), parsed );
+            parsed.m_wrappingProperties.putAll( BndUtils.parseInstructions( matcher.group( 3 ) ) );
         }
         else if( ( matcher = SYNTAX_JAR_INSTR.matcher( path ) ).matches() )
         {
             // we have a wrapped jar and instructions
-            m_wrappedJarURL = new URL( matcher.group( 1 ) );
-            m_wrappingProperties.putAll( BndUtils.parseInstructions( matcher.group( 2 ) ) );
+            parsed.m_wrappedJarURL = new URL( matcher.group( 1 ) );
+            parsed.m_wrappingProperties.putAll( BndUtils.parseInstructions( matcher.group( 2 ) ) );
         }
         else if( ( matcher = SYNTAX_JAR_BND.matcher( path ) ).matches() )
         {
             // we have a wrapped jar and a wrapping instructions file
-            m_wrappedJarURL = new URL( matcher.group( 1 ) );
-            parseInstructionsFile( new URL( matcher.group( 2 ) ) );
+            parsed.m_wrappedJarURL = new URL( matcher.group( 1 ) );
+            parseInstructionsFile( new URL( matcher.group( 2 ) ), parsed );
         }
         else
         {
             //we have only a wrapped jar
-            m_wrappedJarURL = new URL( path );
+            parsed.m_wrappedJarURL = new URL( path );
         }
         OverwriteMode overwriteMode;
         try
         {
             overwriteMode = OverwriteMode.valueOf(
-                m_wrappingProperties.getProperty( "overwrite", OverwriteMode.KEEP.name() ).toUpperCase()
+                parsed.m_wrappingProperties.getProperty( "overwrite", OverwriteMode.KEEP.name() ).toUpperCase()
             );
         }
         catch( Exception e )
         {
             overwriteMode = OverwriteMode.KEEP;
         }
-        m_overwriteMode = overwriteMode;
+        parsed.m_overwriteMode = overwriteMode;
+        return parsed;
     }
 
     /**
-     * Loads the properties out of an url.
+     * Loads the properties out of an url, from the cache if the url is a local file that did not change.
      *
      * @param bndFileURL url of the file containing the instructions
+     * @param parsed     parsed path the instructions are added to
      *
      * @throws MalformedURLException if the file could not be read
      */
-    private void parseInstructionsFile( final URL bndFileURL )
+    private static void parseInstructionsFile( final URL bndFileURL, final Parsed parsed )
+        throws MalformedURLException
+    {
+        final File file = localFile( bndFileURL );
+        if( file == null )
+        {
+            parsed.m_wrappingProperties.putAll( loadInstructions( bndFileURL ) );
+            parsed.m_cacheable = false;
+            return;
+        }
+        final String key = bndFileURL.toExternalForm();
+        InstructionsFile instructionsFile = INSTRUCTIONS_FILES.get( key );
+        if( instructionsFile == null || !instructionsFile.isUpToDate() )
+        {
+            // fingerprint taken before reading, so that a change while reading is seen next time
+            final long lastModified = file.lastModified();
+            final long length = file.length();
+            instructionsFile = new InstructionsFile( file, lastModified, length, loadInstructions( bndFileURL ) );
+            INSTRUCTIONS_FILES.put( key, instructionsFile );
+        }
+        parsed.m_wrappingProperties.putAll( instructionsFile.m_instructions );
+        parsed.m_instructionsFile = instructionsFile;
+    }
+
+    private static Properties loadInstructions( final URL bndFileURL )
         throws MalformedURLException
     {
         // TODO use the certificate check property from the handler instead of true bellow
+        final Properties instructions = new Properties();
         try
         {
             InputStream is = null;
             try
             {
                 is = URLUtils.prepareInputStream( bndFileURL, true );
-                m_wrappingProperties.load( is );
+                instructions.load( is );
             }
             finally
             {
@@ -171,6 +239,31 @@ public class Parser
         {
             throwAsMalformedURLException( "Could not retrieve the instructions from [" + bndFileURL + "]", e );
         }
+        return instructions;
+    }
+
+    /**
+     * Returns the file of a file: url, or null.
+     */
+    private static File localFile( final URL url )
+    {
+        if( !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+        try
+        {
+            final File file = new File( url.toURI() );
+            return file.isFile() ? file : null;
+        }
+        catch( URISyntaxException e )
+        {
+            return null;
+        }
+        catch( IllegalArgumentException e )
+        {
+            return null;
+        }
     }
 
     /**
@@ -219,4 +312,50 @@ public class Parser
         throw exception;
     }
 
+    /**
+     * Parsed path.
+     */
+    private static class Parsed
+    {
+
+        private URL m_wrappedJarURL;
+        private final Properties m_wrappingProperties = new Properties();
+        private OverwriteMode m_overwriteMode;
+        /**
+         * Local instructions file the instructions were read from, if any.
+         */
+        private InstructionsFile m_instructionsFile;
+        /**
+         * False if instructions were read from a url that is not a local file.
+         */
+        private boolean m_cacheable = true;
+
+    }
+
+    /**
+     * Instructions read from a local file, with the last modification time and length of the file when read.
+     */
+    private static class InstructionsFile
+    {
+
+        private final File m_file;
+        private final long m_lastModified;
+        private final long m_length;
+        private final Properties m_instructions;
+
+        InstructionsFile( final File file, final long lastModified, final long length, final Properties instructions )
+        {
+            m_file = file;
+            m_lastModified = lastModified;
+            m_length = length;
+            m_instructions = instructions;
+        }
+
+        boolean isUpToDate()
+        {
+            return m_file.lastModified() == m_lastModified && m_file.length() == m_length;
+        }
+
+    }
+
 }
@@ -57,4 +57,30 @@ public class ConfigurationImplTest
         verify( propertyResolver );
     }
 
+    @Test
+    public void getEngine()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.engine" ) ).andReturn( "parallel" );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Engine", "parallel", config.getEngine() );
+        verify( propertyResolver );
+    }
+
+    @Test
+    public void getDefaultEngine()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.engine" ) ).andReturn( null );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Engine", "bnd", config.getEngine() );
+        verify( propertyResolver );
+    }
+
 }
@@ -0,0 +1,242 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.io.FileUtils;
+import org.ops4j.io.StreamUtils;
+import org.ops4j.pax.url.wrap.ServiceConstants;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link Connection}.
+ */
+public class ConnectionTest
+{
+
+    private File m_dir;
+    private File m_cache;
+
+    @Before
+    public void setUp()
+    {
+        m_dir = new File( "target/connection-test" );
+        FileUtils.delete( m_dir );
+        m_cache = new File( m_dir, "cache" );
+        m_dir.mkdirs();
+    }
+
+    @Test
+    public void bundlesAreCachedByContentAndInstructions()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        writeJar( jar, "a" );
+        final Properties properties = new Properties();
+        properties.setProperty( ServiceConstants.PROPERTY_CACHE_DIRECTORY, m_cache.getPath() );
+        final Configuration configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties ) );
+
+        final byte[] first = read( open( jar, "$Bundle-SymbolicName=test", configuration ) );
+        assertEquals( "test", new JarInputStream( new ByteArrayInputStream( first ) ).getManifest()
+            .getMainAttributes().getValue( "Bundle-SymbolicName" ) );
+        assertEquals( 1, bundles().length );
+        assertArrayEquals( first, read( open( jar, "$Bundle-SymbolicName=test", configuration ) ) );
+        assertEquals( 1, bundles().length );
+
+        read( open( jar, "$Bundle-SymbolicName=other", configuration ) );
+        assertEquals( 2, bundles().length );
+        writeJar( jar, "b" );
+        read( open( jar, "$Bundle-SymbolicName=test", configuration ) );
+        assertEquals( 3, bundles().length );
+        // downloaded jars are not left behind
+        assertEquals( 0, m_cache.list().length - bundles().length );
+    }
+
+    @Test
+    public void cacheIsBounded()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        writeJar( jar, "a" );
+        final Properties properties = new Properties();
+        properties.setProperty( ServiceConstants.PROPERTY_CACHE_DIRECTORY, m_cache.getPath() );
+        properties.setProperty( ServiceConstants.PROPERTY_CACHE_MAX_SIZE, "1" );
+        final Configuration configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties ) );
+
+        read( open( jar, "$Bundle-SymbolicName=one", configuration ) );
+        read( open( jar, "$Bundle-SymbolicName=two", configuration ) );
+        assertEquals( 1, bundles().length );
+    }
+
+    @Test
+    public void bundlesAreKeptAsIs()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes().putValue( "Bundle-SymbolicName", "test" );
+        manifest.getMainAttributes().putValue( "Export-Package", "org.ops4j.pax.url.wrap.internal" );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ), manifest );
+        out.putNextEntry( new JarEntry( "content.txt" ) );
+        out.close();
+        final Configuration configuration = new ConfigurationImpl( new PropertiesPropertyResolver( new Properties() ) );
+
+        assertTrue( Connection.isBundle( jar ) );
+        assertArrayEquals( read( new FileInputStream( jar ) ), read( open( jar, "", configuration ) ) );
+        assertFalse( Arrays.equals(
+            read( new FileInputStream( jar ) ), read( open( jar, "$overwrite=merge", configuration ) )
+        ) );
+
+        writeJar( jar, "a" );
+        assertFalse( Connection.isBundle( jar ) );
+    }
+
+    @Test
+    public void parallelEngineCreatesBundles()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        writeJar( jar, "a" );
+        final Properties properties = new Properties();
+        properties.setProperty( ServiceConstants.PROPERTY_ENGINE, ServiceConstants.ENGINE_PARALLEL );
+        final Configuration configuration = new ConfigurationImpl( new PropertiesPropertyResolver( properties ) );
+
+        final JarInputStream bundle = new JarInputStream( open( jar, "$Bundle-SymbolicName=test", configuration ) );
+        final Attributes attributes = bundle.getManifest().getMainAttributes();
+        assertEquals( "test", attributes.getValue( "Bundle-SymbolicName" ) );
+        assertTrue( attributes.getValue( "Export-Package" ).contains( "org.ops4j.pax.url.wrap.internal" ) );
+        assertTrue( attributes.getValue( "Import-Package" ).contains( "org.junit" ) );
+        bundle.close();
+    }
+
+    @Test
+    public void releasedArtifactsAreImmutable()
+        throws Exception
+    {
+        assertTrue( Connection.isImmutable( mvn( "mvn:org.ops4j/test/1.0" ) ) );
+        assertTrue( Connection.isImmutable( mvn( "mvn:http://repo!org.ops4j/test/1.0/jar" ) ) );
+        assertFalse( Connection.isImmutable( mvn( "mvn:org.ops4j/test/1.0-SNAPSHOT" ) ) );
+        assertFalse( Connection.isImmutable( mvn( "mvn:org.ops4j/test/LATEST" ) ) );
+        assertFalse( Connection.isImmutable( mvn( "mvn:org.ops4j/test/[1.0,2.0)" ) ) );
+        assertFalse( Connection.isImmutable( mvn( "mvn:org.ops4j/test" ) ) );
+        assertFalse( Connection.isImmutable( new File( "test.jar" ).toURI().toURL() ) );
+    }
+
+    private InputStream open( final File jar, final String instructions, final Configuration configuration )
+        throws IOException
+    {
+        final URL url = new URL( null, "wrap:" + jar.toURI().toURL() + instructions, new NoHandler() );
+        return new Connection( url, configuration ).getInputStream();
+    }
+
+    private File[] bundles()
+    {
+        final File[] files = m_cache.listFiles();
+        assertNotNull( files );
+        int count = 0;
+        for( File file : files )
+        {
+            if( file.getName().endsWith( ".jar" ) )
+            {
+                count++;
+            }
+        }
+        final File[] bundles = new File[count];
+        count = 0;
+        for( File file : files )
+        {
+            if( file.getName().endsWith( ".jar" ) )
+            {
+                bundles[count++] = file;
+            }
+        }
+        return bundles;
+    }
+
+    private static URL mvn( final String spec )
+        throws IOException
+    {
+        return new URL( null, spec, new NoHandler() );
+    }
+
+    /**
+     * Writes a jar containing this class, and a resource of given content.
+     */
+    private static void writeJar( final File file, final String content )
+        throws IOException
+    {
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            final String name = ConnectionTest.class.getName().replace( '.', '/' ) + ".class";
+            out.putNextEntry( new JarEntry( name ) );
+            StreamUtils.copyStream( ConnectionTest.class.getClassLoader().getResourceAsStream( name ), out, false );
+            out.putNextEntry( new JarEntry( "content.txt" ) );
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyStream( in, out, true );
+        return out.toByteArray();
+    }
+
+    private static class NoHandler
+        extends URLStreamHandler
+    {
+
+        @Override
+        protected URLConnection openConnection( final URL u )
+            throws IOException
+        {
+            throw new IOException( "Not supported" );
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import aQute.bnd.osgi.Analyzer;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.io.FileUtils;
+import org.ops4j.io.StreamUtils;
+import org.ops4j.pax.swissbox.bnd.BndUtils;
+import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ParallelWrapper}.
+ */
+public class ParallelWrapperTest
+{
+
+    private File m_dir;
+
+    @Before
+    public void setUp()
+    {
+        m_dir = new File( "target/parallel-wrapper-test" );
+        FileUtils.delete( m_dir );
+        m_dir.mkdirs();
+    }
+
+    @Test
+    public void sameManifestAsBnd()
+        throws Exception
+    {
+        final File jar = jarOf( Test.class );
+        final Properties instructions = new Properties();
+        assertSameBundle( jar, instructions, OverwriteMode.FULL );
+
+        instructions.setProperty( "Export-Package", "org.junit.*;version=4" );
+        instructions.setProperty( "Import-Package", "org.hamcrest;version=\"[1,2)\",*" );
+        instructions.setProperty( "Bundle-SymbolicName", "junit" );
+        assertSameBundle( jar, instructions, OverwriteMode.MERGE );
+    }
+
+    @Test
+    public void sameManifestAsBndForInstructionsInspectingClasses()
+        throws Exception
+    {
+        final File jar = jarOf( Test.class );
+        final Properties instructions = new Properties();
+        instructions.setProperty( "Test-Classes", "${classes;NAMED;org.junit.Assert*}" );
+        instructions.setProperty( "Tests", "${classes;IMPLEMENTING;junit.framework.Test}" );
+        assertTrue( ParallelWrapper.inspectsClasses( instructions ) );
+        assertSameBundle( jar, instructions, OverwriteMode.FULL );
+    }
+
+    @Test
+    public void sameManifestAsBndForLargeJar()
+        throws Exception
+    {
+        assertSameBundle( jarOf( Analyzer.class ), new Properties(), OverwriteMode.FULL );
+    }
+
+    @Test
+    public void bundleIsValidZipFile()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) );
+        out.putNextEntry( new JarEntry( "content.txt" ) );
+        out.close();
+        final File bundle = new File( m_dir, "bundle.jar" );
+        BundleCache.copy(
+            ParallelWrapper.createBundle( jar, null, new Properties(), "test", OverwriteMode.MERGE ),
+            new FileOutputStream( bundle )
+        );
+        new ZipFile( bundle ).close();
+    }
+
+    @Test
+    public void bundleIsStreamedManifestFirst()
+        throws Exception
+    {
+        final File jar = new File( m_dir, "test.jar" );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) );
+        final byte[] content = new byte[100000];
+        new Random( 0 ).nextBytes( content );
+        out.putNextEntry( new JarEntry( "a/content.bin" ) );
+        out.write( content );
+        out.putNextEntry( new JarEntry( "META-INF/MANIFEST.MF" ) );
+        out.write( "Manifest-Version: 1.0\r\nBundle-Name: old\r\n\r\n".getBytes( "UTF-8" ) );
+        out.close();
+
+        final ZipInputStream bundle = new ZipInputStream(
+            ParallelWrapper.createBundle( jar, null, new Properties(), "test", OverwriteMode.FULL )
+        );
+        try
+        {
+            assertEquals( "META-INF/", bundle.getNextEntry().getName() );
+            assertEquals( "META-INF/MANIFEST.MF", bundle.getNextEntry().getName() );
+            final Manifest manifest = new Manifest( bundle );
+            assertEquals( "test", manifest.getMainAttributes().getValue( "Bundle-SymbolicName" ) );
+            assertEquals( "a/", bundle.getNextEntry().getName() );
+            assertEquals( "a/content.bin", bundle.getNextEntry().getName() );
+            final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            StreamUtils.copyStream( bundle, copy, false );
+            assertArrayEquals( content, copy.toByteArray() );
+            assertNull( bundle.getNextEntry() );
+        }
+        finally
+        {
+            bundle.close();
+        }
+    }
+
+    @Test
+    public void classesAreGroupedByPackage()
+        throws Exception
+    {
+        final ClassAnalysis analysis = ParallelWrapper.analyze( jarOf( Test.class ), new Properties() );
+        final ClassAnalysis.Group group = analysis.getGroups().get( "org/junit/" );
+        assertEquals( "org/junit", group.getPackage() );
+        assertTrue( group.getReferred().contains( "org/hamcrest" ) );
+        assertTrue( analysis.isUngrouped( "org/unknown/Test.class" ) );
+    }
+
+    @Test
+    public void analysisIsReusedWhateverTheHeaders()
+        throws Exception
+    {
+        final File jar = jarOf( Test.class );
+        final Properties instructions = new Properties();
+        final ClassAnalysis analysis = ParallelWrapper.analyze( jar, "junit", instructions );
+        instructions.setProperty( "Bundle-SymbolicName", "junit" );
+        assertSame( analysis, ParallelWrapper.analyze( jar, "junit", instructions ) );
+        assertNotSame( analysis, ParallelWrapper.analyze( jar, "other", instructions ) );
+        instructions.setProperty( "-noextraheaders", "true" );
+        assertNotSame( analysis, ParallelWrapper.analyze( jar, "junit", instructions ) );
+        assertNotSame( analysis, ParallelWrapper.analyze( jar, null, new Properties() ) );
+    }
+
+    private void assertSameBundle( final File jar, final Properties instructions, final OverwriteMode mode )
+        throws IOException
+    {
+        final String location = "wrap:" + jar.toURI();
+        final File bundle = new File( m_dir, "bundle.jar" );
+        // jars used have distinct names, that stand for their content
+        BundleCache.copy(
+            ParallelWrapper.createBundle( jar, jar.getName(), instructions, location, mode ),
+            new FileOutputStream( bundle )
+        );
+        final JarInputStream expected = new JarInputStream(
+            BndUtils.createBundle( new FileInputStream( jar ), instructions, location, mode )
+        );
+        final JarInputStream actual = new JarInputStream( new FileInputStream( bundle ) );
+        try
+        {
+            assertEquals( headers( expected.getManifest().getMainAttributes() ),
+                          headers( actual.getManifest().getMainAttributes() ) );
+            assertEquals( entries( expected ), entries( actual ) );
+        }
+        finally
+        {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static Map<String, String> headers( final Attributes attributes )
+    {
+        final Map<String, String> headers = new TreeMap<String, String>();
+        for( Map.Entry<Object, Object> entry : attributes.entrySet() )
+        {
+            headers.put( entry.getKey().toString(), entry.getValue().toString() );
+        }
+        // time of creation
+        headers.remove( "Bnd-LastModified" );
+        return headers;
+    }
+
+    private static Set<String> entries( final JarInputStream jar )
+        throws IOException
+    {
+        final Set<String> entries = new TreeSet<String>();
+        JarEntry entry;
+        while( ( entry = jar.getNextJarEntry() ) != null )
+        {
+            entries.add( entry.getName() );
+        }
+        return entries;
+    }
+
+    private static File jarOf( final Class<?> type )
+        throws Exception
+    {
+        return new File( type.getProtectionDomain().getCodeSource().getLocation().toURI() );
+    }
+
+}
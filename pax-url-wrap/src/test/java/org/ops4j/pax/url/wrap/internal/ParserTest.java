@@ -17,7 +17,10 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
@@ -186,6 +189,48 @@ public class ParserTest
         assertEquals( "Property 3", "v4", props.getProperty( "Bundle-URL" ) );
     }
 
+    @Test
+    public void instructionsFileIsReadOnceWhileUnchanged()
+        throws IOException
+    {
+        File file = new File( "target/parser-test/instructions.properties" );
+        file.getParentFile().mkdirs();
+        write( file, "Bundle-Name=v1" );
+        String instructionsURL = file.toURI().toURL().toExternalForm();
+        assertEquals( "Property 1", "v1",
+                      new Parser( "file:a.jar," + instructionsURL ).getWrappingProperties().getProperty( "Bundle-Name" )
+        );
+        assertEquals( "Property 1", "v1",
+                      new Parser( "file:b.jar," + instructionsURL + "$Bundle-Version=1" ).getWrappingProperties()
+                          .getProperty( "Bundle-Name" )
+        );
+
+        // same fingerprint, not read again
+        long lastModified = file.lastModified();
+        write( file, "Bundle-Name=v2" );
+        file.setLastModified( lastModified );
+        assertEquals( "Property 1", "v1",
+                      new Parser( "file:c.jar," + instructionsURL ).getWrappingProperties().getProperty( "Bundle-Name" )
+        );
+
+        write( file, "Bundle-Name=v10" );
+        assertEquals( "Property 1", "v10",
+                      new Parser( "file:a.jar," + instructionsURL ).getWrappingProperties().getProperty( "Bundle-Name" )
+        );
+    }
+
+    @Test
+    public void cachedInstructionsAreNotShared()
+        throws MalformedURLException
+    {
+        Parser parser = new Parser( "file:toWrap.jar$Bundle-SymbolicName=v1" );
+        parser.getWrappingProperties().setProperty( "Bundle-SymbolicName", "changed" );
+        assertEquals( "Property 1", "v1",
+                      new Parser( "file:toWrap.jar$Bundle-SymbolicName=v1" ).getWrappingProperties()
+                          .getProperty( "Bundle-SymbolicName" )
+        );
+    }
+
     @Test
     public void defaultOverwriteMode()
         throws MalformedURLException
@@ -222,4 +267,18 @@ public class ParserTest
         assertEquals( "Overwrite mode", OverwriteMode.FULL, parser.getOverwriteMode() );
     }
 
+    private static void write( File file, String content )
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content.getBytes( "ISO-8859-1" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
 }